@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.2.2"
     id("io.spring.dependency-management") version "1.1.4"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.abao"
@@ -23,6 +24,7 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-starter-security")
     implementation("org.springframework.boot:spring-boot-starter-validation")
     implementation("org.springframework.boot:spring-boot-starter-websocket")
+    implementation("org.springframework.boot:spring-boot-starter-actuator")
 
     // Database
     runtimeOnly("org.postgresql:postgresql")
@@ -39,6 +41,17 @@ dependencies {
     // Redis - Upstash (optional, for rate limiting)
     implementation("org.springframework.boot:spring-boot-starter-data-redis")
 
+    // Full-text message search (embedded Lucene, CJK bigram analysis)
+    implementation("org.apache.lucene:lucene-core:9.10.0")
+    implementation("org.apache.lucene:lucene-analysis-common:9.10.0")
+    implementation("org.apache.lucene:lucene-highlighter:9.10.0")
+
+    // LZ4 compression of large message bodies
+    implementation("org.lz4:lz4-java:1.8.0")
+
+    // Compressed bitmaps for in-memory group membership
+    implementation("org.roaringbitmap:RoaringBitmap:1.0.6")
+
     // HTTP Client for AI API calls
     implementation("org.springframework.boot:spring-boot-starter-webflux")
 
@@ -56,3 +69,8 @@ dependencies {
 tasks.withType<Test> {
     useJUnitPlatform()
 }
+
+// Microbenchmarks in src/jmh: ./gradlew jmh (results in build/results/jmh)
+jmh {
+    jmhVersion.set("1.37")
+}
@@ -0,0 +1,5 @@
+#!/bin/sh
+# Runs once when the primary's data volume is initialized: allow streaming replication
+# connections for the local read replica (docker compose --profile replica).
+set -e
+echo "host replication all all scram-sha-256" >> "$PGDATA/pg_hba.conf"
@@ -0,0 +1,142 @@
+package com.abao.benchmark;
+
+import com.abao.service.DenseIdRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UUID hash sets (the old WebSocketSessionManager layout) against roaring bitmaps over dense ids
+ * (MembershipIndex), at 1M memberships: 10k groups of 100 members drawn from 100k users, 10% online.
+ * Heap footprint of each layout is printed once per fork during setup.
+ *
+ * <pre>./gradlew jmh</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class MembershipIndexBenchmark {
+
+    private static final int GROUPS = 10_000;
+    private static final int MEMBERS_PER_GROUP = 100;
+    private static final int USERS = 100_000;
+    private static final double ONLINE_RATIO = 0.1;
+
+    private UUID[] users;
+    private UUID[] groups;
+    private int[][] membership;
+
+    private Map<UUID, Set<UUID>> uuidMembers;
+    private Set<UUID> uuidOnline;
+
+    private DenseIdRegistry userIds;
+    private DenseIdRegistry groupIds;
+    private Map<Integer, RoaringBitmap> bitmapMembers;
+    private RoaringBitmap bitmapOnline;
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        users = new UUID[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = UUID.randomUUID();
+        }
+        groups = new UUID[GROUPS];
+        membership = new int[GROUPS][];
+        for (int g = 0; g < GROUPS; g++) {
+            groups[g] = UUID.randomUUID();
+            membership[g] = random.ints(0, USERS).distinct().limit(MEMBERS_PER_GROUP).toArray();
+        }
+        int[] onlineUsers = random.ints(0, USERS).distinct().limit((long) (USERS * ONLINE_RATIO)).toArray();
+
+        long before = usedHeap();
+        uuidMembers = new ConcurrentHashMap<>();
+        for (int g = 0; g < GROUPS; g++) {
+            Set<UUID> members = ConcurrentHashMap.newKeySet();
+            for (int u : membership[g]) {
+                members.add(users[u]);
+            }
+            uuidMembers.put(groups[g], members);
+        }
+        uuidOnline = ConcurrentHashMap.newKeySet();
+        for (int u : onlineUsers) {
+            uuidOnline.add(users[u]);
+        }
+        long uuidBytes = usedHeap() - before;
+
+        before = usedHeap();
+        userIds = new DenseIdRegistry();
+        groupIds = new DenseIdRegistry();
+        bitmapMembers = new ConcurrentHashMap<>();
+        for (int g = 0; g < GROUPS; g++) {
+            RoaringBitmap members = new RoaringBitmap();
+            for (int u : membership[g]) {
+                members.add(userIds.intern(users[u]));
+            }
+            members.runOptimize();
+            bitmapMembers.put(groupIds.intern(groups[g]), members);
+        }
+        bitmapOnline = new RoaringBitmap();
+        for (int u : onlineUsers) {
+            bitmapOnline.add(userIds.intern(users[u]));
+        }
+        long bitmapBytes = usedHeap() - before;
+        long bitmapOnlyBytes = bitmapMembers.values().stream().mapToLong(RoaringBitmap::getLongSizeInBytes).sum();
+
+        System.out.printf("%nHeap for %,d memberships: UUID sets %,d bytes, bitmaps + id registries %,d bytes"
+                + " (bitmaps alone %,d bytes)%n",
+            (long) GROUPS * MEMBERS_PER_GROUP, uuidBytes, bitmapBytes, bitmapOnlyBytes);
+    }
+
+    @Benchmark
+    public boolean uuidSetIsMember() {
+        int g = next();
+        return uuidMembers.get(groups[g]).contains(users[membership[g][g % MEMBERS_PER_GROUP]]);
+    }
+
+    @Benchmark
+    public boolean bitmapIsMember() {
+        int g = next();
+        return bitmapMembers.get(groupIds.find(groups[g]))
+            .contains(userIds.find(users[membership[g][g % MEMBERS_PER_GROUP]]));
+    }
+
+    @Benchmark
+    public void uuidSetOnlineFanOut(Blackhole blackhole) {
+        for (UUID user : uuidMembers.get(groups[next()])) {
+            if (uuidOnline.contains(user)) {
+                blackhole.consume(user);
+            }
+        }
+    }
+
+    @Benchmark
+    public void bitmapOnlineFanOut(Blackhole blackhole) {
+        RoaringBitmap online = RoaringBitmap.and(bitmapMembers.get(groupIds.find(groups[next()])), bitmapOnline);
+        for (int user : online) {
+            blackhole.consume(userIds.uuid(user));
+        }
+    }
+
+    private int next() {
+        cursor = (cursor + 7919) % GROUPS;
+        return cursor;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,52 @@
+package com.abao.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Non-blocking client for the AI providers. Calls to all of them share a bounded connection pool and
+ * a few Netty event-loop threads, so a streamed completion holds no thread while waiting for tokens.
+ * HTTP/2 is negotiated over TLS and falls back to HTTP/1.1. Response timeouts are applied per call in
+ * AIService; the providers themselves are listed in {@link AiProviderProperties}.
+ */
+@Configuration
+@EnableConfigurationProperties(AiProviderProperties.class)
+public class AiClientConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider aiConnectionProvider(
+            @Value("${ai.client.max-connections:100}") int maxConnections) {
+        return ConnectionProvider.builder("ai")
+            .maxConnections(maxConnections)
+            .pendingAcquireTimeout(Duration.ofSeconds(10))
+            .maxIdleTime(Duration.ofSeconds(30))  // providers drop idle keep-alives around 60s
+            .evictInBackground(Duration.ofSeconds(60))
+            .build();
+    }
+
+    @Bean("aiWebClient")
+    public WebClient aiWebClient(
+            WebClient.Builder builder,
+            @Qualifier("aiConnectionProvider") ConnectionProvider connectionProvider,
+            @Value("${ai.deepseek.base-url:https://api.deepseek.com}") String baseUrl,
+            @Value("${ai.client.connect-timeout:5s}") Duration connectTimeout) {
+        HttpProtocol[] protocols = baseUrl.startsWith("https")
+            ? new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11}
+            : new HttpProtocol[] {HttpProtocol.HTTP11};
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+            .protocol(protocols)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis());
+        return builder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+    }
+}
@@ -0,0 +1,49 @@
+package com.abao.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OpenAI-compatible AI backends under ai.providers. When none are listed, ai.deepseek is the only one.
+ */
+@Data
+@ConfigurationProperties(prefix = "ai")
+public class AiProviderProperties {
+
+    private List<Provider> providers = new ArrayList<>();
+    private Routing routing = new Routing();
+
+    @Data
+    public static class Provider {
+        private String name;
+        private String baseUrl;
+        // Blank for self-hosted servers that take no key
+        private String apiKey;
+        private String model;
+        // Caps the completion size requested from this provider; 0 for the caller's own
+        private int maxTokens = 0;
+        // Prompts estimated larger than this go to other providers; 0 for no limit
+        private int maxPromptTokens = 0;
+        private int maxInFlight = 0;
+        private double weight = 1.0;
+        // Served in-process with mockReply instead of over HTTP, for tests and local runs
+        private boolean mock = false;
+        private String mockReply = "这是一条模拟回复。";
+        private Duration mockLatency = Duration.ofMillis(20);
+        private int mockStatus = 200;
+    }
+
+    @Data
+    public static class Routing {
+        // Weight of each new sample in the rolling latency and error rate
+        private double decay = 0.2;
+        // Assumed time to first token of a provider with no samples yet
+        private Duration initialLatency = Duration.ofSeconds(1);
+        // How much a provider's error rate stretches its latency when ranking
+        private double errorPenalty = 4.0;
+    }
+}
@@ -1,11 +1,39 @@
 package com.abao.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
 public class AsyncConfig {
-    // Default thread pool configuration is sufficient for MVP
-    // Can be customized later if needed
+    // Other @Async work (search indexing) keeps the default executor
+
+    /**
+     * AI triggers and the blocking part of each AI job (context queries). Replies themselves stream
+     * without a thread, so a few threads serve many concurrent replies. When the queue is full the
+     * submitting thread runs the task rather than dropping a trigger.
+     */
+    @Bean("aiJobExecutor")
+    public ThreadPoolTaskExecutor aiJobExecutor(
+            @Value("${ai.jobs.threads:4}") int threads,
+            @Value("${ai.jobs.executor-queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ai-job-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // The sender's principal, which AIService.processMessage hands on to the debounced reply so
+        // its reads honour read-your-writes routing
+        executor.setTaskDecorator(DelegatingSecurityContextRunnable::new);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
 }
@@ -0,0 +1,95 @@
+package com.abao.config;
+
+import com.abao.dto.UserDto;
+import com.abao.dto.group.GroupDetailDto;
+import com.abao.dto.group.GroupDto;
+import com.abao.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.util.Map;
+
+/**
+ * Caffeine cache manager with its own size and expiry for each cache in app.cache.specs.
+ * Every cache records stats, so actuator reports cache.gets (result=hit|miss), cache.evictions and
+ * cache.size tagged with the cache name. Entries are invalidated by CacheInvalidationListener.
+ *
+ * With app.cache.l2.store set, the caches in {@link #SHARED_VALUE_TYPES} become {@link TieredCache}s
+ * backed by the shared store, and evictions reach every node through the {@link CacheInvalidationBus}.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(CacheSpecProperties.class)
+public class CacheConfig {
+
+    public static final String GROUP_DETAILS = "group-details";
+    public static final String GROUP_SUMMARIES = "group-summaries";
+    public static final String INVITE_CODES = "invite-codes";
+    public static final String USER_PROFILES = "user-profiles";
+    public static final String USER_PRINCIPALS = "user-principals";
+
+    // Caches that span nodes, with the type their values are read back from L2 as
+    static final Map<String, Class<?>> SHARED_VALUE_TYPES = Map.of(
+        GROUP_DETAILS, GroupDetailDto.class,
+        GROUP_SUMMARIES, GroupDto.class,
+        USER_PROFILES, UserDto.class,
+        USER_PRINCIPALS, User.class
+    );
+
+    @Bean
+    @ConditionalOnProperty(prefix = "app.cache.l2", name = "store", havingValue = "redis")
+    public SharedCacheStore redisSharedCacheStore(RedisConnectionFactory connectionFactory, CacheSpecProperties properties) {
+        return new RedisSharedCacheStore(connectionFactory, properties.getL2().getChannel());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "app.cache.l2", name = "store", havingValue = "local")
+    public SharedCacheStore localSharedCacheStore() {
+        return new LocalSharedCacheStore();
+    }
+
+    @Bean
+    public CacheInvalidationBus cacheInvalidationBus(ObjectProvider<SharedCacheStore> store, ObjectMapper objectMapper) {
+        return new CacheInvalidationBus(store.getIfAvailable(), objectMapper);
+    }
+
+    @Bean
+    public CacheManager cacheManager(CacheSpecProperties properties,
+                                     @Value("${spring.cache.caffeine.spec:maximumSize=500}") String defaultSpec,
+                                     ObjectProvider<SharedCacheStore> sharedStore,
+                                     CacheInvalidationBus bus,
+                                     ObjectMapper objectMapper,
+                                     MeterRegistry meterRegistry) {
+        SharedCacheStore store = sharedStore.getIfAvailable();
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager() {
+            @Override
+            protected Cache adaptCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+                Class<?> valueType = SHARED_VALUE_TYPES.get(name);
+                if (store == null || valueType == null) {
+                    return super.adaptCaffeineCache(name, cache);
+                }
+                return new TieredCache(name, cache, isAllowNullValues(), valueType, store, bus, objectMapper,
+                    properties.getL2(), meterRegistry);
+            }
+        };
+        cacheManager.setCaffeine(Caffeine.from(defaultSpec).recordStats());
+        properties.getSpecs().forEach((name, spec) -> {
+            cacheManager.registerCustomCache(name, Caffeine.from(spec).recordStats().build());
+            log.info("Cache {} configured: {}{}", name, spec,
+                store != null && SHARED_VALUE_TYPES.containsKey(name) ? " (shared L2)" : "");
+        });
+        return cacheManager;
+    }
+}
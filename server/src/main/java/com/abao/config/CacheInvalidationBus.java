@@ -0,0 +1,76 @@
+package com.abao.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Tells the other nodes to drop their local copy of a key. Messages from this node are ignored on
+ * receipt, since the sender has already applied the change. Without a shared store it does nothing.
+ */
+@Slf4j
+public class CacheInvalidationBus {
+
+    record Invalidation(String node, String cache, String key) {}
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final SharedCacheStore store;
+    private final ObjectMapper objectMapper;
+    private final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * @param store the shared store, or null when caches are node-local only
+     */
+    public CacheInvalidationBus(SharedCacheStore store, ObjectMapper objectMapper) {
+        this.store = store;
+        this.objectMapper = objectMapper;
+        if (store != null) {
+            store.subscribe(this::receive);
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * @param key the key to drop, or null to drop everything in the cache
+     */
+    public void publish(String cache, String key) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.publish(objectMapper.writeValueAsString(new Invalidation(nodeId, cache, key)));
+        } catch (Exception e) {
+            // Other nodes keep the stale entry until it expires
+            log.warn("Failed to publish cache invalidation: cache={}, key={}", cache, key, e);
+        }
+    }
+
+    /**
+     * @param listener receives the invalidated key, or null when the whole cache was cleared
+     */
+    public void subscribe(String cache, Consumer<String> listener) {
+        listeners.computeIfAbsent(cache, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    private void receive(String message) {
+        try {
+            Invalidation invalidation = objectMapper.readValue(message, Invalidation.class);
+            if (nodeId.equals(invalidation.node())) {
+                return;
+            }
+            listeners.getOrDefault(invalidation.cache(), List.of())
+                .forEach(listener -> listener.accept(invalidation.key()));
+        } catch (Exception e) {
+            log.warn("Ignoring malformed cache invalidation: {}", message, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.abao.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caffeine spec per cache name under app.cache.specs (caches not listed use spring.cache.caffeine.spec),
+ * and the shared L2 tier under app.cache.l2.
+ */
+@Data
+@ConfigurationProperties(prefix = "app.cache")
+public class CacheSpecProperties {
+
+    private Map<String, String> specs = new LinkedHashMap<>();
+    private L2 l2 = new L2();
+
+    @Data
+    public static class L2 {
+        // none: node-local caches only; redis: shared tier and pub/sub in Redis; local: in-process stand-in
+        private String store = "none";
+        private Duration ttl = Duration.ofMinutes(30);
+        private String channel = "abao:cache:invalidate";
+        // A loader holds the per-key lock at most this long; other nodes wait up to lockWait for its result
+        private Duration lockTtl = Duration.ofSeconds(5);
+        private Duration lockWait = Duration.ofMillis(500);
+    }
+}
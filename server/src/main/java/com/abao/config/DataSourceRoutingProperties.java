@@ -0,0 +1,37 @@
+package com.abao.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-replica settings under app.datasource. The primary stays spring.datasource.
+ */
+@Data
+@ConfigurationProperties(prefix = "app.datasource")
+public class DataSourceRoutingProperties {
+
+    private Routing routing = new Routing();
+    private List<Replica> replicas = new ArrayList<>();
+
+    @Data
+    public static class Routing {
+        private boolean enabled = false;
+        // Replicas further behind than this are skipped until they catch up
+        private Duration maxLag = Duration.ofSeconds(2);
+        // After a user's own send, their reads stay on the primary this long
+        private Duration stickyWindow = Duration.ofSeconds(5);
+        private long lagCheckIntervalMs = 1000;
+    }
+
+    @Data
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+        private int maximumPoolSize = 10;
+    }
+}
@@ -0,0 +1,70 @@
+package com.abao.config;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for Redis, for tests and single-node runs. Same semantics as
+ * {@link RedisSharedCacheStore}, including expiry and synchronous delivery to every subscriber.
+ */
+public class LocalSharedCacheStore implements SharedCacheStore {
+
+    private record Entry(String value, long expiresAt) {
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
+        return entry.value();
+    }
+
+    @Override
+    public void set(String key, String value, Duration ttl) {
+        entries.put(key, new Entry(value, System.currentTimeMillis() + ttl.toMillis()));
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void deleteByPrefix(String prefix) {
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    @Override
+    public boolean tryLock(String key, Duration ttl) {
+        Entry lock = new Entry("1", System.currentTimeMillis() + ttl.toMillis());
+        Entry current = entries.compute(key, (k, existing) -> existing == null || existing.isExpired() ? lock : existing);
+        return current == lock;
+    }
+
+    @Override
+    public void unlock(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void publish(String message) {
+        subscribers.forEach(subscriber -> subscriber.accept(message));
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        subscribers.add(listener);
+    }
+}
@@ -0,0 +1,92 @@
+package com.abao.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends @Transactional(readOnly = true) work to read replicas.
+ *
+ * The application DataSource is a LazyConnectionDataSourceProxy: it only borrows a physical connection
+ * at the first statement, by which time the transaction manager has marked the connection read-only.
+ * Read-only connections come from {@link ReplicaRoutingDataSource}, everything else from the primary.
+ * Each pool publishes hikaricp.* metrics tagged with its pool name.
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceRoutingProperties.class)
+@ConditionalOnProperty(prefix = "app.datasource.routing", name = "enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    @Bean(autowireCandidate = false)
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties, MeterRegistry meterRegistry) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return dataSource;
+    }
+
+    @Bean
+    public ReadYourWritesTracker readYourWritesTracker(DataSourceRoutingProperties properties, CacheInvalidationBus bus) {
+        return new ReadYourWritesTracker(properties.getRouting().getStickyWindow(), bus);
+    }
+
+    @Bean(autowireCandidate = false)
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceRoutingProperties properties,
+                                                             DataSourceProperties primaryProperties,
+                                                             ReadYourWritesTracker readYourWritesTracker,
+                                                             MeterRegistry meterRegistry) {
+        List<DataSourceRoutingProperties.Replica> replicas = properties.getReplicas();
+        if (replicas.isEmpty()) {
+            throw new IllegalStateException("app.datasource.routing.enabled is set but no app.datasource.replicas are configured");
+        }
+
+        Map<String, DataSource> replicaDataSources = new LinkedHashMap<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            DataSourceRoutingProperties.Replica replica = replicas.get(i);
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + i);
+            dataSource.setJdbcUrl(replica.getUrl());
+            dataSource.setUsername(replica.getUsername() != null ? replica.getUsername() : primaryProperties.getUsername());
+            dataSource.setPassword(replica.getPassword() != null ? replica.getPassword() : primaryProperties.getPassword());
+            dataSource.setDriverClassName(primaryProperties.determineDriverClassName());
+            dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+            dataSource.setReadOnly(true);
+            // Do not fail startup when a replica is down; the lag check keeps it out of rotation
+            dataSource.setInitializationFailTimeout(-1);
+            dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicaDataSources.put(dataSource.getPoolName(), dataSource);
+        }
+
+        return new ReplicaRoutingDataSource(
+            primaryDataSource(primaryProperties, meterRegistry),
+            replicaDataSources,
+            properties.getRouting().getMaxLag(),
+            readYourWritesTracker,
+            meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties primaryProperties, DataSourceRoutingProperties properties,
+                                 ReadYourWritesTracker readYourWritesTracker, MeterRegistry meterRegistry) {
+        LazyConnectionDataSourceProxy proxy = new LazyConnectionDataSourceProxy(
+            primaryDataSource(primaryProperties, meterRegistry));
+        proxy.setReadOnlyDataSource(
+            replicaRoutingDataSource(properties, primaryProperties, readYourWritesTracker, meterRegistry));
+        return proxy;
+    }
+}
@@ -0,0 +1,79 @@
+package com.abao.config;
+
+import com.abao.entity.User;
+import com.abao.event.MessageSentEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Remembers users who just wrote, so their next reads go to the primary and see their own message
+ * even if the replicas have not replayed it yet.
+ *
+ * Keyed on the user id rather than a session or request, and every write is broadcast over the
+ * {@link CacheInvalidationBus}, so a send over WebSocket on one node also pins the user's REST reads
+ * on another. The bus is the same pub/sub channel the caches use and reaches other nodes well within
+ * the window; the read path stays a local lookup.
+ */
+public class ReadYourWritesTracker {
+
+    static final String CHANNEL = "read-your-writes";
+
+    private final Cache<UUID, Boolean> recentWriters;
+    private final CacheInvalidationBus bus;
+
+    /**
+     * @param bus broadcasts writes to the other nodes, or null on a single node
+     */
+    public ReadYourWritesTracker(Duration stickyWindow, CacheInvalidationBus bus) {
+        this.recentWriters = Caffeine.newBuilder()
+            .expireAfterWrite(stickyWindow)
+            .maximumSize(100_000)
+            .build();
+        this.bus = bus;
+        if (bus != null) {
+            bus.subscribe(CHANNEL, userId -> {
+                if (userId != null) {
+                    recentWriters.put(UUID.fromString(userId), Boolean.TRUE);
+                }
+            });
+        }
+    }
+
+    // Published inside the sending transaction, so stickiness starts before the commit is visible anywhere
+    @EventListener
+    public void onMessageSent(MessageSentEvent event) {
+        User sender = event.getMessage().getSender();
+        if (sender != null) {
+            markWrite(sender.getId());
+        }
+    }
+
+    public void markWrite(UUID userId) {
+        recentWriters.put(userId, Boolean.TRUE);
+        if (bus != null) {
+            bus.publish(CHANNEL, userId.toString());
+        }
+    }
+
+    public boolean isSticky(UUID userId) {
+        return userId != null && recentWriters.getIfPresent(userId) != null;
+    }
+
+    /**
+     * The authenticated user of the current thread, if any: set by the JWT filter for REST requests,
+     * by the WebSocket handler for each frame, and carried over to @Async work by the executor.
+     */
+    public boolean isCurrentUserSticky() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof User user) {
+            return isSticky(user.getId());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.abao.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * L2 in Redis, shared by every node. Invalidations go out over a pub/sub channel.
+ */
+public class RedisSharedCacheStore implements SharedCacheStore, DisposableBean {
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ChannelTopic channel;
+
+    public RedisSharedCacheStore(RedisConnectionFactory connectionFactory, String channel) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.channel = new ChannelTopic(channel);
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.listenerContainer.afterPropertiesSet();
+        this.listenerContainer.start();
+    }
+
+    @Override
+    public String get(String key) {
+        return redisTemplate.opsForValue().get(key);
+    }
+
+    @Override
+    public void set(String key, String value, Duration ttl) {
+        redisTemplate.opsForValue().set(key, value, ttl);
+    }
+
+    @Override
+    public void delete(String key) {
+        redisTemplate.delete(key);
+    }
+
+    @Override
+    public void deleteByPrefix(String prefix) {
+        List<String> keys = new ArrayList<>();
+        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(prefix + "*").count(500).build())) {
+            cursor.forEachRemaining(keys::add);
+        }
+        if (!keys.isEmpty()) {
+            redisTemplate.delete(keys);
+        }
+    }
+
+    @Override
+    public boolean tryLock(String key, Duration ttl) {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, "1", ttl));
+    }
+
+    @Override
+    public void unlock(String key) {
+        redisTemplate.delete(key);
+    }
+
+    @Override
+    public void publish(String message) {
+        redisTemplate.convertAndSend(channel.getTopic(), message);
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        listenerContainer.addMessageListener(
+            (message, pattern) -> listener.accept(new String(message.getBody(), StandardCharsets.UTF_8)), channel);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        listenerContainer.destroy();
+    }
+}
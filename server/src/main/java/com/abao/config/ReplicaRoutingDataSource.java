@@ -0,0 +1,159 @@
+package com.abao.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Target for read-only connections: round-robins over replicas that are reachable and within the
+ * allowed lag, and falls back to the primary when none is, or when the current user just wrote.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    // Zero when the replica has replayed everything it received, otherwise time since the last replayed commit
+    private static final String LAG_SQL = """
+        SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                    ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+               END
+        """;
+
+    private final Map<String, ReplicaState> replicas = new LinkedHashMap<>();
+    private final long maxLagMillis;
+    private final ReadYourWritesTracker readYourWrites;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final Counter stickyFallbacks;
+    private final Counter lagFallbacks;
+    private final Map<String, Counter> replicaReads = new HashMap<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicaDataSources, Duration maxLag,
+                                    ReadYourWritesTracker readYourWrites, MeterRegistry meterRegistry) {
+        this.maxLagMillis = maxLag.toMillis();
+        this.readYourWrites = readYourWrites;
+
+        Map<Object, Object> targets = new HashMap<>(replicaDataSources);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+
+        replicaDataSources.forEach((name, dataSource) -> {
+            ReplicaState state = new ReplicaState(dataSource);
+            replicas.put(name, state);
+            Gauge.builder("datasource.replica.lag", state, s -> s.lagMillis)
+                .tag("replica", name)
+                .baseUnit("milliseconds")
+                .description("Replication lag observed by the last check; -1 while unreachable")
+                .register(meterRegistry);
+            replicaReads.put(name, readCounter(meterRegistry, name, "replica"));
+        });
+        this.stickyFallbacks = readCounter(meterRegistry, PRIMARY, "read-your-writes");
+        this.lagFallbacks = readCounter(meterRegistry, PRIMARY, "replica-lag");
+
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (readYourWrites.isCurrentUserSticky()) {
+            stickyFallbacks.increment();
+            return PRIMARY;
+        }
+
+        List<String> usable = replicas.entrySet().stream()
+            .filter(e -> e.getValue().isUsable(maxLagMillis))
+            .map(Map.Entry::getKey)
+            .toList();
+        if (usable.isEmpty()) {
+            lagFallbacks.increment();
+            return PRIMARY;
+        }
+
+        String name = usable.get(Math.floorMod(next.getAndIncrement(), usable.size()));
+        replicaReads.get(name).increment();
+        return name;
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.routing.lag-check-interval-ms:1000}")
+    public void checkReplicaLag() {
+        replicas.forEach((name, state) -> {
+            try (Connection connection = state.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(LAG_SQL)) {
+                rs.next();
+                recordLag(name, Math.round(rs.getDouble(1)));
+            } catch (SQLException e) {
+                if (!state.checked || state.lagMillis >= 0) {
+                    log.warn("Replica unreachable, reads fall back to primary: replica={}, error={}", name, e.getMessage());
+                }
+                recordLag(name, -1);
+            }
+        });
+    }
+
+    public void close() {
+        replicas.values().forEach(state -> {
+            if (state.dataSource instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("Failed to close replica pool", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param lagMillis observed lag, or -1 when the replica could not be reached
+     */
+    void recordLag(String name, long lagMillis) {
+        ReplicaState state = replicas.get(name);
+        boolean wasUsable = state.isUsable(maxLagMillis);
+        state.lagMillis = lagMillis;
+        state.checked = true;
+        boolean usable = state.isUsable(maxLagMillis);
+        if (wasUsable != usable) {
+            log.info("Replica {}: replica={}, lagMs={}", usable ? "back in rotation" : "taken out of rotation", name, lagMillis);
+        }
+    }
+
+    private static Counter readCounter(MeterRegistry registry, String target, String reason) {
+        return Counter.builder("datasource.routing.reads")
+            .tag("target", target)
+            .tag("reason", reason)
+            .description("Read-only connections by routing target")
+            .register(registry);
+    }
+
+    private static class ReplicaState {
+        private final DataSource dataSource;
+        // Unknown until the first check; start out of rotation
+        private volatile long lagMillis = -1;
+        private volatile boolean checked;
+
+        ReplicaState(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        boolean isUsable(long maxLagMillis) {
+            return lagMillis >= 0 && lagMillis <= maxLagMillis;
+        }
+    }
+}
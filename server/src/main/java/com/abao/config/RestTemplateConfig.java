@@ -1,22 +0,0 @@
-package com.abao.config;
-
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-import org.springframework.web.client.RestTemplate;
-
-import java.time.Duration;
-
-@Configuration
-public class RestTemplateConfig {
-
-    @Bean("aiRestTemplate")
-    public RestTemplate aiRestTemplate(
-            @Value("${ai.deepseek.timeout:30000}") int timeout) {
-        var factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(Duration.ofMillis(5000));  // 连接超时 5s
-        factory.setReadTimeout(Duration.ofMillis(timeout));  // 读取超时 30s
-        return new RestTemplate(factory);
-    }
-}
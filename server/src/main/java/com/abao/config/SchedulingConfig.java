@@ -0,0 +1,10 @@
+package com.abao.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    // Background maintenance jobs (message retention/archival)
+}
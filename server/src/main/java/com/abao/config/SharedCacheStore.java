@@ -0,0 +1,30 @@
+package com.abao.config;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * The shared (L2) tier behind {@link TieredCache}: string values by key, a short-lived lock per key,
+ * and a broadcast channel for invalidations. Implementations may fail; callers treat any error as a miss.
+ */
+public interface SharedCacheStore {
+
+    String get(String key);
+
+    void set(String key, String value, Duration ttl);
+
+    void delete(String key);
+
+    void deleteByPrefix(String prefix);
+
+    /**
+     * @return true when this caller now holds the lock; it expires after {@code ttl} if never released
+     */
+    boolean tryLock(String key, Duration ttl);
+
+    void unlock(String key);
+
+    void publish(String message);
+
+    void subscribe(Consumer<String> listener);
+}
@@ -0,0 +1,278 @@
+package com.abao.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.support.NullValue;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Near cache: this node's Caffeine cache (L1) in front of a {@link SharedCacheStore} (L2).
+ * Reads fall through L1, then L2, then the loader. A key is loaded at most once per node at a
+ * time and, through a short L2 lock, usually once across nodes. Loads run on the calling thread
+ * rather than inside Caffeine's compute, whose lock covers a whole hash bin: an L2 round trip or
+ * lock wait for one key must not hold up hits on unrelated keys.
+ * Evictions clear both tiers and tell the other nodes to drop their L1 copy. Puts are fills of
+ * unchanged data and are not broadcast; changes always go through evict.
+ *
+ * Keys are held as strings in both tiers so an invalidation from another node can name them.
+ * L1 hit ratio is reported by the usual cache.* meters; L2 lookups by cache.l2.gets.
+ */
+@Slf4j
+public class TieredCache extends CaffeineCache {
+
+    private static final long LOCK_POLL_MILLIS = 25;
+
+    private final Class<?> valueType;
+    private final SharedCacheStore store;
+    private final CacheInvalidationBus bus;
+    private final ObjectMapper objectMapper;
+    private final CacheSpecProperties.L2 settings;
+    private final String keyPrefix;
+    private final Counter sharedHits;
+    private final Counter sharedMisses;
+
+    // Loads in progress on this node; other callers for the same key wait for the first one
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    public TieredCache(String name,
+                       com.github.benmanes.caffeine.cache.Cache<Object, Object> local,
+                       boolean allowNullValues,
+                       Class<?> valueType,
+                       SharedCacheStore store,
+                       CacheInvalidationBus bus,
+                       ObjectMapper objectMapper,
+                       CacheSpecProperties.L2 settings,
+                       MeterRegistry meterRegistry) {
+        super(name, local, allowNullValues);
+        this.valueType = valueType;
+        this.store = store;
+        this.bus = bus;
+        this.objectMapper = objectMapper;
+        this.settings = settings;
+        this.keyPrefix = "cache:" + name + ":";
+        this.sharedHits = Counter.builder("cache.l2.gets").tag("cache", name).tag("result", "hit").register(meterRegistry);
+        this.sharedMisses = Counter.builder("cache.l2.gets").tag("cache", name).tag("result", "miss").register(meterRegistry);
+
+        bus.subscribe(name, key -> {
+            if (key == null) {
+                getNativeCache().invalidateAll();
+            } else {
+                getNativeCache().invalidate(key);
+            }
+        });
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        String k = key.toString();
+        Object value = getNativeCache().getIfPresent(k);
+        if (value == null) {
+            value = readShared(k);
+            if (value != null) {
+                getNativeCache().put(k, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        String k = key.toString();
+        Object value = getNativeCache().getIfPresent(k);
+        if (value == null) {
+            value = loadOnce(k, valueLoader);
+        }
+        return (T) fromStoreValue(value);
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String k = key.toString();
+        Object stored = toStoreValue(value);
+        getNativeCache().put(k, stored);
+        writeShared(k, stored);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        String k = key.toString();
+        Object stored = toStoreValue(value);
+        Object existing = getNativeCache().asMap().putIfAbsent(k, stored);
+        if (existing == null) {
+            writeShared(k, stored);
+        }
+        return toValueWrapper(existing);
+    }
+
+    @Override
+    public void evict(Object key) {
+        evictIfPresent(key);
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        String k = key.toString();
+        boolean[] present = new boolean[1];
+        // A load in progress may have read the old value; it is dropped instead of being cached
+        loading.compute(k, (ignored, running) -> {
+            present[0] = getNativeCache().asMap().remove(k) != null;
+            return null;
+        });
+        deleteShared(k);
+        bus.publish(getName(), k);
+        return present[0];
+    }
+
+    @Override
+    public void clear() {
+        invalidate();
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean notEmpty = getNativeCache().estimatedSize() > 0;
+        loading.clear();
+        getNativeCache().invalidateAll();
+        try {
+            store.deleteByPrefix(keyPrefix);
+        } catch (Exception e) {
+            log.warn("Failed to clear shared cache: cache={}", getName(), e);
+        }
+        bus.publish(getName(), null);
+        return notEmpty;
+    }
+
+    private Object loadOnce(String key, Callable<?> valueLoader) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            Object stored = load(key, valueLoader);
+            // Cached only if no eviction removed this load in the meantime
+            boolean[] cached = new boolean[1];
+            loading.computeIfPresent(key, (ignored, current) -> {
+                if (current == mine) {
+                    getNativeCache().put(key, stored);
+                    cached[0] = true;
+                }
+                return current;
+            });
+            if (!cached[0]) {
+                deleteShared(key);
+            }
+            mine.complete(stored);
+            return stored;
+        } catch (Throwable e) {
+            // Waiters must not hang on a load that failed
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    /**
+     * Across nodes, the holder of the L2 lock loads while the others poll L2 for its result, up to
+     * the lock wait, before loading themselves.
+     */
+    private Object load(String key, Callable<?> valueLoader) {
+        Object shared = readShared(key);
+        if (shared != null) {
+            return shared;
+        }
+
+        String lock = keyPrefix + key + ":lock";
+        boolean locked = tryLock(lock);
+        if (!locked) {
+            long deadline = System.nanoTime() + settings.getLockWait().toNanos();
+            while (System.nanoTime() < deadline) {
+                try {
+                    Thread.sleep(LOCK_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                shared = readShared(key);
+                if (shared != null) {
+                    return shared;
+                }
+            }
+        }
+
+        try {
+            Object stored = toStoreValue(valueLoader.call());
+            writeShared(key, stored);
+            return stored;
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        } finally {
+            if (locked) {
+                try {
+                    store.unlock(lock);
+                } catch (Exception e) {
+                    log.debug("Failed to release cache load lock {}; it expires on its own", lock, e);
+                }
+            }
+        }
+    }
+
+    private boolean tryLock(String lock) {
+        try {
+            return store.tryLock(lock, settings.getLockTtl());
+        } catch (Exception e) {
+            // Without the store there is nobody to coordinate with
+            return true;
+        }
+    }
+
+    private Object readShared(String key) {
+        try {
+            String json = store.get(keyPrefix + key);
+            if (json == null) {
+                sharedMisses.increment();
+                return null;
+            }
+            sharedHits.increment();
+            return objectMapper.readValue(json, valueType);
+        } catch (Exception e) {
+            log.warn("Shared cache read failed, treating as a miss: cache={}, key={}", getName(), key, e);
+            return null;
+        }
+    }
+
+    private void deleteShared(String key) {
+        try {
+            store.delete(keyPrefix + key);
+        } catch (Exception e) {
+            log.warn("Failed to evict shared cache entry: cache={}, key={}", getName(), key, e);
+        }
+    }
+
+    private void writeShared(String key, Object stored) {
+        // Absent results stay node-local; they are cheap to recompute and have nothing to share
+        if (stored == NullValue.INSTANCE) {
+            return;
+        }
+        try {
+            store.set(keyPrefix + key, objectMapper.writeValueAsString(stored), settings.getTtl());
+        } catch (Exception e) {
+            log.warn("Shared cache write failed: cache={}, key={}", getName(), key, e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.abao.controller;
+
+import com.abao.dto.bootstrap.BootstrapDto;
+import com.abao.entity.User;
+import com.abao.service.BootstrapService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/bootstrap")
+@RequiredArgsConstructor
+public class BootstrapController {
+
+    private final BootstrapService bootstrapService;
+
+    /**
+     * Profile, groups with summaries and unread counts, and the last messages of every group.
+     * Replaces the launch sequence of /api/groups plus one /recent call per group.
+     */
+    @GetMapping
+    public ResponseEntity<BootstrapDto> bootstrap(
+        @AuthenticationPrincipal User user,
+        @RequestParam(defaultValue = "20") int recentLimit
+    ) {
+        BootstrapDto bootstrap = bootstrapService.bootstrap(user, recentLimit);
+        return ResponseEntity.ok(bootstrap);
+    }
+}
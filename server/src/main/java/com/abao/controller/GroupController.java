@@ -53,6 +53,17 @@ public class GroupController {
         return ResponseEntity.ok(group);
     }
 
+    @GetMapping("/{groupId}/members")
+    public ResponseEntity<GroupMemberPageDto> getMembers(
+        @PathVariable UUID groupId,
+        @RequestParam(defaultValue = "0") int page,
+        @RequestParam(defaultValue = "50") int size,
+        @AuthenticationPrincipal User user
+    ) {
+        GroupMemberPageDto members = groupService.getMembers(groupId, user, Math.max(0, page), Math.max(1, Math.min(size, 100)));
+        return ResponseEntity.ok(members);
+    }
+
     @GetMapping("/{groupId}/invite")
     public ResponseEntity<Map<String, String>> getInviteCode(
         @PathVariable UUID groupId,
@@ -62,6 +73,25 @@ public class GroupController {
         return ResponseEntity.ok(Map.of("inviteCode", inviteCode));
     }
 
+    @PutMapping("/{groupId}/retention")
+    public ResponseEntity<GroupDetailDto> updateRetention(
+        @PathVariable UUID groupId,
+        @Valid @RequestBody UpdateRetentionRequest request,
+        @AuthenticationPrincipal User user
+    ) {
+        GroupDetailDto group = groupService.updateRetention(groupId, request, user);
+        return ResponseEntity.ok(group);
+    }
+
+    @PostMapping("/{groupId}/read")
+    public ResponseEntity<Map<String, String>> markRead(
+        @PathVariable UUID groupId,
+        @AuthenticationPrincipal User user
+    ) {
+        groupService.markRead(groupId, user);
+        return ResponseEntity.ok(Map.of("message", "已标记为已读"));
+    }
+
     @DeleteMapping("/{groupId}/leave")
     public ResponseEntity<Map<String, String>> leaveGroup(
         @PathVariable UUID groupId,
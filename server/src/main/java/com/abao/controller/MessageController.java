@@ -2,15 +2,23 @@ package com.abao.controller;
 
 import com.abao.dto.message.MessageDto;
 import com.abao.entity.User;
+import com.abao.dto.message.MessageSearchHitDto;
+import com.abao.service.MessageExportService;
+import com.abao.service.MessageSearchService;
 import com.abao.service.MessageService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -21,6 +29,8 @@ import java.util.UUID;
 public class MessageController {
 
     private final MessageService messageService;
+    private final MessageExportService messageExportService;
+    private final MessageSearchService messageSearchService;
 
     /**
      * Get paginated messages for a group
@@ -48,6 +58,66 @@ public class MessageController {
         return ResponseEntity.ok(messages);
     }
 
+    /**
+     * Get history older than a cursor (newest first). Page with before = createdAt and
+     * beforeId = id of the oldest message received. Transparently continues into
+     * archived messages once the cursor passes the hot retention boundary.
+     */
+    @GetMapping("/group/{groupId}/history")
+    public ResponseEntity<List<MessageDto>> getHistory(
+        @AuthenticationPrincipal User user,
+        @PathVariable UUID groupId,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+        @RequestParam(required = false) UUID beforeId,
+        @RequestParam(defaultValue = "50") int limit
+    ) {
+        List<MessageDto> messages = messageService.getHistory(groupId, user, before, beforeId, Math.max(1, Math.min(limit, 100)));
+        return ResponseEntity.ok(messages);
+    }
+
+    /**
+     * Full-text search within a group (newest first). Page with before = createdAt of the last hit.
+     */
+    @GetMapping("/group/{groupId}/search")
+    public ResponseEntity<List<MessageSearchHitDto>> searchMessages(
+        @AuthenticationPrincipal User user,
+        @PathVariable UUID groupId,
+        @RequestParam String q,
+        @RequestParam(required = false) UUID senderId,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+        @RequestParam(defaultValue = "20") int limit
+    ) {
+        List<MessageSearchHitDto> hits = messageSearchService.search(
+            groupId, user, q, senderId, from, before, Math.max(1, Math.min(limit, 50)));
+        return ResponseEntity.ok(hits);
+    }
+
+    /**
+     * Export the full history of a group as NDJSON, optionally gzip-compressed.
+     * The body is streamed from a database cursor, so size is not bounded by heap.
+     */
+    @GetMapping("/group/{groupId}/export")
+    public ResponseEntity<StreamingResponseBody> exportMessages(
+        @AuthenticationPrincipal User user,
+        @PathVariable UUID groupId,
+        @RequestParam(defaultValue = "ndjson") String format
+    ) {
+        boolean gzip = "gzip".equalsIgnoreCase(format);
+        if (!gzip && !"ndjson".equalsIgnoreCase(format)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        messageExportService.checkExportAllowed(groupId, user);
+
+        String filename = "group-" + groupId + (gzip ? ".ndjson.gz" : ".ndjson");
+        StreamingResponseBody body = out -> messageExportService.export(groupId, out, gzip);
+        return ResponseEntity.ok()
+            .contentType(gzip ? MediaType.parseMediaType("application/gzip") : MediaType.parseMediaType("application/x-ndjson"))
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+            .body(body);
+    }
+
     /**
      * Get a single message by ID
      */
@@ -61,7 +131,8 @@ public class MessageController {
     }
 
     /**
-     * Send a message via REST (alternative to WebSocket)
+     * Send a message via REST (alternative to WebSocket).
+     * An optional clientMessageId makes retries return the original message.
      */
     @PostMapping("/group/{groupId}")
     public ResponseEntity<MessageDto> sendMessage(
@@ -71,6 +142,7 @@ public class MessageController {
     ) {
         String content = request.get("content");
         String replyToIdStr = request.get("replyToId");
+        String clientMessageId = request.get("clientMessageId");
 
         if (content == null || content.trim().isEmpty()) {
             return ResponseEntity.badRequest().build();
@@ -81,7 +153,7 @@ public class MessageController {
             replyToId = UUID.fromString(replyToIdStr);
         }
 
-        MessageDto message = messageService.sendMessage(user, groupId, content.trim(), replyToId);
+        MessageDto message = messageService.sendMessage(user, groupId, content.trim(), replyToId, clientMessageId);
         return ResponseEntity.ok(message);
     }
 }
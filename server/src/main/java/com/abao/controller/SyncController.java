@@ -0,0 +1,30 @@
+package com.abao.controller;
+
+import com.abao.dto.sync.SyncDto;
+import com.abao.dto.sync.SyncRequest;
+import com.abao.entity.User;
+import com.abao.service.SyncService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/sync")
+@RequiredArgsConstructor
+public class SyncController {
+
+    private final SyncService syncService;
+
+    /**
+     * New messages, membership and group changes since the client's per-group cursors.
+     * Repeat with the returned continuation while hasMore is true.
+     */
+    @PostMapping
+    public ResponseEntity<SyncDto> sync(
+        @RequestBody SyncRequest request,
+        @AuthenticationPrincipal User user
+    ) {
+        return ResponseEntity.ok(syncService.sync(user, request));
+    }
+}
@@ -0,0 +1,29 @@
+package com.abao.dto.bootstrap;
+
+import com.abao.dto.UserDto;
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.message.MessageDto;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Everything the app needs to render after launch, in one response.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BootstrapDto {
+    private UserDto user;
+    private List<GroupDto> groups;
+
+    // groupId -> newest messages first, same order as /api/messages/group/{id}/recent
+    private Map<UUID, List<MessageDto>> recentMessages;
+
+    private LocalDateTime serverTime;
+}
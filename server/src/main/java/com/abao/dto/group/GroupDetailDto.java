@@ -8,7 +8,6 @@ import lombok.AllArgsConstructor;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 @Data
 @NoArgsConstructor
@@ -17,22 +16,25 @@ public class GroupDetailDto {
     private UUID id;
     private String name;
     private String inviteCode;
+    private int memberCount;
+
+    // First page only; the rest comes from GET /api/groups/{id}/members
     private List<GroupMemberDto> members;
+    private boolean hasMoreMembers;
+
+    private Integer retentionDays;
     private LocalDateTime createdAt;
 
-    public static GroupDetailDto fromEntity(Group group) {
+    public static GroupDetailDto fromEntity(Group group, GroupMemberPageDto firstPage) {
         GroupDetailDto dto = new GroupDetailDto();
         dto.setId(group.getId());
         dto.setName(group.getName());
         dto.setInviteCode(group.getInviteCode());
+        dto.setMemberCount(group.getMemberCount());
+        dto.setMembers(firstPage.getMembers());
+        dto.setHasMoreMembers(firstPage.isHasNext());
+        dto.setRetentionDays(group.getRetentionDays());
         dto.setCreatedAt(group.getCreatedAt());
-
-        if (group.getMembers() != null) {
-            dto.setMembers(group.getMembers().stream()
-                .map(GroupMemberDto::fromEntity)
-                .collect(Collectors.toList()));
-        }
-
         return dto;
     }
 }
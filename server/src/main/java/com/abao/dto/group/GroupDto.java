@@ -16,6 +16,7 @@ public class GroupDto {
     private String name;
     private String inviteCode;
     private int memberCount;
+    private long lastSeq; // starting cursor for delta sync
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -24,14 +25,30 @@ public class GroupDto {
     private LocalDateTime lastMessageAt;
     private int unreadCount;
 
-    public static GroupDto fromEntity(Group group) {
+    /**
+     * Use when the entity's stored member count is stale, e.g. right after a join in the same transaction.
+     */
+    public static GroupDto fromEntity(Group group, int memberCount) {
         GroupDto dto = new GroupDto();
         dto.setId(group.getId());
         dto.setName(group.getName());
         dto.setInviteCode(group.getInviteCode());
-        dto.setMemberCount(group.getMembers() != null ? group.getMembers().size() : 0);
+        dto.setMemberCount(memberCount);
+        dto.setLastSeq(group.getLastSeq());
         dto.setCreatedAt(group.getCreatedAt());
         dto.setUpdatedAt(group.getUpdatedAt());
         return dto;
     }
+
+    public static GroupDto fromEntity(Group group) {
+        return fromEntity(group, group.getMemberCount());
+    }
+
+    /**
+     * A copy for one viewer, so a shared cached summary is never modified.
+     */
+    public GroupDto withUnreadCount(int unreadCount) {
+        return new GroupDto(id, name, inviteCode, memberCount, lastSeq, createdAt, updatedAt,
+            lastMessage, lastMessageAt, unreadCount);
+    }
 }
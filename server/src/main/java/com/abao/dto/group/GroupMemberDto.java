@@ -1,6 +1,7 @@
 package com.abao.dto.group;
 
 import com.abao.entity.GroupMember;
+import com.abao.repository.GroupMemberView;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
@@ -19,6 +20,28 @@ public class GroupMemberDto {
     private boolean isAi;
     private LocalDateTime joinedAt;
 
+    private static final String AI_NICKNAME = "A宝助手";
+
+    public static GroupMemberDto fromView(GroupMemberView member) {
+        GroupMemberDto dto = new GroupMemberDto();
+        dto.setId(member.getId());
+        dto.setAi(member.getIsAi() != null && member.getIsAi());
+
+        if (member.getUserId() != null) {
+            dto.setUserId(member.getUserId());
+            // Same rule as User.getDisplayName
+            dto.setNickname(member.getNickname() != null && !member.getNickname().isEmpty()
+                ? member.getNickname()
+                : member.getEmail().split("@")[0]);
+            dto.setAvatarUrl(member.getAvatarUrl());
+        } else if (dto.isAi()) {
+            dto.setNickname(AI_NICKNAME);
+        }
+
+        dto.setJoinedAt(member.getJoinedAt());
+        return dto;
+    }
+
     public static GroupMemberDto fromEntity(GroupMember member) {
         GroupMemberDto dto = new GroupMemberDto();
         dto.setId(member.getId());
@@ -29,7 +52,7 @@ public class GroupMemberDto {
             dto.setNickname(member.getUser().getDisplayName());
             dto.setAvatarUrl(member.getUser().getAvatarUrl());
         } else if (dto.isAi()) {
-            dto.setNickname("A宝助手");
+            dto.setNickname(AI_NICKNAME);
         }
 
         dto.setJoinedAt(member.getJoinedAt());
@@ -0,0 +1,20 @@
+package com.abao.dto.group;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupMemberPageDto {
+    private List<GroupMemberDto> members;
+    private int page;
+    private int size;
+    private boolean hasNext;
+
+    // From the group's stored count, not a COUNT(*) per page
+    private int totalCount;
+}
@@ -0,0 +1,14 @@
+package com.abao.dto.group;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import lombok.Data;
+
+@Data
+public class UpdateRetentionRequest {
+
+    // null restores the server-wide default
+    @Min(value = 1, message = "保留天数至少为1天")
+    @Max(value = 3650, message = "保留天数最多为3650天")
+    private Integer retentionDays;
+}
@@ -1,5 +1,6 @@
 package com.abao.dto.message;
 
+import com.abao.entity.ArchivedMessage;
 import com.abao.entity.Message;
 import com.abao.entity.MessageType;
 import lombok.Data;
@@ -21,6 +22,10 @@ public class MessageDto {
     private MessageType messageType;
     private UUID replyToId;
     private String replyToContent;
+    private MessageType replyToMessageType;
+    private String replyToSenderNickname;
+    private String clientMessageId;
+    private Long seq;
     private LocalDateTime createdAt;
 
     public static MessageDto fromEntity(Message message) {
@@ -29,6 +34,8 @@ public class MessageDto {
         dto.setGroupId(message.getGroup().getId());
         dto.setContent(message.getContent());
         dto.setMessageType(message.getMessageType());
+        dto.setClientMessageId(message.getClientMessageId());
+        dto.setSeq(message.getSeq());
         dto.setCreatedAt(message.getCreatedAt());
 
         if (message.getSender() != null) {
@@ -36,17 +43,35 @@ public class MessageDto {
             dto.setSenderNickname(message.getSender().getNickname());
         }
 
-        if (message.getReplyTo() != null) {
-            dto.setReplyToId(message.getReplyTo().getId());
-            dto.setReplyToContent(truncateContent(message.getReplyTo().getContent(), 50));
+        if (message.getReplyTo() != null || message.getReplyToType() != null) {
+            // getId() on a lazy reference does not load the parent; the rest is denormalized on the reply,
+            // and stays when an archived parent's id has been cleared
+            dto.setReplyToId(message.getReplyTo() != null ? message.getReplyTo().getId() : null);
+            dto.setReplyToContent(message.getReplyToPreview());
+            dto.setReplyToMessageType(message.getReplyToType());
+            dto.setReplyToSenderNickname(message.getReplyToSenderNickname());
         }
 
         return dto;
     }
 
-    private static String truncateContent(String content, int maxLength) {
-        if (content == null) return null;
-        if (content.length() <= maxLength) return content;
-        return content.substring(0, maxLength) + "...";
+    /**
+     * Map an archived row; the sender nickname is resolved by the caller in bulk.
+     */
+    public static MessageDto fromArchived(ArchivedMessage message, String senderNickname) {
+        MessageDto dto = new MessageDto();
+        dto.setId(message.getId());
+        dto.setGroupId(message.getGroupId());
+        dto.setSenderId(message.getSenderId());
+        dto.setSenderNickname(senderNickname);
+        dto.setContent(message.getContent());
+        dto.setMessageType(message.getMessageType());
+        dto.setReplyToId(message.getReplyToId());
+        dto.setReplyToContent(message.getReplyToPreview());
+        dto.setReplyToMessageType(message.getReplyToType());
+        dto.setReplyToSenderNickname(message.getReplyToSenderNickname());
+        dto.setClientMessageId(message.getClientMessageId());
+        dto.setCreatedAt(message.getCreatedAt());
+        return dto;
     }
 }
@@ -0,0 +1,23 @@
+package com.abao.dto.message;
+
+import com.abao.entity.MessageType;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessageSearchHitDto {
+    private UUID id;
+    private UUID groupId;
+    private UUID senderId;
+    private String senderNickname;
+    private MessageType messageType;
+    private LocalDateTime createdAt;
+    // HTML-escaped excerpt with matches wrapped in <em></em>
+    private String snippet;
+}
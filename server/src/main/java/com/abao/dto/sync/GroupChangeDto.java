@@ -0,0 +1,31 @@
+package com.abao.dto.sync;
+
+import com.abao.entity.GroupChange;
+import com.abao.entity.GroupChangeType;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupChangeDto {
+    private long seq;
+    private GroupChangeType changeType;
+    private UUID userId;
+    private String userNickname;
+    private LocalDateTime createdAt;
+
+    public static GroupChangeDto fromEntity(GroupChange change) {
+        return new GroupChangeDto(
+            change.getSeq(),
+            change.getChangeType(),
+            change.getUserId(),
+            change.getUserNickname(),
+            change.getCreatedAt()
+        );
+    }
+}
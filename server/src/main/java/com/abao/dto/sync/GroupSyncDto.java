@@ -0,0 +1,30 @@
+package com.abao.dto.sync;
+
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.message.MessageDto;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * What changed in one group since the client's cursor, in seq order.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GroupSyncDto {
+    private UUID groupId;
+
+    // Only set for groups new to the client or whose metadata changed
+    private GroupDto group;
+
+    private List<MessageDto> messages;
+    private List<GroupChangeDto> changes;
+
+    // The client's new cursor for this group; below lastSeq when the page was cut short
+    private long seq;
+    private long lastSeq;
+}
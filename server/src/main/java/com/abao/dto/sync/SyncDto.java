@@ -0,0 +1,25 @@
+package com.abao.dto.sync;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncDto {
+    // Groups with anything past the client's cursor; unchanged groups are omitted
+    private List<GroupSyncDto> groups;
+
+    // Every group the user is currently in
+    private List<UUID> groupIds;
+
+    // Groups the client had a cursor for but the user is no longer in
+    private List<UUID> removedGroupIds;
+
+    private boolean hasMore;
+    private String continuation;
+}
@@ -0,0 +1,18 @@
+package com.abao.dto.sync;
+
+import lombok.Data;
+
+import java.util.Map;
+import java.util.UUID;
+
+@Data
+public class SyncRequest {
+
+    // groupId -> last seq the client has applied; groups missing here are synced from the start
+    private Map<UUID, Long> cursors;
+
+    // From the previous response when hasMore was set; takes precedence over cursors
+    private String continuation;
+
+    private Integer limit;
+}
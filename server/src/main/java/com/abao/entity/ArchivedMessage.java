@@ -0,0 +1,72 @@
+package com.abao.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Cold copy of a message moved out of the hot messages table by retention.
+ * References are kept as plain ids so archived rows never pin hot rows.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "messages_archive")
+public class ArchivedMessage {
+
+    @Id
+    private UUID id;
+
+    @Column(name = "group_id", nullable = false)
+    private UUID groupId;
+
+    @Column(name = "sender_id")
+    private UUID senderId;
+
+    // Same storage as Message: plain or LZ4-compressed, read through getContent
+    @Column(columnDefinition = "TEXT")
+    private String content;
+
+    @Column(name = "content_compressed", columnDefinition = "BYTEA")
+    @ToString.Exclude
+    private byte[] contentCompressed;
+
+    @Column(name = "content_preview", length = 64)
+    private String contentPreview;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "message_type", length = 20)
+    private MessageType messageType;
+
+    @Column(name = "reply_to_id")
+    private UUID replyToId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "reply_to_type", length = 20)
+    private MessageType replyToType;
+
+    @Column(name = "reply_to_sender_nickname", length = 50)
+    private String replyToSenderNickname;
+
+    @Column(name = "reply_to_preview", length = 64)
+    private String replyToPreview;
+
+    @Column(name = "client_message_id", length = 64)
+    private String clientMessageId;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "archived_at")
+    private LocalDateTime archivedAt;
+
+    public String getContent() {
+        return MessageContentCodec.read(content, contentCompressed);
+    }
+}
@@ -0,0 +1,39 @@
+package com.abao.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * AI-written summary of a group's conversation up to and including message seq {@code throughSeq}.
+ * Each summary folds in the one before it, so the latest row covers the whole history.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "conversation_summaries")
+public class ConversationSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "group_id", nullable = false)
+    private UUID groupId;
+
+    @Column(name = "through_seq", nullable = false)
+    private long throughSeq;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+}
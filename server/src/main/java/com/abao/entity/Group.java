@@ -32,8 +32,20 @@ public class Group {
     @OneToMany(mappedBy = "group", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<GroupMember> members = new ArrayList<>();
 
-    @OneToMany(mappedBy = "group", cascade = CascadeType.ALL, orphanRemoval = true)
-    private List<Message> messages = new ArrayList<>();
+    // Messages are deliberately not mapped here: cascading over them would load the whole
+    // history into memory. The database's ON DELETE CASCADE removes them with the group.
+
+    // Days to keep messages in the hot table; null falls back to app.messages.retention.default-days
+    @Column(name = "retention_days")
+    private Integer retentionDays;
+
+    // Kept in step with group_members by GroupRepository.adjustMemberCount, so listings never count rows
+    @Column(name = "member_count", nullable = false, updatable = false)
+    private int memberCount;
+
+    // Only ever advanced by GroupRepository.nextSeq; never written back from a loaded entity
+    @Column(name = "last_seq", nullable = false, updatable = false)
+    private long lastSeq;
 
     @CreationTimestamp
     @Column(name = "created_at", updatable = false)
@@ -0,0 +1,47 @@
+package com.abao.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Change log entry for a group, numbered from the same per-group sequence as its messages
+ * so one cursor per group covers both in delta sync.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "group_changes")
+public class GroupChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "group_id", nullable = false)
+    private UUID groupId;
+
+    @Column(nullable = false)
+    private long seq;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 20)
+    private GroupChangeType changeType;
+
+    // Member changes only; the nickname is copied so reading the log needs no user lookup
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Column(name = "user_nickname", length = 50)
+    private String userNickname;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,7 @@
+package com.abao.entity;
+
+public enum GroupChangeType {
+    MEMBER_JOINED,
+    MEMBER_LEFT,
+    GROUP_UPDATED
+}
@@ -32,7 +32,16 @@ public class GroupMember {
     @Column(name = "is_ai")
     private Boolean isAi = false;
 
+    // Who may change group-wide settings; the creator is the owner
+    @Enumerated(EnumType.STRING)
+    @Column(name = "role", nullable = false, length = 20)
+    private GroupRole role = GroupRole.MEMBER;
+
     @CreationTimestamp
     @Column(name = "joined_at", updatable = false)
     private LocalDateTime joinedAt;
+
+    // Messages after this (or after joinedAt when never read) count as unread
+    @Column(name = "last_read_at")
+    private LocalDateTime lastReadAt;
 }
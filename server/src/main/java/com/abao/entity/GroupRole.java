@@ -0,0 +1,7 @@
+package com.abao.entity;
+
+public enum GroupRole {
+    OWNER,
+    ADMIN,
+    MEMBER
+}
@@ -4,8 +4,11 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import org.hibernate.annotations.CreationTimestamp;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
@@ -28,18 +31,140 @@ public class Message {
     @JoinColumn(name = "sender_id")
     private User sender;
 
-    @Column(nullable = false, columnDefinition = "TEXT")
+    // Body storage: short bodies in content, long ones LZ4-compressed in contentCompressed (see MessageContentCodec).
+    // Always go through getContent/setContent.
+    @Column(columnDefinition = "TEXT")
     private String content;
 
+    @Column(name = "content_compressed", columnDefinition = "BYTEA")
+    @ToString.Exclude
+    private byte[] contentCompressed;
+
+    // Precomputed for list and reply previews, so those never read or decompress the body
+    @Column(name = "content_preview", length = 64)
+    private String contentPreview;
+
+    // Decompressed on first access only
+    @Transient
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private String contentCache;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "message_type", length = 20)
     private MessageType messageType = MessageType.USER;
 
+    // No database foreign key on PostgreSQL (messages is partitioned); archival clears dangling references
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "reply_to_id")
+    @ToString.Exclude
     private Message replyTo;
 
+    // Copied from the parent when the reply is written, so rendering a reply never loads the parent row
+    @Enumerated(EnumType.STRING)
+    @Column(name = "reply_to_type", length = 20)
+    private MessageType replyToType;
+
+    @Column(name = "reply_to_sender_nickname", length = 50)
+    private String replyToSenderNickname;
+
+    @Column(name = "reply_to_preview", length = 64)
+    private String replyToPreview;
+
+    // Client-generated idempotency key, unique per sender
+    @Column(name = "client_message_id", length = 64)
+    private String clientMessageId;
+
+    // Position in the group's sequence (shared with GroupChange), the cursor for delta sync
+    @Column(name = "seq")
+    private Long seq;
+
+    public String getContent() {
+        if (content != null) {
+            return content;
+        }
+        if (contentCache == null && contentCompressed != null) {
+            contentCache = MessageContentCodec.decompress(contentCompressed);
+        }
+        return contentCache;
+    }
+
+    public void setContent(String content) {
+        this.contentPreview = MessageContentCodec.preview(content);
+        this.contentCache = content;
+        byte[] utf8 = content != null ? content.getBytes(StandardCharsets.UTF_8) : null;
+        if (utf8 != null && MessageContentCodec.shouldCompress(utf8)) {
+            this.contentCompressed = MessageContentCodec.compress(utf8);
+            this.content = null;
+        } else {
+            this.contentCompressed = null;
+            this.content = content;
+        }
+    }
+
+    public String getContentPreview() {
+        // Rows written before previews existed
+        return contentPreview != null ? contentPreview : MessageContentCodec.preview(getContent());
+    }
+
+    /**
+     * Point at a parent known only by reference (e.g. getReferenceById), copying its metadata in.
+     */
+    public void setReplyReference(Message parentReference, MessageType type, String senderNickname, String preview) {
+        this.replyTo = parentReference;
+        this.replyToType = type;
+        this.replyToSenderNickname = senderNickname;
+        this.replyToPreview = preview;
+    }
+
+    /**
+     * Point at a fully loaded parent; its metadata is copied when the reply is persisted.
+     */
+    public void setReplyTo(Message parent) {
+        this.replyTo = parent;
+        this.replyToType = null;
+        this.replyToSenderNickname = null;
+        this.replyToPreview = null;
+    }
+
+    // Read from the copy when there is one (replyToType is always set with it), which outlives the parent
+    // once that is archived; otherwise from the parent, in memory already or written before the copy existed.
+
+    public MessageType getReplyToType() {
+        if (replyToType != null) {
+            return replyToType;
+        }
+        return replyTo != null ? replyTo.getMessageType() : null;
+    }
+
+    public String getReplyToPreview() {
+        if (replyToType != null) {
+            return replyToPreview;
+        }
+        return replyTo != null ? replyTo.getContentPreview() : null;
+    }
+
+    public String getReplyToSenderNickname() {
+        if (replyToType != null) {
+            return replyToSenderNickname;
+        }
+        if (replyTo == null) {
+            return null;
+        }
+        return replyTo.getSender() != null ? replyTo.getSender().getNickname() : null;
+    }
+
+    @PrePersist
+    void copyReplyMetadata() {
+        if (replyTo != null && replyToType == null) {
+            replyToType = replyTo.getMessageType();
+            replyToPreview = replyTo.getContentPreview();
+            replyToSenderNickname = replyTo.getSender() != null ? replyTo.getSender().getNickname() : null;
+        }
+    }
+
+    // Partition key: always set on insert and never updated, or the row would have to move partitions
     @CreationTimestamp
-    @Column(name = "created_at", updatable = false)
+    @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 }
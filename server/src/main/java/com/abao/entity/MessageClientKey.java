@@ -0,0 +1,40 @@
+package com.abao.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A sender's idempotency key and the message it produced. Kept out of the partitioned messages
+ * table, where a unique index would have to include created_at and so could not stop a retry.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "message_client_keys",
+       uniqueConstraints = @UniqueConstraint(columnNames = {"sender_id", "client_message_id"}))
+public class MessageClientKey {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(name = "sender_id", nullable = false)
+    private UUID senderId;
+
+    @Column(name = "client_message_id", nullable = false, length = 64)
+    private String clientMessageId;
+
+    @Column(name = "message_id", nullable = false)
+    private UUID messageId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,79 @@
+package com.abao.entity;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Storage format of message bodies. Bodies of at least {@link #COMPRESSION_THRESHOLD_BYTES} UTF-8 bytes
+ * (long AI replies, pasted logs) are LZ4-compressed into content_compressed; shorter ones stay plain in content.
+ * Every message also carries a short preview so list views never need the body.
+ */
+public final class MessageContentCodec {
+
+    public static final int COMPRESSION_THRESHOLD_BYTES = 1024;
+    public static final int PREVIEW_LENGTH = 50;
+
+    // Layout: [format version][original length, 4 bytes][LZ4 block]
+    private static final byte FORMAT_LZ4_BLOCK = 1;
+    private static final int HEADER_SIZE = 5;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private MessageContentCodec() {
+    }
+
+    public static boolean shouldCompress(byte[] utf8) {
+        return utf8.length >= COMPRESSION_THRESHOLD_BYTES;
+    }
+
+    public static byte[] compress(byte[] utf8) {
+        LZ4Compressor compressor = LZ4.fastCompressor();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + compressor.maxCompressedLength(utf8.length));
+        out.put(FORMAT_LZ4_BLOCK).putInt(utf8.length);
+        int written = compressor.compress(utf8, 0, utf8.length, out.array(), HEADER_SIZE);
+        byte[] result = new byte[HEADER_SIZE + written];
+        System.arraycopy(out.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    public static String decompress(byte[] stored) {
+        ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_SIZE);
+        byte format = header.get();
+        if (format != FORMAT_LZ4_BLOCK) {
+            throw new IllegalStateException("Unknown message content format: " + format);
+        }
+        int length = header.getInt();
+        LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+        byte[] utf8 = new byte[length];
+        decompressor.decompress(stored, HEADER_SIZE, utf8, 0, length);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a body from its two storage columns, whichever is set.
+     */
+    public static String read(String plain, byte[] compressed) {
+        if (plain != null) {
+            return plain;
+        }
+        return compressed != null ? decompress(compressed) : null;
+    }
+
+    /**
+     * First {@link #PREVIEW_LENGTH} characters plus "..." when longer, never splitting a surrogate pair.
+     */
+    public static String preview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        int end = PREVIEW_LENGTH;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end) + "...";
+    }
+}
@@ -0,0 +1,43 @@
+package com.abao.event;
+
+import com.abao.config.CacheConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.event.TransactionPhase;
+
+/**
+ * Drops cached views once the change behind them has committed. Runs synchronously so the next
+ * read after a write already misses; the caches' expiry bounds anything repopulated mid-commit.
+ * Shared caches pass the eviction on to the other nodes. Invite codes never change and are left to expire.
+ */
+@Slf4j
+@Component
+public class CacheInvalidationListener {
+
+    @Caching(evict = {
+        @CacheEvict(cacheNames = CacheConfig.GROUP_DETAILS, key = "#event.groupId"),
+        @CacheEvict(cacheNames = CacheConfig.GROUP_SUMMARIES, key = "#event.groupId")
+    })
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handleGroupChanged(GroupChangedEvent event) {
+        log.debug("Evicting group views: groupId={}", event.getGroupId());
+    }
+
+    // The summary carries the last message and seq
+    @CacheEvict(cacheNames = CacheConfig.GROUP_SUMMARIES, key = "#event.message.group.id")
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handleMessageSent(MessageSentEvent event) {
+    }
+
+    @Caching(evict = {
+        @CacheEvict(cacheNames = CacheConfig.USER_PROFILES, key = "#event.userId"),
+        @CacheEvict(cacheNames = CacheConfig.USER_PRINCIPALS, key = "#event.userId")
+    })
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void handleUserProfileChanged(UserProfileChangedEvent event) {
+        log.debug("Evicting user profile: userId={}", event.getUserId());
+    }
+}
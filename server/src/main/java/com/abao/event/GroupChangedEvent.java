@@ -0,0 +1,20 @@
+package com.abao.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.UUID;
+
+/**
+ * Membership or settings of a group changed.
+ */
+@Getter
+public class GroupChangedEvent extends ApplicationEvent {
+
+    private final UUID groupId;
+
+    public GroupChangedEvent(Object source, UUID groupId) {
+        super(source);
+        this.groupId = groupId;
+    }
+}
@@ -1,6 +1,8 @@
 package com.abao.event;
 
 import com.abao.service.AIService;
+import com.abao.service.ConversationContextStore;
+import com.abao.service.ConversationSummarizer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
@@ -14,8 +16,19 @@ import org.springframework.transaction.event.TransactionPhase;
 public class MessageEventListener {
 
     private final AIService aiService;
+    private final ConversationContextStore contextStore;
+    private final ConversationSummarizer summarizer;
 
-    @Async
+    // On the committing thread and cheap, so the message is in the AI context before any trigger reads it;
+    // summaries are written in the background
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void appendToContext(MessageSentEvent event) {
+        contextStore.append(event.getMessage());
+        summarizer.onMessage(event.getMessage());
+    }
+
+    // Off the shared default executor: AI triggers get their own bounded pool
+    @Async("aiJobExecutor")
     @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
     public void handleMessageSent(MessageSentEvent event) {
         log.debug("Processing message event: {}", event.getMessage().getId());
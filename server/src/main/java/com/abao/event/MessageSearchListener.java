@@ -0,0 +1,28 @@
+package com.abao.event;
+
+import com.abao.service.MessageSearchService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.event.TransactionPhase;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageSearchListener {
+
+    private final MessageSearchService searchService;
+
+    @Async
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void handleMessageSent(MessageSentEvent event) {
+        try {
+            searchService.index(event.getMessage());
+        } catch (Exception e) {
+            // The message is already delivered; a missed document only affects search
+            log.error("Failed to index message: messageId={}", event.getMessage().getId(), e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.abao.event;
+
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.UUID;
+
+@Getter
+public class UserProfileChangedEvent extends ApplicationEvent {
+
+    private final UUID userId;
+
+    public UserProfileChangedEvent(Object source, UUID userId) {
+        super(source);
+        this.userId = userId;
+    }
+}
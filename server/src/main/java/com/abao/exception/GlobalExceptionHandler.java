@@ -73,7 +73,7 @@ public class GlobalExceptionHandler {
         }
 
         // 403 - Forbidden
-        if (message.contains("不是") && message.contains("成员")) {
+        if ((message.contains("不是") && message.contains("成员")) || message.contains("无权")) {
             return HttpStatus.FORBIDDEN;
         }
 
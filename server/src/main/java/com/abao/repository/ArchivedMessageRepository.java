@@ -0,0 +1,20 @@
+package com.abao.repository;
+
+import com.abao.entity.ArchivedMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface ArchivedMessageRepository extends JpaRepository<ArchivedMessage, UUID> {
+
+    @Query("SELECT a FROM ArchivedMessage a WHERE a.groupId = :groupId "
+        + "AND (a.createdAt < :before OR (a.createdAt = :before AND a.id < :beforeId)) "
+        + "ORDER BY a.createdAt DESC, a.id DESC LIMIT :limit")
+    List<ArchivedMessage> findHistoryBefore(@Param("groupId") UUID groupId, @Param("before") LocalDateTime before, @Param("beforeId") UUID beforeId, @Param("limit") int limit);
+}
@@ -0,0 +1,14 @@
+package com.abao.repository;
+
+import com.abao.entity.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, UUID> {
+
+    Optional<ConversationSummary> findFirstByGroupIdOrderByThroughSeqDesc(UUID groupId);
+}
@@ -0,0 +1,18 @@
+package com.abao.repository;
+
+import com.abao.entity.GroupChange;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface GroupChangeRepository extends JpaRepository<GroupChange, UUID> {
+
+    // Delta sync page, in the same seq space as the group's messages
+    @Query("SELECT c FROM GroupChange c WHERE c.groupId = :groupId AND c.seq > :after ORDER BY c.seq ASC LIMIT :limit")
+    List<GroupChange> findAfterSeq(@Param("groupId") UUID groupId, @Param("after") long after, @Param("limit") int limit);
+}
@@ -0,0 +1,9 @@
+package com.abao.repository;
+
+import java.util.UUID;
+
+/**
+ * One row of a per-group aggregate, so counts for many groups come back from a single GROUP BY.
+ */
+public record GroupCount(UUID groupId, long count) {
+}
@@ -1,9 +1,17 @@
 package com.abao.repository;
 
 import com.abao.entity.GroupMember;
+import com.abao.entity.GroupRole;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -19,5 +27,34 @@ public interface GroupMemberRepository extends JpaRepository<GroupMember, UUID>
 
     boolean existsByGroupIdAndUserId(UUID groupId, UUID userId);
 
+    boolean existsByGroupIdAndUserIdAndRoleIn(UUID groupId, UUID userId, Collection<GroupRole> roles);
+
+    boolean existsByGroupIdAndRole(UUID groupId, GroupRole role);
+
+    // Longest-standing human member, who inherits ownership when the owner leaves
+    Optional<GroupMember> findFirstByGroupIdAndIsAiFalseOrderByJoinedAtAscIdAsc(UUID groupId);
+
     long countByGroupId(UUID groupId);
+
+    @Query("SELECT gm.user.id FROM GroupMember gm WHERE gm.group.id = :groupId AND gm.user IS NOT NULL")
+    List<UUID> findUserIdsByGroupId(@Param("groupId") UUID groupId);
+
+    // One page of members with the user columns they display; no GroupMember or User entities are loaded
+    @Query("SELECT gm.id AS id, u.id AS userId, u.nickname AS nickname, u.email AS email, "
+        + "u.avatarUrl AS avatarUrl, gm.isAi AS isAi, gm.joinedAt AS joinedAt "
+        + "FROM GroupMember gm LEFT JOIN gm.user u WHERE gm.group.id = :groupId "
+        + "ORDER BY gm.joinedAt ASC, gm.id ASC")
+    Slice<GroupMemberView> findMemberViews(@Param("groupId") UUID groupId, Pageable pageable);
+
+    // The affected row count tells a leave apart from one that lost a race
+    @Modifying
+    @Query("DELETE FROM GroupMember gm WHERE gm.group.id = :groupId AND gm.user.id = :userId")
+    int deleteByGroupIdAndUserId(@Param("groupId") UUID groupId, @Param("userId") UUID userId);
+
+    // Only moves forward, so a late or replayed request cannot mark newer messages unread again
+    @Modifying
+    @Query("UPDATE GroupMember gm SET gm.lastReadAt = :readAt "
+        + "WHERE gm.group.id = :groupId AND gm.user.id = :userId "
+        + "AND (gm.lastReadAt IS NULL OR gm.lastReadAt < :readAt)")
+    int markRead(@Param("groupId") UUID groupId, @Param("userId") UUID userId, @Param("readAt") LocalDateTime readAt);
 }
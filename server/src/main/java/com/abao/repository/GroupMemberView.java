@@ -0,0 +1,24 @@
+package com.abao.repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A member row as shown in member lists, read in the same query as the membership.
+ */
+public interface GroupMemberView {
+
+    UUID getId();
+
+    UUID getUserId();
+
+    String getNickname();
+
+    String getEmail();
+
+    String getAvatarUrl();
+
+    Boolean getIsAi();
+
+    LocalDateTime getJoinedAt();
+}
@@ -2,6 +2,7 @@ package com.abao.repository;
 
 import com.abao.entity.Group;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -19,4 +20,27 @@ public interface GroupRepository extends JpaRepository<Group, UUID> {
 
     @Query("SELECT g FROM Group g JOIN g.members m WHERE m.user.id = :userId ORDER BY g.updatedAt DESC")
     List<Group> findByUserIdOrderByUpdatedAtDesc(@Param("userId") UUID userId);
+
+    /**
+     * Hand out the group's next sequence number. The row lock taken by the increment is held until
+     * commit, so numbers become visible in order and a reader never sees a gap below last_seq.
+     */
+    default long nextSeq(UUID groupId) {
+        incrementLastSeq(groupId);
+        return findLastSeq(groupId);
+    }
+
+    @Modifying
+    @Query("UPDATE Group g SET g.lastSeq = g.lastSeq + 1 WHERE g.id = :groupId")
+    int incrementLastSeq(@Param("groupId") UUID groupId);
+
+    @Query("SELECT g.lastSeq FROM Group g WHERE g.id = :groupId")
+    long findLastSeq(@Param("groupId") UUID groupId);
+
+    @Modifying
+    @Query("UPDATE Group g SET g.memberCount = g.memberCount + :delta WHERE g.id = :groupId")
+    int adjustMemberCount(@Param("groupId") UUID groupId, @Param("delta") int delta);
+
+    @Query("SELECT g.memberCount FROM Group g WHERE g.id = :groupId")
+    int findMemberCount(@Param("groupId") UUID groupId);
 }
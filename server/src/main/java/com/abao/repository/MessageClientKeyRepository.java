@@ -0,0 +1,18 @@
+package com.abao.repository;
+
+import com.abao.entity.MessageClientKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface MessageClientKeyRepository extends JpaRepository<MessageClientKey, UUID> {
+
+    @Query("SELECT k FROM MessageClientKey k WHERE k.senderId = :senderId AND k.clientMessageId = :clientMessageId AND k.createdAt >= :since")
+    Optional<MessageClientKey> findRecent(@Param("senderId") UUID senderId, @Param("clientMessageId") String clientMessageId, @Param("since") LocalDateTime since);
+}
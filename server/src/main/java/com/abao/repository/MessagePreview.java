@@ -0,0 +1,28 @@
+package com.abao.repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Just enough of a message for list views; never loads the body.
+ */
+public interface MessagePreview {
+
+    UUID getGroupId();
+
+    String getContentPreview();
+
+    LocalDateTime getCreatedAt();
+
+    String getSenderNickname();
+
+    String getSenderEmail();
+
+    default String getSenderDisplayName() {
+        String nickname = getSenderNickname();
+        if (nickname != null && !nickname.isEmpty()) {
+            return nickname;
+        }
+        return getSenderEmail() != null ? getSenderEmail().split("@")[0] : null;
+    }
+}
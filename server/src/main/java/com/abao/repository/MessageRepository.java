@@ -9,10 +9,15 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+/**
+ * messages is range-partitioned by created_at on PostgreSQL. Queries filter or order on created_at
+ * so the planner can prune partitions (range predicates) or stop after the newest one (ordered LIMIT).
+ */
 @Repository
 public interface MessageRepository extends JpaRepository<Message, UUID> {
 
@@ -21,11 +26,53 @@ public interface MessageRepository extends JpaRepository<Message, UUID> {
     @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender WHERE m.group.id = :groupId ORDER BY m.createdAt DESC LIMIT :limit")
     List<Message> findRecentByGroupId(@Param("groupId") UUID groupId, @Param("limit") int limit);
 
-    @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender LEFT JOIN FETCH m.replyTo WHERE m.group.id = :groupId AND m.createdAt >= :since ORDER BY m.createdAt ASC LIMIT :limit")
+    // Replies carry their parent's type and preview, so parents are not joined
+    @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender WHERE m.group.id = :groupId AND m.createdAt >= :since ORDER BY m.createdAt ASC LIMIT :limit")
     List<Message> findContextWindow(@Param("groupId") UUID groupId, @Param("since") LocalDateTime since, @Param("limit") int limit);
 
-    @Query("SELECT m FROM Message m WHERE m.group.id = :groupId ORDER BY m.createdAt DESC LIMIT 1")
-    Optional<Message> findLatestByGroupId(@Param("groupId") UUID groupId);
+    // Keyset on (createdAt, id), so messages sharing the boundary timestamp are neither skipped nor repeated
+    @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender WHERE m.group.id = :groupId "
+        + "AND (m.createdAt < :before OR (m.createdAt = :before AND m.id < :beforeId)) "
+        + "ORDER BY m.createdAt DESC, m.id DESC LIMIT :limit")
+    List<Message> findHistoryBefore(@Param("groupId") UUID groupId, @Param("before") LocalDateTime before, @Param("beforeId") UUID beforeId, @Param("limit") int limit);
+
+    // Latest message of each group; one statement however many groups are listed
+    @Query("SELECT m.group.id AS groupId, m.contentPreview AS contentPreview, m.createdAt AS createdAt, "
+        + "s.nickname AS senderNickname, s.email AS senderEmail "
+        + "FROM Message m LEFT JOIN m.sender s WHERE m.group.id IN :groupIds "
+        + "AND m.createdAt = (SELECT MAX(m2.createdAt) FROM Message m2 WHERE m2.group = m.group)")
+    List<MessagePreview> findLatestPreviewsByGroupIds(@Param("groupIds") Collection<UUID> groupIds);
+
+    /**
+     * The newest {@code limit} messages of each group. Senders are left lazy and come in
+     * batches through hibernate.default_batch_fetch_size.
+     */
+    @Query(value = "SELECT * FROM ("
+        + "SELECT m.*, ROW_NUMBER() OVER (PARTITION BY m.group_id ORDER BY m.created_at DESC) AS rn "
+        + "FROM messages m WHERE m.group_id IN (:groupIds)) ranked "
+        + "WHERE ranked.rn <= :limit ORDER BY ranked.group_id, ranked.created_at DESC", nativeQuery = true)
+    List<Message> findRecentByGroupIds(@Param("groupIds") Collection<UUID> groupIds, @Param("limit") int limit);
+
+    // Messages from others newer than the user's read marker, per group
+    @Query("SELECT new com.abao.repository.GroupCount(m.group.id, COUNT(m)) "
+        + "FROM Message m, GroupMember gm "
+        + "WHERE gm.group = m.group AND gm.user.id = :userId "
+        + "AND m.createdAt > COALESCE(gm.lastReadAt, gm.joinedAt) "
+        + "AND (m.sender IS NULL OR m.sender.id <> :userId) "
+        + "GROUP BY m.group.id")
+    List<GroupCount> countUnreadByUserId(@Param("userId") UUID userId);
+
+    // Seq is assigned under the group row lock, so the highest committed seq is the newest message
+    @Query("SELECT COALESCE(MAX(m.seq), 0) FROM Message m WHERE m.group.id = :groupId")
+    long findLatestSeq(@Param("groupId") UUID groupId);
+
+    // Delta sync page; seq order is commit order within a group
+    @Query("SELECT m FROM Message m LEFT JOIN FETCH m.sender WHERE m.group.id = :groupId AND m.seq > :after ORDER BY m.seq ASC LIMIT :limit")
+    List<Message> findAfterSeq(@Param("groupId") UUID groupId, @Param("after") long after, @Param("limit") int limit);
 
     long countByGroupId(UUID groupId);
+
+    @Query("SELECT new com.abao.repository.ReplyMetadata(m.id, m.messageType, s.nickname, m.contentPreview) "
+        + "FROM Message m LEFT JOIN m.sender s WHERE m.id = :id")
+    Optional<ReplyMetadata> findReplyMetadata(@Param("id") UUID id);
 }
@@ -0,0 +1,11 @@
+package com.abao.repository;
+
+import com.abao.entity.MessageType;
+
+import java.util.UUID;
+
+/**
+ * What a reply copies from the message it answers, read without loading that message's body.
+ */
+public record ReplyMetadata(UUID id, MessageType messageType, String senderNickname, String contentPreview) {
+}
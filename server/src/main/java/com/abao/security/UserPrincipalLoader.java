@@ -0,0 +1,44 @@
+package com.abao.security;
+
+import com.abao.config.CacheConfig;
+import com.abao.entity.User;
+import com.abao.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Resolves the user behind a validated token for every request and WebSocket handshake, from the
+ * shared user-principals cache rather than the users table.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserPrincipalLoader {
+
+    private final UserRepository userRepository;
+
+    /**
+     * A detached copy without password hash or verification token, since it is cached and may
+     * leave the process for L2. Null when the user no longer exists.
+     */
+    @Cacheable(cacheNames = CacheConfig.USER_PRINCIPALS, sync = true)
+    public User load(UUID userId) {
+        return userRepository.findById(userId)
+            .map(UserPrincipalLoader::withoutCredentials)
+            .orElse(null);
+    }
+
+    private static User withoutCredentials(User user) {
+        User principal = new User();
+        principal.setId(user.getId());
+        principal.setEmail(user.getEmail());
+        principal.setNickname(user.getNickname());
+        principal.setAvatarUrl(user.getAvatarUrl());
+        principal.setEmailVerified(user.getEmailVerified());
+        principal.setCreatedAt(user.getCreatedAt());
+        principal.setUpdatedAt(user.getUpdatedAt());
+        return principal;
+    }
+}
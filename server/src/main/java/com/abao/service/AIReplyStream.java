@@ -0,0 +1,120 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.abao.websocket.WebSocketSessionManager;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes one AI reply to the group while it is generated, in the protocol the app and node-server
+ * already speak: AI_STREAM_START, then AI_STREAM_DELTA frames, then AI_STREAM_END carrying the
+ * persisted message that replaces the streamed text. The first token goes out at once; after that
+ * tokens are coalesced into one delta at most every {@code coalesceMillis}, so a fast model does
+ * not cost one WebSocket frame per token. A buffered tail is sent by a timer when no further token
+ * arrives within the interval.
+ */
+class AIReplyStream {
+
+    private final UUID groupId;
+    private final UUID replyToId;
+    private final UUID streamId = UUID.randomUUID();
+    private final WebSocketSessionManager sessionManager;
+    private final Scheduler timer;
+    private final long coalesceNanos;
+
+    // Guarded by this
+    private final StringBuilder pending = new StringBuilder();
+    private boolean started;
+    private boolean completed;
+    private long lastFlush;
+    private Disposable scheduledFlush;
+
+    AIReplyStream(UUID groupId, UUID replyToId, WebSocketSessionManager sessionManager, Scheduler timer,
+                  long coalesceMillis) {
+        this.groupId = groupId;
+        this.replyToId = replyToId;
+        this.sessionManager = sessionManager;
+        this.timer = timer;
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+    }
+
+    synchronized void append(String delta) {
+        if (completed) {
+            return;
+        }
+        if (!started) {
+            start();
+        }
+        pending.append(delta);
+        long now = System.nanoTime();
+        long wait = lastFlush + coalesceNanos - now;
+        if (lastFlush == 0 || wait <= 0) {
+            flush(now);
+        } else if (scheduledFlush == null) {
+            scheduledFlush = timer.schedule(this::flushPending, wait, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @param message the persisted reply (or apology) clients should show instead, null if none
+     */
+    synchronized void complete(MessageDto message) {
+        if (completed) {
+            return;
+        }
+        if (pending.length() > 0) {
+            flush(System.nanoTime());
+        }
+        completed = true;
+        // Nothing was streamed: the message reaches clients as NEW_MESSAGE alone
+        if (!started || message == null) {
+            return;
+        }
+
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "AI_STREAM_END");
+        frame.put("groupId", groupId);
+        frame.put("streamId", streamId);
+        frame.put("message", message);
+        sessionManager.broadcastToGroup(groupId, frame);
+    }
+
+    private void start() {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "AI_STREAM_START");
+        frame.put("groupId", groupId);
+        frame.put("streamId", streamId);
+        frame.put("replyToId", replyToId);
+        sessionManager.broadcastToGroup(groupId, frame);
+        started = true;
+    }
+
+    private synchronized void flushPending() {
+        scheduledFlush = null;
+        if (!completed && pending.length() > 0) {
+            flush(System.nanoTime());
+        }
+    }
+
+    private void flush(long now) {
+        if (scheduledFlush != null) {
+            scheduledFlush.dispose();
+            scheduledFlush = null;
+        }
+
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "AI_STREAM_DELTA");
+        frame.put("groupId", groupId);
+        frame.put("streamId", streamId);
+        frame.put("delta", pending.toString());
+        sessionManager.broadcastToGroup(groupId, frame);
+
+        pending.setLength(0);
+        lastFlush = now;
+    }
+}
@@ -1,19 +1,39 @@
 package com.abao.service;
 
+import com.abao.dto.message.MessageDto;
 import com.abao.entity.Message;
 import com.abao.entity.MessageType;
+import com.abao.repository.ConversationSummaryRepository;
 import com.abao.repository.MessageRepository;
+import com.abao.websocket.WebSocketSessionManager;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -24,16 +44,23 @@ public class AIService {
     private final MessageRepository messageRepository;
     private final MessageService messageService;
     private final ObjectMapper objectMapper;
-    private final RestTemplate restTemplate; // S9: injected bean
-
-    @Value("${ai.deepseek.api-key:}")
-    private String apiKey;
-
-    @Value("${ai.deepseek.base-url:https://api.deepseek.com}")
-    private String baseUrl;
-
-    @Value("${ai.deepseek.model:deepseek-chat}")
-    private String model;
+    private final WebClient webClient; // S9: injected bean
+    private final AiCallLimiter callLimiter;
+    private final AiProviderRouter router;
+    private final AiJobScheduler jobScheduler;
+    private final ConversationContextStore contextStore;
+    private final ConversationSummaryRepository summaryRepository;
+    private final WebSocketSessionManager sessionManager;
+    private final MeterRegistry meterRegistry;
+    private final Timer timeToFirstToken;
+    private final Timer completionTime;
+    private final Counter coalescedTriggers;
+    private final DistributionSummary promptSize;
+    private final Counter droppedMessages;
+    private final Counter truncatedMessages;
+
+    // Triggers waiting for their group's next reply; a group's list is taken when that reply starts
+    private final Map<UUID, List<Message>> pendingTriggers = new HashMap<>();
 
     @Value("${ai.deepseek.max-tokens:2048}")
     private int maxTokens;
@@ -47,17 +74,120 @@ public class AIService {
     @Value("${ai.context.max-messages:50}")
     private int contextMaxMessages;
 
+    @Value("${ai.context.max-prompt-tokens:6000}")
+    private int maxPromptTokens;
+
+    @Value("${ai.context.max-message-tokens:1000}")
+    private int maxMessageTokens;
+
+    @Value("${ai.stream.coalesce-ms:50}")
+    private long streamCoalesceMillis;
+
+    @Value("${ai.deepseek.timeout:30000}")
+    private long idleTimeoutMillis;
+
+    @Value("${ai.client.first-token-timeout:30s}")
+    private Duration firstTokenTimeout;
+
+    @Value("${ai.client.total-timeout:120s}")
+    private Duration totalTimeout;
+
+    @Value("${ai.jobs.debounce:800ms}")
+    private Duration debounceWindow;
+
+    @Value("${ai.resilience.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    @Value("${ai.resilience.hedge.min-delay:2s}")
+    private Duration minHedgeDelay;
+
+    @Value("${ai.resilience.hedge.min-samples:20}")
+    private long minHedgeSamples;
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+        new ParameterizedTypeReference<>() {};
+
+    /**
+     * S8: Enriched system prompt with two trigger types and anti-repetition rule. Kept byte-for-byte
+     * constant and sent first, so the provider's prompt cache can reuse it across every group and call;
+     * per-group details go in {@link #buildGroupInfo}.
+     */
+    private static final String SYSTEM_PROMPT = """
+        你是"A宝"，一个群聊 AI 助手。
+
+        ## 你的人设
+        - 名字叫 A宝
+        - 风格：友好、简洁、有趣
+        - 用口语化中文回复
+        - 回复长度控制在 1-3 句话，除非用户要求详细解答
+
+        ## 触发规则
+        你会在以下两种情况被触发回复：
+        1. 用户消息中包含 [提问A宝] 标记 — 这是用户直接向你提问
+        2. 用户引用你之前的回复进行追问 — 消息格式为: 用户名 [回复A宝: "引用内容"] [追问]: 实际问题
+
+        **最重要**: 当看到 [追问] 标记时，你必须重点回答 [追问] 后面的内容，那才是用户当前的问题。[回复A宝: "..."] 中的内容只是上下文参考，不要把它当作需要回答的问题。
+
+        ## 回复规范
+        - 严禁重复你之前已经回复过的内容
+        - 直接回复内容，不要以任何人的名字开头
+        - 不要模拟其他用户说话
+        - 不要输出 "用户名: 内容" 这种格式
+        - 你的回复就是你自己说的话，不需要角色标注
+        - 如果不确定答案，诚实地说不知道
+        - 如果用户问"群里有谁"，根据对话末尾群聊信息中的活跃成员列表回答
+        """;
+
+    private static final String SUMMARY_HEADER = "[之前对话的摘要]";
+    private static final String COMPENSATION_HEADER = "[以下是上面对话中被引用、但已不在对话记录里的历史消息，仅用于理解追问上下文]";
+
     private static final Pattern AI_MENTION_PATTERN = Pattern.compile("@[Aa][Ii]\\b");
 
-    // S9: Constructor injection with @Qualifier for RestTemplate
+    // S9: Constructor injection with @Qualifier for the AI WebClient
     public AIService(MessageRepository messageRepository,
                      MessageService messageService,
                      ObjectMapper objectMapper,
-                     @Qualifier("aiRestTemplate") RestTemplate restTemplate) {
+                     @Qualifier("aiWebClient") WebClient webClient,
+                     AiCallLimiter callLimiter,
+                     AiProviderRouter router,
+                     AiJobScheduler jobScheduler,
+                     ConversationContextStore contextStore,
+                     ConversationSummaryRepository summaryRepository,
+                     WebSocketSessionManager sessionManager,
+                     MeterRegistry meterRegistry) {
         this.messageRepository = messageRepository;
         this.messageService = messageService;
         this.objectMapper = objectMapper;
-        this.restTemplate = restTemplate;
+        this.webClient = webClient;
+        this.callLimiter = callLimiter;
+        this.router = router;
+        this.jobScheduler = jobScheduler;
+        this.contextStore = contextStore;
+        this.summaryRepository = summaryRepository;
+        this.meterRegistry = meterRegistry;
+        this.sessionManager = sessionManager;
+        this.timeToFirstToken = Timer.builder("ai.reply.time_to_first_token")
+            .description("From sending a completion request to its first streamed token, per attempt")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.completionTime = Timer.builder("ai.reply.duration")
+            .description("From sending the completion request to the last streamed token")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.coalescedTriggers = Counter.builder("ai.triggers.coalesced")
+            .description("Triggers answered by a reply already pending for their group")
+            .register(meterRegistry);
+        this.promptSize = DistributionSummary.builder("ai.prompt.tokens")
+            .description("Estimated prompt tokens per AI call, after fitting to the budget")
+            .baseUnit("tokens")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.droppedMessages = Counter.builder("ai.prompt.dropped_messages")
+            .description("History messages left out of a prompt to stay within the token budget")
+            .register(meterRegistry);
+        this.truncatedMessages = Counter.builder("ai.prompt.truncated_messages")
+            .description("Messages cut to the per-message token cap")
+            .register(meterRegistry);
     }
 
     /**
@@ -72,6 +202,10 @@ public class AIService {
      * S6: Extract the user's actual message, replacing @AI with semantic tag [提问A宝]
      */
     public String extractUserMessage(String content) {
+        return markMention(content);
+    }
+
+    static String markMention(String content) {
         if (content == null) return "";
         return AI_MENTION_PATTERN.matcher(content).replaceAll("[提问A宝]").trim();
     }
@@ -90,7 +224,7 @@ public class AIService {
         }
 
         // Trigger if replying to an AI message
-        if (message.getReplyTo() != null && message.getReplyTo().getMessageType() == MessageType.AI) {
+        if (message.getReplyToType() == MessageType.AI) {
             return true;
         }
 
@@ -101,136 +235,184 @@ public class AIService {
      * Build conversation context for AI with time-windowed context
      */
     public List<Map<String, String>> buildContext(UUID groupId, Message triggerMessage) {
+        return buildContext(groupId, List.of(triggerMessage));
+    }
+
+    /**
+     * Context for one reply to several triggers, oldest first. Served from
+     * {@link ConversationContextStore}; besides one seq lookup, only a group's first trigger, messages
+     * the store missed, or a quoted AI reply it no longer holds read the database. The group's rolling summary stands in for the messages it
+     * covers. The prompt is fitted to ai.context.max-prompt-tokens, or the smaller max-prompt-tokens
+     * of a healthy provider ({@link AiProviderRouter#promptBudget}): the system prompt, summary, quoted
+     * replies and triggers are always kept (cut to ai.context.max-message-tokens each), and history
+     * fills what is left, newest first.
+     */
+    List<Map<String, String>> buildContext(UUID groupId, List<Message> triggers) {
         List<Map<String, String>> messages = new ArrayList<>();
 
-        // Get recent messages within time window (already in ASC order)
+        // Recent messages within the time window, in chronological order
         LocalDateTime since = LocalDateTime.now().minusMinutes(contextWindowMinutes);
-        List<Message> recentMessages = messageRepository.findContextWindow(groupId, since, contextMaxMessages);
-
-        // S2: triggerMessage 兜底校验 — 确保 triggerMessage 在 context 中
-        boolean triggerPresent = recentMessages.stream()
-            .anyMatch(m -> m.getId().equals(triggerMessage.getId()));
-        if (!triggerPresent) {
-            recentMessages = new ArrayList<>(recentMessages);
-            recentMessages.add(triggerMessage);
+        List<ConversationContextStore.Entry> recentMessages = contextStore.window(groupId,
+            messageRepository.findLatestSeq(groupId), since, contextMaxMessages, messageRepository::findContextWindow,
+            triggers);
+
+        // Messages the summary already covers are left out; it stands in for them and everything before
+        ConversationContextStore.Summary summary = contextStore.summary(
+            groupId, summaryRepository::findFirstByGroupIdOrderByThroughSeqDesc);
+        if (summary != null) {
+            recentMessages = recentMessages.stream()
+                .filter(entry -> entry.seq() == null || entry.seq() > summary.throughSeq())
+                .toList();
         }
 
-        // Extract active member names (deduplicated)
+        // Active member names (deduplicated), sanitized when the entry was stored
         Set<String> activeMembers = new LinkedHashSet<>();
-        for (Message msg : recentMessages) {
-            if (msg.getMessageType() == MessageType.USER && msg.getSender() != null) {
-                String nickname = msg.getSender().getNickname();
-                if (nickname != null && !nickname.isEmpty()) {
-                    // Sanitize: truncate and strip newlines to prevent prompt injection
-                    String safeName = nickname.replaceAll("[\\r\\n]", "");
-                    if (safeName.length() > 20) safeName = safeName.substring(0, 20);
-                    activeMembers.add(safeName);
-                }
+        for (ConversationContextStore.Entry entry : recentMessages) {
+            if (entry.speaker() != null) {
+                activeMembers.add(entry.speaker());
             }
         }
 
-        // Build enriched system prompt with group context
-        String systemPrompt = buildSystemPrompt(activeMembers);
-        messages.add(Map.of("role", "system", "content", systemPrompt));
+        // Static first, then what changes least to most often: summary, quoted replies, history, group info
+        messages.add(Map.of("role", "system", "content", SYSTEM_PROMPT));
+
+        String summaryMessage = summary != null ? capMessage(SUMMARY_HEADER + "\n" + summary.content()) : null;
+        if (summaryMessage != null) {
+            messages.add(Map.of("role", "system", "content", summaryMessage));
+        }
 
         // S7: 跨窗口 replyTo 补偿
         Set<UUID> contextMessageIds = recentMessages.stream()
-            .map(Message::getId)
+            .map(ConversationContextStore.Entry::id)
             .collect(Collectors.toSet());
 
-        List<Message> replyCompensations = new ArrayList<>();
-        for (Message msg : recentMessages) {
-            if (msg.getReplyTo() != null
-                && msg.getReplyTo().getMessageType() == MessageType.AI
-                && !contextMessageIds.contains(msg.getReplyTo().getId())) {
-                replyCompensations.add(msg.getReplyTo());
-                contextMessageIds.add(msg.getReplyTo().getId()); // 避免重复补偿
+        List<String> replyCompensations = new ArrayList<>();
+        for (ConversationContextStore.Entry entry : recentMessages) {
+            if (entry.replyToAiId() != null && contextMessageIds.add(entry.replyToAiId())) {
+                String quoted = quotedReply(groupId, entry);
+                if (quoted != null) {
+                    replyCompensations.add(quoted);
+                }
             }
         }
 
+        String groupInfo = buildGroupInfo(activeMembers, triggers.size());
+
+        // What is always sent, each piece cut to the per-message cap
+        int promptBudget = router.promptBudget(maxPromptTokens);
+        int budget = promptBudget - TokenEstimator.estimateMessage(SYSTEM_PROMPT)
+            - (summaryMessage != null ? TokenEstimator.estimateMessage(summaryMessage) : 0)
+            - TokenEstimator.estimateMessage(groupInfo);
         if (!replyCompensations.isEmpty()) {
-            messages.add(Map.of("role", "system",
-                "content", "[以下是被引用的历史消息，用于理解追问上下文]"));
-            for (Message comp : replyCompensations) {
-                messages.add(Map.of("role", "assistant", "content", comp.getContent()));
-            }
-            messages.add(Map.of("role", "system",
-                "content", "[以下是最近的对话记录]"));
-        }
-
-        // Build conversation history (already chronological from query)
-        for (Message msg : recentMessages) {
-            String role;
-            String content = msg.getContent();
-
-            switch (msg.getMessageType()) {
-                case AI -> role = "assistant";
-                case USER -> {
-                    role = "user";
-                    String displayName = msg.getSender() != null
-                        ? msg.getSender().getNickname()
-                        : "Unknown";
-
-                    // S5+S11: 标注引用关系，追问内容用 [追问] 标记分离
-                    if (msg.getReplyTo() != null
-                        && msg.getReplyTo().getMessageType() == MessageType.AI) {
-                        String quoted = msg.getReplyTo().getContent();
-                        if (quoted != null && quoted.length() > 50) {
-                            quoted = quoted.substring(0, 50) + "...";
-                        }
-                        content = displayName + " [回复A宝: \"" + quoted + "\"] [追问]: "
-                                + extractUserMessage(content);
-                    } else {
-                        content = displayName + ": " + extractUserMessage(content);
-                    }
+            budget -= TokenEstimator.estimateMessage(COMPENSATION_HEADER);
+        }
+        replyCompensations.replaceAll(this::capMessage);
+        for (String comp : replyCompensations) {
+            budget -= TokenEstimator.estimateMessage(comp);
+        }
+        Set<UUID> triggerIds = triggers.stream().map(Message::getId).collect(Collectors.toSet());
+        Map<UUID, Map<String, String>> turns = new HashMap<>();
+        for (ConversationContextStore.Entry entry : recentMessages) {
+            if (entry.turn() != null && (triggerIds.contains(entry.id()) || entry.tokens() > maxMessageTokens)) {
+                Map<String, String> turn = capTurn(entry);
+                turns.put(entry.id(), turn);
+                if (triggerIds.contains(entry.id())) {
+                    budget -= TokenEstimator.estimateMessage(turn.get("content"));
                 }
-                default -> {
-                    continue; // Skip system messages
+            }
+        }
+
+        // History, newest first, until the budget runs out; older messages are dropped as a block
+        List<Map<String, String>> history = new ArrayList<>();
+        int dropped = 0;
+        for (int i = recentMessages.size() - 1; i >= 0; i--) {
+            ConversationContextStore.Entry entry = recentMessages.get(i);
+            if (entry.turn() == null) {
+                continue;
+            }
+            Map<String, String> turn = turns.getOrDefault(entry.id(), entry.turn());
+            if (!triggerIds.contains(entry.id())) {
+                int tokens = turn == entry.turn() ? entry.tokens() : TokenEstimator.estimateMessage(turn.get("content"));
+                if (dropped > 0 || tokens > budget) {
+                    dropped++;
+                    continue;
                 }
+                budget -= tokens;
+            }
+            history.add(turn);
+        }
+        Collections.reverse(history);
+
+        // Conversation history, rendered when each message was stored; system messages have no turn
+        messages.addAll(history);
+
+        // Quoted messages differ per trigger, so they go after the history to keep its prefix cacheable
+        if (!replyCompensations.isEmpty()) {
+            messages.add(Map.of("role", "system", "content", COMPENSATION_HEADER));
+            for (String comp : replyCompensations) {
+                messages.add(Map.of("role", "assistant", "content", comp));
             }
+        }
 
-            messages.add(Map.of("role", role, "content", content));
+        messages.add(Map.of("role", "system", "content", groupInfo));
+
+        int promptTokens = promptBudget - budget;
+        promptSize.record(promptTokens);
+        if (dropped > 0) {
+            droppedMessages.increment(dropped);
+            log.debug("AI context over budget: groupId={}, promptTokens={}, droppedMessages={}",
+                groupId, promptTokens, dropped);
         }
 
         return messages;
     }
 
+    private Map<String, String> capTurn(ConversationContextStore.Entry entry) {
+        if (entry.tokens() <= maxMessageTokens) {
+            return entry.turn();
+        }
+        return Map.of("role", entry.turn().get("role"), "content", capMessage(entry.turn().get("content")));
+    }
+
+    private String capMessage(String content) {
+        if (TokenEstimator.estimateMessage(content) <= maxMessageTokens) {
+            return content;
+        }
+        truncatedMessages.increment();
+        return TokenEstimator.truncate(content, maxMessageTokens - TokenEstimator.MESSAGE_OVERHEAD);
+    }
+
     /**
-     * S8: Build enriched system prompt with two trigger types and anti-repetition rule
+     * Full text of the AI reply an entry quotes: from the store's recent replies, from the parent as it
+     * was in memory, or as a last resort from the database
      */
-    private String buildSystemPrompt(Set<String> activeMembers) {
+    private String quotedReply(UUID groupId, ConversationContextStore.Entry entry) {
+        String content = contextStore.aiReply(groupId, entry.replyToAiId());
+        if (content == null) {
+            content = entry.replyToContent();
+        }
+        if (content == null) {
+            content = messageRepository.findById(entry.replyToAiId()).map(Message::getContent).orElse(null);
+        }
+        return content;
+    }
+
+    /**
+     * S8: Group details and, for a coalesced reply, the ask to answer every question. Sent last: what
+     * changes between calls goes after everything that does not, so the prefix stays cacheable.
+     */
+    private String buildGroupInfo(Set<String> activeMembers, int triggerCount) {
         String memberList = activeMembers.isEmpty()
             ? "暂无"
             : String.join("、", activeMembers);
 
-        return """
-            你是"A宝"，一个群聊 AI 助手。
-
+        String groupInfo = """
             ## 群聊信息
-            - 当前群内活跃成员: %s
-
-            ## 你的人设
-            - 名字叫 A宝
-            - 风格：友好、简洁、有趣
-            - 用口语化中文回复
-            - 回复长度控制在 1-3 句话，除非用户要求详细解答
-
-            ## 触发规则
-            你会在以下两种情况被触发回复：
-            1. 用户消息中包含 [提问A宝] 标记 — 这是用户直接向你提问
-            2. 用户引用你之前的回复进行追问 — 消息格式为: 用户名 [回复A宝: "引用内容"] [追问]: 实际问题
-
-            **最重要**: 当看到 [追问] 标记时，你必须重点回答 [追问] 后面的内容，那才是用户当前的问题。[回复A宝: "..."] 中的内容只是上下文参考，不要把它当作需要回答的问题。
-
-            ## 回复规范
-            - 严禁重复你之前已经回复过的内容
-            - 直接回复内容，不要以任何人的名字开头
-            - 不要模拟其他用户说话
-            - 不要输出 "用户名: 内容" 这种格式
-            - 你的回复就是你自己说的话，不需要角色标注
-            - 如果不确定答案，诚实地说不知道
-            - 如果用户问"群里有谁"，根据活跃成员列表回答
-            """.formatted(memberList);
+            - 当前群内活跃成员: %s""".formatted(memberList);
+        if (triggerCount > 1) {
+            groupInfo += "\n[以上有 " + triggerCount + " 条消息在向你提问，请在一条回复中逐一回答]";
+        }
+        return groupInfo;
     }
 
     /**
@@ -248,99 +430,306 @@ public class AIService {
 
     /**
      * S4: Removed @Async — async entry point is in MessageEventListener
-     * S10: Added structured debug logging
+     * Triggers in one group are collected for the debounce window and then answered together by
+     * one reply, threaded to the latest of them. Triggers arriving while that reply still waits for
+     * its turn in {@link AiJobScheduler} join it too, so a burst of @AI costs one call. A batch
+     * rejected on overflow gets a busy reply instead.
      */
     public void processMessage(Message message) {
         if (!shouldTriggerAI(message)) {
             return;
         }
 
-        try {
-            UUID groupId = message.getGroup().getId();
-            List<Map<String, String>> context = buildContext(groupId, message);
-
-            // S10: 结构化调试日志
-            log.info("AI context: groupId={}, triggerMsgId={}, replyToId={}, contextSize={}, trigger='{}'",
-                groupId,
-                message.getId(),
-                message.getReplyTo() != null ? message.getReplyTo().getId() : "null",
-                context.size(),
-                message.getContent().length() > 100
-                    ? message.getContent().substring(0, 100) + "..."
-                    : message.getContent());
-
-            if (log.isDebugEnabled()) {
-                log.debug("Full AI context: {}", context);
+        UUID groupId = message.getGroup().getId();
+        synchronized (pendingTriggers) {
+            List<Message> pending = pendingTriggers.get(groupId);
+            if (pending != null) {
+                pending.add(message);
+                coalescedTriggers.increment();
+                return;
             }
+            pendingTriggers.put(groupId, new ArrayList<>(List.of(message)));
+        }
+
+        // The debounce timer and the group's job queue run the reply on other threads; the context
+        // query runs as the sender who opened the batch, so it keeps read-your-writes routing
+        SecurityContext senderContext = SecurityContextHolder.createEmptyContext();
+        senderContext.setAuthentication(SecurityContextHolder.getContext().getAuthentication());
+
+        // At most one job per group waits at a time: its batch stays open until the job takes it
+        Runnable submit = () -> jobScheduler.submit(groupId,
+            () -> withSecurityContext(senderContext, () -> reply(groupId, takeTriggers(groupId))),
+            () -> {
+                List<Message> triggers = takeTriggers(groupId);
+                sendBusyReply(groupId, triggers.get(triggers.size() - 1).getId());
+            });
+        if (debounceWindow.isZero()) {
+            submit.run();
+        } else {
+            Mono.delay(debounceWindow).subscribe(tick -> submit.run());
+        }
+    }
 
-            String aiResponse = callDeepSeekAPI(context);
+    private static <T> T withSecurityContext(SecurityContext context, Supplier<T> work) {
+        SecurityContext previous = SecurityContextHolder.getContext();
+        SecurityContextHolder.setContext(context);
+        try {
+            return work.get();
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
 
-            if (aiResponse != null && !aiResponse.isEmpty()) {
-                messageService.sendAIMessage(groupId, aiResponse, message.getId());
-            }
+    private List<Message> takeTriggers(UUID groupId) {
+        synchronized (pendingTriggers) {
+            return pendingTriggers.remove(groupId);
+        }
+    }
+
+    /**
+     * S10: Added structured debug logging
+     * The reply is streamed to the group through {@link AIReplyStream} and persisted once, complete.
+     * Only the context query runs on the subscribing thread; the call itself is non-blocking and the
+     * finished reply is persisted on the bounded-elastic scheduler. Completes after AI_STREAM_END is
+     * sent.
+     */
+    Mono<Void> reply(UUID groupId, List<Message> triggers) {
+        Message latest = triggers.get(triggers.size() - 1);
+        AIReplyStream stream = new AIReplyStream(groupId, latest.getId(), sessionManager, Schedulers.parallel(),
+            streamCoalesceMillis);
+
+        List<Map<String, String>> context;
+        try {
+            context = buildContext(groupId, triggers);
         } catch (Exception e) {
             log.error("Error processing AI message", e);
-            // Optionally send an error message to the group
-            try {
-                messageService.sendAIMessage(
-                    message.getGroup().getId(),
-                    "抱歉，我暂时无法回复，请稍后再试。",
-                    message.getId()
-                );
-            } catch (Exception ex) {
-                log.error("Failed to send error message", ex);
-            }
+            stream.complete(sendApology(groupId, latest.getId()));
+            return Mono.empty();
+        }
+
+        // S10: 结构化调试日志
+        log.info("AI context: groupId={}, triggerMsgId={}, triggers={}, replyToId={}, contextSize={}, trigger='{}'",
+            groupId,
+            latest.getId(),
+            triggers.size(),
+            latest.getReplyTo() != null ? latest.getReplyTo().getId() : "null",
+            context.size(),
+            latest.getContent().length() > 100
+                ? latest.getContent().substring(0, 100) + "..."
+                : latest.getContent());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Full AI context: {}", context);
+        }
+
+        return callModel(groupId, context, stream)
+            .map(aiResponse -> Optional.ofNullable(messageService.sendAIMessage(groupId, aiResponse, latest.getId())))
+            .defaultIfEmpty(Optional.empty())
+            .onErrorResume(e -> {
+                log.error("Error processing AI message", e);
+                return Mono.fromCallable(() -> Optional.ofNullable(sendApology(groupId, latest.getId())))
+                    .subscribeOn(Schedulers.boundedElastic());
+            })
+            // Clients drop a partial stream in favour of the persisted reply or apology
+            .doOnNext(message -> stream.complete(message.orElse(null)))
+            .then();
+    }
+
+    private MessageDto sendApology(UUID groupId, UUID replyToId) {
+        return sendFallback(groupId, "抱歉，我暂时无法回复，请稍后再试。", replyToId);
+    }
+
+    private void sendBusyReply(UUID groupId, UUID replyToId) {
+        sendFallback(groupId, "A宝正忙，请稍后再@我。", replyToId);
+    }
+
+    private MessageDto sendFallback(UUID groupId, String content, UUID replyToId) {
+        try {
+            return messageService.sendAIMessage(groupId, content, replyToId);
+        } catch (Exception ex) {
+            log.error("Failed to send error message", ex);
+            return null;
         }
     }
 
     /**
-     * S9: Call DeepSeek API using injected RestTemplate bean with timeout
+     * S9: Call the model through {@link AiProviderRouter}, over the injected AI WebClient
+     * Requests stream=true and passes each content delta of the server-sent events to
+     * {@code stream} as it arrives, on the bounded-elastic scheduler. Emits the full reply, or
+     * nothing when the model produced no content. Waits for a slot in {@link AiCallLimiter} first;
+     * the timeouts cover the first token, the gap between tokens, and the whole reply. Failed or slow
+     * attempts are retried or hedged by {@link AiResilience} and then moved to another provider;
+     * while every provider's circuit is open the call fails at once so the group gets the apology
+     * without waiting.
      */
-    private String callDeepSeekAPI(List<Map<String, String>> messages) {
-        if (apiKey == null || apiKey.isEmpty()) {
-            log.warn("DeepSeek API key not configured");
-            return "AI 服务未配置，请联系管理员。";
+    private Mono<String> callModel(UUID groupId, List<Map<String, String>> messages, AIReplyStream stream) {
+        if (!router.isConfigured()) {
+            log.warn("No AI provider configured");
+            return Mono.just("AI 服务未配置，请联系管理员。");
         }
 
-        try {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(apiKey);
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("model", model);
-            requestBody.put("messages", messages);
-            requestBody.put("max_tokens", maxTokens);
-            requestBody.put("temperature", temperature);
-
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
-            String apiUrl = baseUrl + "/v1/chat/completions";
-            ResponseEntity<String> response = restTemplate.exchange(
-                apiUrl,
-                HttpMethod.POST,
-                request,
-                String.class
-            );
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                JsonNode root = objectMapper.readTree(response.getBody());
-                JsonNode choices = root.get("choices");
-                if (choices != null && choices.isArray() && choices.size() > 0) {
-                    JsonNode firstChoice = choices.get(0);
-                    JsonNode messageNode = firstChoice.get("message");
-                    if (messageNode != null) {
-                        return messageNode.get("content").asText();
+        AtomicLong start = new AtomicLong();
+        Flux<String> deltas = router.route(promptTokens(messages), this::hedge,
+                provider -> timeFirstToken(completionDeltas(provider, "reply", messages, maxTokens)))
+            .doOnSubscribe(subscription -> start.set(System.nanoTime()));
+        return router.failFast(callLimiter.limit(groupId, deltas))
+            .publishOn(Schedulers.boundedElastic())
+            .doOnNext(stream::append)
+            .collect(StringBuilder::new, StringBuilder::append)
+            .timeout(totalTimeout)
+            .filter(reply -> !reply.isEmpty())
+            .map(reply -> {
+                completionTime.record(System.nanoTime() - start.get(), TimeUnit.NANOSECONDS);
+                return reply.toString();
+            })
+            .doOnError(e -> {
+                if (e instanceof AiCircuitBreaker.OpenException) {
+                    log.warn("Every AI provider's circuit is open, not calling: groupId={}", groupId);
+                } else {
+                    log.error("Error calling AI provider", e);
+                }
+            });
+    }
+
+    /**
+     * A completion for background work such as summaries: not streamed to anyone, but queued in
+     * {@link AiCallLimiter} as a background call, so it never takes the permit a group's reply waits
+     * for, and bounded by the same timeouts as replies. Emits nothing when the model produced no
+     * content or the API is not configured.
+     */
+    public Mono<String> complete(List<Map<String, String>> messages, int maxTokens) {
+        if (!router.isConfigured()) {
+            return Mono.empty();
+        }
+        Flux<String> deltas = router.route(promptTokens(messages), null,
+            provider -> completionDeltas(provider, "summary", messages, maxTokens));
+        return router.failFast(callLimiter.limitBackground(deltas))
+            .collect(StringBuilder::new, StringBuilder::append)
+            .timeout(totalTimeout)
+            .map(StringBuilder::toString)
+            .filter(text -> !text.isBlank());
+    }
+
+    /**
+     * Times each attempt from its own start, so retry backoff and the wait before a hedge are not
+     * counted; attempts cancelled before their first token, like a hedge's loser, leave no sample.
+     */
+    private Flux<String> timeFirstToken(Flux<String> attempt) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return attempt.doOnNext(delta -> {
+                if (first.compareAndSet(true, false)) {
+                    timeToFirstToken.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            });
+        });
+    }
+
+    private static int promptTokens(List<Map<String, String>> messages) {
+        return messages.stream().mapToInt(message -> TokenEstimator.estimateMessage(message.get("content"))).sum();
+    }
+
+    /**
+     * One attempt at a completion from {@code provider}, subscribed again for each retry or hedge.
+     */
+    private Flux<String> completionDeltas(AiProvider provider, String purpose, List<Map<String, String>> messages,
+                                          int maxTokens) {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("model", provider.model());
+        requestBody.put("messages", messages);
+        requestBody.put("max_tokens", provider.maxTokens(maxTokens));
+        requestBody.put("temperature", temperature);
+        requestBody.put("stream", true);
+        // Usage, including prompt cache hits, arrives in a final chunk with no choices
+        requestBody.put("stream_options", Map.of("include_usage", true));
+
+        WebClient client = provider.client() != null ? provider.client() : webClient;
+        return Flux.defer(() -> client.post()
+                .uri(provider.baseUrl() + "/v1/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .headers(headers -> {
+                    if (provider.apiKey() != null && !provider.apiKey().isBlank()) {
+                        headers.setBearerAuth(provider.apiKey());
                     }
+                })
+                .bodyValue(requestBody)
+                .retrieve()
+                .bodyToFlux(SSE_TYPE))
+            .mapNotNull(ServerSentEvent::data)
+            .takeWhile(data -> !data.equals("[DONE]"))
+            .map(this::parseChunk)
+            .doOnNext(chunk -> {
+                if (chunk.path("usage").isObject()) {
+                    recordUsage(chunk.path("usage"), provider.name(), purpose);
                 }
-            }
+            })
+            .map(chunk -> chunk.path("choices").path(0).path("delta").path("content").asText(""))
+            .filter(delta -> !delta.isEmpty())
+            .timeout(Mono.delay(firstTokenTimeout), delta -> Mono.delay(Duration.ofMillis(idleTimeoutMillis)));
+    }
 
-            log.warn("Unexpected API response: {}", response.getBody());
+    /**
+     * Start a second attempt once the first has waited longer than p95 of the provider's own time to
+     * first token, or never while hedging is off or too few of its attempts have been timed to know
+     * the p95.
+     */
+    private AiResilience.Hedge hedge(AiProvider provider) {
+        Duration p95 = hedgeEnabled ? provider.firstTokenP95(minHedgeSamples) : null;
+        if (p95 == null) {
             return null;
+        }
+        return new AiResilience.Hedge(p95.compareTo(minHedgeDelay) > 0 ? p95 : minHedgeDelay);
+    }
 
+    /**
+     * OpenAI-compatible chunk: content in choices[0].delta.content, absent on role and stop chunks.
+     */
+    private JsonNode parseChunk(String data) {
+        try {
+            return objectMapper.readTree(data);
         } catch (Exception e) {
-            log.error("Error calling DeepSeek API", e);
-            throw new RuntimeException("Failed to call AI API", e);
+            throw Exceptions.propagate(e);
         }
     }
+
+    /**
+     * DeepSeek reports prompt_cache_hit_tokens and prompt_cache_miss_tokens; OpenAI-style providers
+     * report prompt_tokens_details.cached_tokens instead.
+     */
+    private void recordUsage(JsonNode usage, String provider, String purpose) {
+        long hit;
+        long miss;
+        if (usage.has("prompt_cache_hit_tokens")) {
+            hit = usage.path("prompt_cache_hit_tokens").asLong();
+            miss = usage.path("prompt_cache_miss_tokens").asLong();
+        } else {
+            hit = usage.path("prompt_tokens_details").path("cached_tokens").asLong();
+            miss = usage.path("prompt_tokens").asLong() - hit;
+        }
+        long completion = usage.path("completion_tokens").asLong();
+
+        usageTokens(provider, purpose, "prompt_cache_hit").increment(hit);
+        usageTokens(provider, purpose, "prompt_cache_miss").increment(miss);
+        usageTokens(provider, purpose, "completion").increment(completion);
+        if (hit + miss > 0) {
+            DistributionSummary.builder("ai.usage.prompt_cache_hit_ratio")
+                .description("Share of each prompt served from the provider's prompt cache")
+                .tag("provider", provider)
+                .tag("purpose", purpose)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry)
+                .record((double) hit / (hit + miss));
+        }
+    }
+
+    private Counter usageTokens(String provider, String purpose, String type) {
+        return Counter.builder("ai.usage.tokens")
+            .description("Tokens billed by the provider, as reported in each response")
+            .tag("provider", provider)
+            .tag("purpose", purpose)
+            .tag("type", type)
+            .register(meterRegistry);
+    }
 }
@@ -0,0 +1,195 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps AI calls in flight, overall and per group, without holding a thread while a call waits:
+ * a call over the limit is queued and subscribed when a permit frees up. Waiting calls go in
+ * arrival order, except that one whose group is at its limit lets other groups' calls pass.
+ *
+ * Background calls, such as summaries, belong to no group: they count toward the overall cap and
+ * their own, smaller one, and a freed permit goes to a waiting group call first.
+ */
+@Component
+public class AiCallLimiter {
+
+    private static final class Waiter {
+        // Null for a background call
+        private final UUID groupId;
+        private final Sinks.One<Boolean> ready = Sinks.one();
+        // Set once by whichever comes first: the granted call starting, or its subscriber leaving
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Waiter(UUID groupId) {
+            this.groupId = groupId;
+        }
+    }
+
+    private final int maxInFlight;
+    private final int maxInFlightPerGroup;
+    private final int maxBackgroundInFlight;
+    private final int maxQueued;
+
+    // Guarded by this
+    private int inFlight;
+    private int backgroundInFlight;
+    private final Map<UUID, Integer> inFlightByGroup = new HashMap<>();
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+
+    public AiCallLimiter(@Value("${ai.client.max-in-flight:64}") int maxInFlight,
+                         @Value("${ai.client.max-in-flight-per-group:2}") int maxInFlightPerGroup,
+                         @Value("${ai.client.max-background-in-flight:4}") int maxBackgroundInFlight,
+                         @Value("${ai.client.max-queued:1000}") int maxQueued,
+                         MeterRegistry meterRegistry) {
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerGroup = maxInFlightPerGroup;
+        this.maxBackgroundInFlight = maxBackgroundInFlight;
+        this.maxQueued = maxQueued;
+        Gauge.builder("ai.calls.in_flight", this, AiCallLimiter::inFlight).register(meterRegistry);
+        Gauge.builder("ai.calls.queued", this, AiCallLimiter::queued).register(meterRegistry);
+    }
+
+    /**
+     * Subscribes to {@code call} once a permit for the group is free, and releases it when the
+     * call terminates or is cancelled. Fails with IllegalStateException when the queue is full.
+     */
+    public <T> Flux<T> limit(UUID groupId, Flux<T> call) {
+        return Flux.defer(() -> {
+            Waiter waiter;
+            synchronized (this) {
+                if (hasCapacity(groupId)) {
+                    acquire(groupId);
+                    return call.doFinally(signal -> release(groupId));
+                }
+                if (waiting.size() >= maxQueued) {
+                    return Flux.error(new IllegalStateException("AI call queue is full"));
+                }
+                waiter = new Waiter(groupId);
+                waiting.addLast(waiter);
+            }
+
+            return waiter.ready.asMono()
+                .doOnCancel(() -> abandon(waiter))
+                .flatMapMany(granted -> waiter.claimed.compareAndSet(false, true)
+                    ? call.doFinally(signal -> release(groupId))
+                    : Flux.<T>empty());
+        });
+    }
+
+    /**
+     * Subscribes to {@code call} only if a permit is free under the overall cap now and no call is
+     * queued for one, and releases it when the call terminates or is cancelled; otherwise completes
+     * empty. For extra attempts, such as hedges, that are worth making only on spare capacity. Such a
+     * call counts toward no group's limit: it races a call that already holds the group's permit.
+     */
+    public <T> Flux<T> tryLimit(Flux<T> call) {
+        return Flux.defer(() -> {
+            synchronized (this) {
+                if (!waiting.isEmpty() || inFlight >= maxInFlight) {
+                    return Flux.<T>empty();
+                }
+                inFlight++;
+            }
+            return call.doFinally(signal -> releaseSpare());
+        });
+    }
+
+    /**
+     * {@link #limit} for a call made on no group's behalf: it never waits for, or holds up, a
+     * group's permit.
+     */
+    public <T> Flux<T> limitBackground(Flux<T> call) {
+        return limit(null, call);
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return waiting.size();
+    }
+
+    private boolean hasCapacity(UUID groupId) {
+        if (inFlight >= maxInFlight) {
+            return false;
+        }
+        return groupId == null
+            ? backgroundInFlight < maxBackgroundInFlight
+            : inFlightByGroup.getOrDefault(groupId, 0) < maxInFlightPerGroup;
+    }
+
+    private void acquire(UUID groupId) {
+        inFlight++;
+        if (groupId == null) {
+            backgroundInFlight++;
+        } else {
+            inFlightByGroup.merge(groupId, 1, Integer::sum);
+        }
+    }
+
+    private void release(UUID groupId) {
+        List<Waiter> granted;
+        synchronized (this) {
+            if (groupId == null) {
+                backgroundInFlight--;
+            } else {
+                inFlightByGroup.computeIfPresent(groupId, (id, count) -> count > 1 ? count - 1 : null);
+            }
+            granted = returnPermit();
+        }
+        start(granted);
+    }
+
+    private void releaseSpare() {
+        List<Waiter> granted;
+        synchronized (this) {
+            granted = returnPermit();
+        }
+        start(granted);
+    }
+
+    // Guarded by this
+    private List<Waiter> returnPermit() {
+        inFlight--;
+        List<Waiter> granted = new ArrayList<>();
+        // Group calls first, then background calls with whatever is left
+        for (boolean background : new boolean[] {false, true}) {
+            Iterator<Waiter> it = waiting.iterator();
+            while (it.hasNext() && inFlight < maxInFlight) {
+                Waiter waiter = it.next();
+                if ((waiter.groupId == null) == background && hasCapacity(waiter.groupId)) {
+                    it.remove();
+                    acquire(waiter.groupId);
+                    granted.add(waiter);
+                }
+            }
+        }
+        return granted;
+    }
+
+    // Outside the lock: emitting starts the call on this thread
+    private static void start(List<Waiter> granted) {
+        granted.forEach(waiter -> waiter.ready.tryEmitValue(Boolean.TRUE));
+    }
+
+    private void abandon(Waiter waiter) {
+        synchronized (this) {
+            if (waiting.remove(waiter)) {
+                return;
+            }
+        }
+        // Granted but never started: hand the permit back
+        if (waiter.claimed.compareAndSet(false, true)) {
+            release(waiter.groupId);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * Stops calling an AI provider while it is failing; {@link AiProviderRouter} keeps one per
+ * provider. Outcomes of the last {@code window} calls are kept; once at least {@code min-calls} of
+ * them are in and the failure rate reaches the threshold the circuit opens, and calls fail at once
+ * with {@link OpenException} for {@code open-duration}.
+ * Then a few probe calls are let through (half-open): if they all succeed the circuit closes, and
+ * the first failure opens it again.
+ */
+@Slf4j
+public class AiCircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    public static class OpenException extends RuntimeException {
+        public OpenException() {
+            super("AI provider circuit is open");
+        }
+    }
+
+    private final String provider;
+    private final int minCalls;
+    private final int failureRatePercent;
+    private final long openNanos;
+    private final int halfOpenProbes;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    private final Counter rejected;
+
+    public AiCircuitBreaker(String provider, int window, int minCalls, int failureRatePercent,
+                            Duration openDuration, int halfOpenProbes, MeterRegistry meterRegistry) {
+        this.provider = provider;
+        this.outcomes = new boolean[window];
+        this.minCalls = minCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+        this.rejected = Counter.builder("ai.circuit.rejected")
+            .description("AI calls failed fast because the circuit was open")
+            .tag("provider", provider)
+            .register(meterRegistry);
+        Gauge.builder("ai.circuit.state", this, breaker -> breaker.state().ordinal())
+            .description("0 closed, 1 half-open, 2 open")
+            .tag("provider", provider)
+            .register(meterRegistry);
+    }
+
+    /**
+     * Subscribes to {@code call} if the circuit lets it through, and records its outcome: a call that
+     * emits or completes succeeded, one that errors with an exception {@code isFailure} accepts failed.
+     * Other errors and cancellations are not counted.
+     */
+    public <T> Flux<T> protect(Flux<T> call, Predicate<Throwable> isFailure) {
+        return Flux.defer(() -> {
+            if (!tryAcquire()) {
+                rejected.increment();
+                return Flux.error(new OpenException());
+            }
+            AtomicBoolean done = new AtomicBoolean();
+            return call
+                .doOnNext(value -> {
+                    if (done.compareAndSet(false, true)) {
+                        onSuccess();
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        onSuccess();
+                    }
+                })
+                .doOnError(e -> {
+                    if (done.compareAndSet(false, true)) {
+                        if (isFailure.test(e)) {
+                            onFailure();
+                        } else {
+                            onIgnored();
+                        }
+                    }
+                })
+                .doOnCancel(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        onIgnored();
+                    }
+                });
+        });
+    }
+
+    /**
+     * Whether calls are being refused right now, without taking a half-open probe slot
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    private synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+            if (++probeSuccesses >= halfOpenProbes) {
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    private synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minCalls && failures * 100 >= failureRatePercent * recorded) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    private synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(0, probesInFlight - 1);
+        }
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void transition(State to) {
+        log.warn("AI circuit {}: {} -> {} (failures {}/{})", provider, state, to, failures, recorded);
+        state = to;
+        switch (to) {
+            case OPEN -> openedAt = System.nanoTime();
+            case HALF_OPEN -> {
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            case CLOSED -> {
+                next = 0;
+                recorded = 0;
+                failures = 0;
+            }
+        }
+    }
+}
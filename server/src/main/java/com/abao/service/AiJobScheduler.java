@@ -0,0 +1,160 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs AI replies one at a time per group, in trigger order, and in parallel across groups. A job
+ * counts as running until its Mono terminates, so a streamed reply holds the group's turn until it
+ * is persisted. Waiting jobs are bounded per group and overall; on overflow the policy decides
+ * whether the new job or the group's oldest waiting job is rejected.
+ */
+@Slf4j
+@Component
+public class AiJobScheduler {
+
+    public enum OverflowPolicy {
+        REJECT_NEW,
+        // Keep the latest triggers: an old question is worth less than the one just asked
+        DROP_OLDEST
+    }
+
+    private record Job(UUID groupId, Supplier<Mono<Void>> work, Runnable onRejected, long submittedAt) {}
+
+    private final Executor executor;
+    private final Scheduler scheduler;
+    private final int maxQueued;
+    private final int maxQueuedPerGroup;
+    private final OverflowPolicy overflowPolicy;
+    private final Duration maxRunTime;
+
+    // Guarded by this: groups with a job running, each with its waiting jobs in order
+    private final Map<UUID, Deque<Job>> running = new HashMap<>();
+    private int queued;
+
+    private final Timer queueWait;
+    private final Timer runTime;
+    private final Counter rejected;
+
+    public AiJobScheduler(@Qualifier("aiJobExecutor") Executor executor,
+                          @Value("${ai.jobs.max-queued:500}") int maxQueued,
+                          @Value("${ai.jobs.max-queued-per-group:5}") int maxQueuedPerGroup,
+                          @Value("${ai.jobs.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                          @Value("${ai.jobs.max-run-time:180s}") Duration maxRunTime,
+                          MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.scheduler = Schedulers.fromExecutor(executor);
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerGroup = maxQueuedPerGroup;
+        this.overflowPolicy = overflowPolicy;
+        this.maxRunTime = maxRunTime;
+        this.queueWait = Timer.builder("ai.jobs.queue_wait")
+            .description("From trigger to the start of its reply")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.runTime = Timer.builder("ai.jobs.run_time")
+            .description("From the start of a reply until it is persisted or fails")
+            .publishPercentiles(0.5, 0.95, 0.99)
+            .register(meterRegistry);
+        this.rejected = Counter.builder("ai.jobs.rejected").register(meterRegistry);
+        Gauge.builder("ai.jobs.queued", this, AiJobScheduler::queued).register(meterRegistry);
+        Gauge.builder("ai.jobs.running", this, AiJobScheduler::running).register(meterRegistry);
+    }
+
+    /**
+     * @param work       builds the reply; invoked on the AI job executor when the group's turn comes
+     * @param onRejected runs on the executor if the job is rejected or dropped on overflow
+     */
+    public void submit(UUID groupId, Supplier<Mono<Void>> work, Runnable onRejected) {
+        Job job = new Job(groupId, work, onRejected, System.nanoTime());
+        Job overflow = null;
+        boolean start = false;
+
+        synchronized (this) {
+            Deque<Job> waiting = running.get(groupId);
+            if (waiting == null) {
+                running.put(groupId, new ArrayDeque<>());
+                start = true;
+            } else if (waiting.size() < maxQueuedPerGroup && queued < maxQueued) {
+                waiting.addLast(job);
+                queued++;
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST && !waiting.isEmpty()) {
+                overflow = waiting.pollFirst();
+                waiting.addLast(job);
+            } else {
+                overflow = job;
+            }
+        }
+
+        if (overflow != null) {
+            reject(overflow);
+        }
+        if (start) {
+            run(job);
+        }
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    public synchronized int running() {
+        return running.size();
+    }
+
+    private void run(Job job) {
+        long started = System.nanoTime();
+        queueWait.record(started - job.submittedAt(), TimeUnit.NANOSECONDS);
+
+        Mono.defer(job.work())
+            .subscribeOn(scheduler)
+            // Backstop: a reply that never terminates must not stall its group forever
+            .timeout(maxRunTime)
+            .doFinally(signal -> {
+                runTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                next(job.groupId());
+            })
+            .subscribe(null, e -> log.error("AI job failed: groupId={}", job.groupId(), e));
+    }
+
+    private void next(UUID groupId) {
+        Job next;
+        synchronized (this) {
+            Deque<Job> waiting = running.get(groupId);
+            next = waiting.pollFirst();
+            if (next == null) {
+                running.remove(groupId);
+            } else {
+                queued--;
+            }
+        }
+        if (next != null) {
+            run(next);
+        }
+    }
+
+    private void reject(Job job) {
+        rejected.increment();
+        log.warn("AI job rejected: groupId={}, policy={}", job.groupId(), overflowPolicy);
+        executor.execute(job.onRejected());
+    }
+}
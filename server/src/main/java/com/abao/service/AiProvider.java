@@ -0,0 +1,185 @@
+package com.abao.service;
+
+import com.abao.config.AiProviderProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One OpenAI-compatible backend: where and how to call it, its circuit breaker, and a rolling view of
+ * how it has been doing. Time to first token and error rate are exponentially weighted moving
+ * averages over its recent attempts, which {@link AiProviderRouter} ranks providers by.
+ */
+public class AiProvider {
+
+    private final AiProviderProperties.Provider config;
+    private final AiCircuitBreaker circuitBreaker;
+    private final WebClient client;
+    private final double decay;
+    private final Timer timeToFirstToken;
+
+    // Guarded by this
+    private double latencyMillis;
+    private double errorRate;
+    private int inFlight;
+
+    AiProvider(AiProviderProperties.Provider config, AiCircuitBreaker circuitBreaker, WebClient client,
+               double decay, double initialLatencyMillis, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.circuitBreaker = circuitBreaker;
+        this.client = client;
+        this.decay = decay;
+        this.latencyMillis = initialLatencyMillis;
+        Gauge.builder("ai.provider.latency", this, AiProvider::latencyMillis)
+            .description("Rolling average time to first token")
+            .tag("provider", config.getName())
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+        Gauge.builder("ai.provider.error_rate", this, AiProvider::errorRate)
+            .description("Rolling share of attempts that failed")
+            .tag("provider", config.getName())
+            .register(meterRegistry);
+        Gauge.builder("ai.provider.in_flight", this, AiProvider::inFlight)
+            .tag("provider", config.getName())
+            .register(meterRegistry);
+        this.timeToFirstToken = Timer.builder("ai.provider.time_to_first_token")
+            .description("From the start of an attempt to its first token")
+            .tag("provider", config.getName())
+            .publishPercentiles(0.95)
+            .register(meterRegistry);
+    }
+
+    public String name() {
+        return config.getName();
+    }
+
+    public String baseUrl() {
+        // Mock providers need no address; requests never leave the process
+        return config.getBaseUrl() != null ? config.getBaseUrl() : "http://localhost";
+    }
+
+    public String apiKey() {
+        return config.getApiKey();
+    }
+
+    public String model() {
+        return config.getModel() != null ? config.getModel() : "mock";
+    }
+
+    /**
+     * The client for this provider's mock server, or null to use the shared HTTP client
+     */
+    public WebClient client() {
+        return client;
+    }
+
+    public AiCircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * The completion size to request: the caller's, capped by this provider's max-tokens
+     */
+    public int maxTokens(int requested) {
+        return config.getMaxTokens() > 0 ? Math.min(requested, config.getMaxTokens()) : requested;
+    }
+
+    /**
+     * The prompt size to build for this provider: the caller's, capped by its max-prompt-tokens
+     */
+    public int maxPromptTokens(int requested) {
+        return config.getMaxPromptTokens() > 0 ? Math.min(requested, config.getMaxPromptTokens()) : requested;
+    }
+
+    public boolean fits(int promptTokens) {
+        return config.getMaxPromptTokens() <= 0 || promptTokens <= config.getMaxPromptTokens();
+    }
+
+    public synchronized boolean isSaturated() {
+        return config.getMaxInFlight() > 0 && inFlight >= config.getMaxInFlight();
+    }
+
+    /**
+     * Higher is better: the configured weight over the square of latency stretched by the error
+     * rate, so a provider twice as slow gets about a quarter of the traffic.
+     */
+    public synchronized double score(double errorPenalty) {
+        double cost = Math.max(1, latencyMillis) * (1 + errorPenalty * errorRate);
+        return config.getWeight() / (cost * cost);
+    }
+
+    public synchronized double latencyMillis() {
+        return latencyMillis;
+    }
+
+    public synchronized double errorRate() {
+        return errorRate;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * p95 of this provider's recent times to first token, or null until {@code minSamples} attempts
+     * have produced one
+     */
+    public Duration firstTokenP95(long minSamples) {
+        if (timeToFirstToken.count() < minSamples) {
+            return null;
+        }
+        for (ValueAtPercentile percentile : timeToFirstToken.takeSnapshot().percentileValues()) {
+            if (percentile.percentile() == 0.95) {
+                return Duration.ofNanos((long) percentile.value(TimeUnit.NANOSECONDS));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Feeds the outcome of one attempt into the rolling averages: its time to first token, and
+     * whether it failed the way {@link AiResilience#isProviderFailure} counts. Cancelled attempts,
+     * such as the loser of a hedge, leave no sample.
+     */
+    <T> Flux<T> track(Flux<T> attempt) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean done = new AtomicBoolean();
+            synchronized (this) {
+                inFlight++;
+            }
+            return attempt
+                .doOnNext(value -> {
+                    if (done.compareAndSet(false, true)) {
+                        long elapsed = System.nanoTime() - start;
+                        timeToFirstToken.record(elapsed, TimeUnit.NANOSECONDS);
+                        sample(elapsed / 1_000_000.0, false);
+                    }
+                })
+                .doOnError(e -> {
+                    if (done.compareAndSet(false, true) && AiResilience.isProviderFailure(e)) {
+                        sample(-1, true);
+                    }
+                })
+                .doFinally(signal -> {
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                });
+        });
+    }
+
+    private synchronized void sample(double latency, boolean failed) {
+        if (latency >= 0) {
+            latencyMillis += decay * (latency - latencyMillis);
+        }
+        errorRate += decay * ((failed ? 1 : 0) - errorRate);
+    }
+}
@@ -0,0 +1,187 @@
+package com.abao.service;
+
+import com.abao.config.AiProviderProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Spreads AI calls over the configured providers. Each call draws an order of providers at random,
+ * weighted by {@link AiProvider#score}, so traffic leans toward the fastest healthy provider while
+ * the others still see enough calls to notice when they recover. Providers whose circuit is open
+ * or whose max-prompt-tokens the prompt exceeds are left out, and so are those at their
+ * max-in-flight while any other is below it. An attempt that fails before producing a token, after
+ * its own retries, fails over to the next provider. Callers size prompts with {@link #promptBudget}
+ * so that every healthy provider takes them; a prompt none takes is not sent.
+ *
+ * A provider's max-in-flight only steers calls elsewhere: when every eligible provider is at its
+ * limit, the call still goes to one of them. The hard cap on calls is ai.client.max-in-flight.
+ */
+@Slf4j
+@Component
+public class AiProviderRouter {
+
+    private final AiResilience resilience;
+    private final double errorPenalty;
+    private final List<AiProvider> providers = new ArrayList<>();
+    private final Counter failovers;
+
+    public AiProviderRouter(AiProviderProperties properties,
+                            AiResilience resilience,
+                            ObjectMapper objectMapper,
+                            @Value("${ai.deepseek.api-key:}") String deepSeekApiKey,
+                            @Value("${ai.deepseek.base-url:https://api.deepseek.com}") String deepSeekBaseUrl,
+                            @Value("${ai.deepseek.model:deepseek-chat}") String deepSeekModel,
+                            @Value("${ai.resilience.circuit.window:20}") int circuitWindow,
+                            @Value("${ai.resilience.circuit.min-calls:10}") int circuitMinCalls,
+                            @Value("${ai.resilience.circuit.failure-rate-percent:50}") int circuitFailureRatePercent,
+                            @Value("${ai.resilience.circuit.open-duration:30s}") Duration circuitOpenDuration,
+                            @Value("${ai.resilience.circuit.half-open-probes:3}") int circuitHalfOpenProbes,
+                            MeterRegistry meterRegistry) {
+        this.resilience = resilience;
+        this.errorPenalty = properties.getRouting().getErrorPenalty();
+        this.failovers = Counter.builder("ai.provider.failovers")
+            .description("Calls moved to another provider after one failed")
+            .register(meterRegistry);
+
+        List<AiProviderProperties.Provider> configured = new ArrayList<>(properties.getProviders());
+        if (configured.isEmpty() && deepSeekApiKey != null && !deepSeekApiKey.isBlank()) {
+            AiProviderProperties.Provider deepSeek = new AiProviderProperties.Provider();
+            deepSeek.setName("deepseek");
+            deepSeek.setApiKey(deepSeekApiKey);
+            deepSeek.setBaseUrl(deepSeekBaseUrl);
+            deepSeek.setModel(deepSeekModel);
+            configured.add(deepSeek);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (AiProviderProperties.Provider config : configured) {
+            if (config.getName() == null || !names.add(config.getName())) {
+                throw new IllegalStateException("Each AI provider needs a distinct name: " + config.getName());
+            }
+            if (!config.isMock() && (config.getBaseUrl() == null || config.getModel() == null)) {
+                throw new IllegalStateException("AI provider " + config.getName() + " needs base-url and model");
+            }
+            AiCircuitBreaker breaker = new AiCircuitBreaker(config.getName(), circuitWindow, circuitMinCalls,
+                circuitFailureRatePercent, circuitOpenDuration, circuitHalfOpenProbes, meterRegistry);
+            WebClient client = config.isMock()
+                ? WebClient.builder().exchangeFunction(new MockAiExchange(config, objectMapper)).build()
+                : null;
+            providers.add(new AiProvider(config, breaker, client, properties.getRouting().getDecay(),
+                properties.getRouting().getInitialLatency().toMillis(), meterRegistry));
+        }
+        log.info("AI providers: {}", providers.stream().map(AiProvider::name).toList());
+    }
+
+    public boolean isConfigured() {
+        return !providers.isEmpty();
+    }
+
+    public List<AiProvider> providers() {
+        return providers;
+    }
+
+    /**
+     * Fails at once while every provider's circuit is open, before {@code call} queues for a permit.
+     */
+    public <T> Flux<T> failFast(Flux<T> call) {
+        return Flux.defer(() -> providers.stream().allMatch(provider -> provider.circuitBreaker().isOpen())
+            ? Flux.error(new AiCircuitBreaker.OpenException())
+            : call);
+    }
+
+    /**
+     * The prompt size to build: {@code maxPromptTokens} capped by the smallest max-prompt-tokens
+     * among healthy providers, so failover never lands on one the prompt is too large for.
+     */
+    public int promptBudget(int maxPromptTokens) {
+        int budget = maxPromptTokens;
+        for (AiProvider provider : providers) {
+            if (!provider.circuitBreaker().isOpen()) {
+                budget = provider.maxPromptTokens(budget);
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * @param promptTokens estimated size of the prompt, to skip providers that cannot take it
+     * @param hedge        the hedge to pass to {@link AiResilience#call} for a given provider, or null
+     *                     for none
+     * @param attempt      one call to the given provider
+     */
+    public <T> Flux<T> route(int promptTokens, Function<AiProvider, AiResilience.Hedge> hedge,
+                             Function<AiProvider, Flux<T>> attempt) {
+        return Flux.defer(() -> {
+            List<AiProvider> candidates = candidates(promptTokens);
+            if (candidates.isEmpty()) {
+                return Flux.error(providers.stream().allMatch(provider -> provider.circuitBreaker().isOpen())
+                    ? new AiCircuitBreaker.OpenException()
+                    : new IllegalStateException("No healthy AI provider takes a prompt of " + promptTokens + " tokens"));
+            }
+            return attempt(candidates, 0, hedge, attempt);
+        });
+    }
+
+    /**
+     * Healthy providers in the order to try them. Sorting by u^(1/score) for uniform random u is a
+     * weighted draw without replacement: each position goes to a provider with probability
+     * proportional to its score among those not yet placed. Scores are tiny, so the key is taken as
+     * log(u) / score, which sorts the same.
+     */
+    List<AiProvider> candidates(int promptTokens) {
+        List<AiProvider> fit = providers.stream()
+            .filter(provider -> !provider.circuitBreaker().isOpen() && provider.fits(promptTokens))
+            .toList();
+        List<AiProvider> unsaturated = fit.stream().filter(provider -> !provider.isSaturated()).toList();
+        List<AiProvider> eligible = unsaturated.isEmpty() ? fit : unsaturated;
+
+        Map<AiProvider, Double> keys = new HashMap<>();
+        for (AiProvider provider : eligible) {
+            double score = provider.score(errorPenalty);
+            keys.put(provider, score > 0
+                ? Math.log(ThreadLocalRandom.current().nextDouble()) / score
+                : Double.NEGATIVE_INFINITY);
+        }
+        return eligible.stream()
+            .sorted(Comparator.comparing(keys::get, Comparator.reverseOrder()))
+            .toList();
+    }
+
+    private <T> Flux<T> attempt(List<AiProvider> candidates, int index,
+                                Function<AiProvider, AiResilience.Hedge> hedge,
+                                Function<AiProvider, Flux<T>> attempt) {
+        AiProvider provider = candidates.get(index);
+        AtomicBoolean emitted = new AtomicBoolean();
+        return resilience.call(provider.circuitBreaker(), provider.track(attempt.apply(provider)),
+                hedge != null ? hedge.apply(provider) : null)
+            .doOnNext(value -> emitted.set(true))
+            .onErrorResume(e -> !emitted.get() && index + 1 < candidates.size() && canFailOver(e), e -> {
+                failovers.increment();
+                log.warn("AI provider {} failed, trying {}: {}", provider.name(),
+                    candidates.get(index + 1).name(), e.toString());
+                return attempt(candidates, index + 1, hedge, attempt);
+            });
+    }
+
+    private static boolean canFailOver(Throwable e) {
+        return e instanceof AiCircuitBreaker.OpenException || AiResilience.isProviderFailure(e);
+    }
+}
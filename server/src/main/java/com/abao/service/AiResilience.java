@@ -0,0 +1,129 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries, hedging and the circuit breaker around one streamed call to a provider. Every attempt goes
+ * through the provider's {@link AiCircuitBreaker}. A retryable failure (429, 5xx, connection error)
+ * is retried after a decorrelated-jitter backoff, and an attempt that has not produced a token after the hedge delay is
+ * raced by a second one; the first to produce a token wins and the other is cancelled. Neither
+ * happens once a token has been emitted, as the tokens are already on their way to the group.
+ * A hedge takes its own {@link AiCallLimiter} permit, and is skipped when none is free.
+ */
+@Component
+public class AiResilience {
+
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    /**
+     * @param after how long the first attempt may go without a token before a second is started, on
+     *              a spare {@link AiCallLimiter} permit
+     */
+    public record Hedge(Duration after) {}
+
+    private final AiCallLimiter callLimiter;
+
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Counter retries;
+    private final Counter hedges;
+
+    public AiResilience(@Value("${ai.resilience.retry.max-retries:2}") int maxRetries,
+                        @Value("${ai.resilience.retry.base-backoff:200ms}") Duration baseBackoff,
+                        @Value("${ai.resilience.retry.max-backoff:2s}") Duration maxBackoff,
+                        AiCallLimiter callLimiter,
+                        MeterRegistry meterRegistry) {
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.callLimiter = callLimiter;
+        this.retries = Counter.builder("ai.calls.retries").register(meterRegistry);
+        this.hedges = Counter.builder("ai.calls.hedged")
+            .description("Second attempts started because the first was slow to produce a token")
+            .register(meterRegistry);
+    }
+
+    /**
+     * @param attempt one call to the provider; subscribed again for each retry and hedge
+     * @param hedge   when to start a hedging attempt, or null for none
+     */
+    public <T> Flux<T> call(AiCircuitBreaker circuitBreaker, Flux<T> attempt, Hedge hedge) {
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            Flux<T> protectedAttempt = circuitBreaker.protect(attempt, AiResilience::isProviderFailure);
+            // A hedge without a permit completes empty, which leaves the race to the first attempt
+            Flux<T> raced = hedge == null
+                ? protectedAttempt
+                : Flux.firstWithValue(protectedAttempt,
+                        Mono.delay(hedge.after()).thenMany(callLimiter.tryLimit(
+                            protectedAttempt.doOnSubscribe(subscription -> hedges.increment()))))
+                    .onErrorMap(AiResilience::unwrapRace);
+            return raced
+                .doOnNext(value -> emitted.set(true))
+                .retryWhen(decorrelatedJitter(emitted));
+        });
+    }
+
+    static boolean isRetryable(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            return RETRYABLE_STATUSES.contains(response.getStatusCode().value());
+        }
+        return e instanceof WebClientRequestException;
+    }
+
+    /**
+     * Failures that say the provider is unhealthy; a request it rejects as invalid does not count.
+     */
+    static boolean isProviderFailure(Throwable e) {
+        return isRetryable(e) || e instanceof TimeoutException;
+    }
+
+    /**
+     * sleep = min(max, random(base, previous sleep * 3)), which spreads retries of concurrent calls
+     * apart better than exponential backoff with full jitter.
+     */
+    private Retry decorrelatedJitter(AtomicBoolean emitted) {
+        return Retry.from(signals -> {
+            AtomicLong sleep = new AtomicLong(baseBackoffMillis);
+            return signals.concatMap(signal -> {
+                Throwable failure = signal.failure();
+                if (signal.totalRetries() >= maxRetries || emitted.get() || !isRetryable(failure)) {
+                    return Mono.error(failure);
+                }
+                long upper = Math.max(baseBackoffMillis + 1, sleep.get() * 3);
+                long delay = Math.min(maxBackoffMillis, ThreadLocalRandom.current().nextLong(baseBackoffMillis, upper));
+                sleep.set(delay);
+                retries.increment();
+                return Mono.delay(Duration.ofMillis(delay));
+            });
+        });
+    }
+
+    /**
+     * When both raced attempts fail, report the first one's error rather than the race's own.
+     */
+    private static Throwable unwrapRace(Throwable e) {
+        if (e instanceof NoSuchElementException && e.getSuppressed().length > 0) {
+            return e.getSuppressed()[0];
+        }
+        return e;
+    }
+}
@@ -1,14 +1,18 @@
 package com.abao.service;
 
+import com.abao.config.CacheConfig;
 import com.abao.dto.UserDto;
 import com.abao.dto.auth.*;
 import com.abao.entity.RefreshToken;
 import com.abao.entity.User;
+import com.abao.event.UserProfileChangedEvent;
 import com.abao.repository.RefreshTokenRepository;
 import com.abao.repository.UserRepository;
 import com.abao.security.JwtTokenProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -27,6 +31,7 @@ public class AuthService {
     private final PasswordEncoder passwordEncoder;
     private final JwtTokenProvider jwtTokenProvider;
     private final EmailService emailService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Transactional
     public RegisterResponse register(RegisterRequest request) {
@@ -76,6 +81,7 @@ public class AuthService {
         user.setVerificationToken(null);
         user.setVerificationTokenExpiresAt(null);
         userRepository.save(user);
+        eventPublisher.publishEvent(new UserProfileChangedEvent(this, user.getId()));
     }
 
     @Transactional
@@ -143,6 +149,7 @@ public class AuthService {
         refreshTokenRepository.deleteByUserId(userId);
     }
 
+    @Cacheable(cacheNames = CacheConfig.USER_PROFILES, key = "#user.id")
     public UserDto getCurrentUser(User user) {
         return UserDto.fromEntity(user);
     }
@@ -0,0 +1,53 @@
+package com.abao.service;
+
+import com.abao.dto.UserDto;
+import com.abao.dto.bootstrap.BootstrapDto;
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.message.MessageDto;
+import com.abao.entity.User;
+import com.abao.repository.MessageRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Assembles the app start-up snapshot. The query count is fixed: the group list with its
+ * batched counts and previews, one windowed query for the recent messages of every group,
+ * and batched sender loads.
+ */
+@Service
+@RequiredArgsConstructor
+public class BootstrapService {
+
+    static final int MAX_RECENT_LIMIT = 50;
+
+    private final GroupService groupService;
+    private final MessageRepository messageRepository;
+
+    /**
+     * @param recentLimit messages per group, clamped to 0..50
+     */
+    @Transactional(readOnly = true)
+    public BootstrapDto bootstrap(User user, int recentLimit) {
+        int limit = Math.max(0, Math.min(recentLimit, MAX_RECENT_LIMIT));
+        List<GroupDto> groups = groupService.getUserGroups(user);
+
+        Map<UUID, List<MessageDto>> recentMessages = new LinkedHashMap<>();
+        groups.forEach(group -> recentMessages.put(group.getId(), List.of()));
+        if (!groups.isEmpty() && limit > 0) {
+            List<UUID> groupIds = groups.stream().map(GroupDto::getId).toList();
+            recentMessages.putAll(messageRepository.findRecentByGroupIds(groupIds, limit).stream()
+                .map(MessageDto::fromEntity)
+                .collect(Collectors.groupingBy(MessageDto::getGroupId)));
+        }
+
+        return new BootstrapDto(UserDto.fromEntity(user), groups, recentMessages, LocalDateTime.now());
+    }
+}
@@ -0,0 +1,284 @@
+package com.abao.service;
+
+import com.abao.entity.ConversationSummary;
+import com.abao.entity.Message;
+import com.abao.entity.MessageType;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * The recent conversation of each group the AI has answered in, held as prompt-ready entries:
+ * sender names sanitized and each message rendered to its role/content turn and token estimate
+ * once, when it is appended. A group is loaded from the database on its first trigger and then
+ * kept current by MessageSentEvent, so later triggers build their context without reading messages.
+ * Each trigger still compares the newest seq held with the group's newest message: messages sent
+ * through another node, or committed while the group was being loaded, never reach this node's
+ * listener, and on a mismatch the window is read again and merged in. The
+ * last AI replies are kept beyond the window too, for follow-ups that quote an older reply, and so
+ * is the group's latest conversation summary.
+ */
+@Slf4j
+@Component
+public class ConversationContextStore {
+
+    /**
+     * @param speaker        sanitized sender name for the active member list, null for AI and system
+     * @param turn           the prompt message, null for messages the AI does not see
+     * @param tokens         estimated prompt tokens of the turn
+     * @param replyToAiId    the quoted AI reply, when this message quotes one
+     * @param replyToContent the quoted reply's full text, when it was in memory as this was appended
+     */
+    public record Entry(UUID id, Long seq, LocalDateTime createdAt, MessageType type, String speaker,
+                        Map<String, String> turn, int tokens, UUID replyToAiId, String replyToContent) {}
+
+    /**
+     * The group's conversation condensed up to and including message seq {@code throughSeq}
+     */
+    public record Summary(long throughSeq, String content) {}
+
+    @FunctionalInterface
+    public interface Loader {
+        List<Message> load(UUID groupId, LocalDateTime since, int limit);
+    }
+
+    private static final int AI_REPLIES_PER_GROUP = 64;
+
+    private final Cache<UUID, GroupContext> groups;
+    private final Counter loads;
+
+    public ConversationContextStore(@Value("${ai.context.max-groups:2000}") int maxGroups,
+                                    @Value("${ai.context.idle-expiry:2h}") Duration idleExpiry,
+                                    MeterRegistry meterRegistry) {
+        this.groups = Caffeine.newBuilder()
+            .maximumSize(maxGroups)
+            .expireAfterAccess(idleExpiry)
+            .build();
+        this.loads = Counter.builder("ai.context.loads")
+            .description("Groups whose context had to be read from the database")
+            .register(meterRegistry);
+        Gauge.builder("ai.context.groups", groups, cache -> cache.estimatedSize()).register(meterRegistry);
+    }
+
+    /**
+     * The group's messages since {@code since}, at most {@code limit} plus any of {@code triggers}
+     * not among them, oldest first.
+     *
+     * @param latestSeq seq of the group's newest committed message
+     */
+    public List<Entry> window(UUID groupId, long latestSeq, LocalDateTime since, int limit, Loader loader,
+                              List<Message> triggers) {
+        GroupContext context = groups.get(groupId, id -> new GroupContext(limit));
+        if (context.needsLoad(latestSeq)) {
+            loads.increment();
+            List<Message> loaded = loader.load(groupId, since, limit);
+            loaded.forEach(message -> context.add(entry(message), limit));
+            context.markLoaded();
+            log.debug("Loaded AI context: groupId={}, messages={}, latestSeq={}", groupId, loaded.size(), latestSeq);
+        }
+        return context.window(since, limit, triggers);
+    }
+
+    /**
+     * Adds a committed message to its group, if the group is held; otherwise it is read with the rest
+     * when the group is next loaded.
+     */
+    public void append(Message message) {
+        Entry entry = entry(message);
+        groups.asMap().computeIfPresent(message.getGroup().getId(), (id, context) -> {
+            context.add(entry, context.limit);
+            return context;
+        });
+    }
+
+    public boolean holds(UUID groupId) {
+        return groups.getIfPresent(groupId) != null;
+    }
+
+    /**
+     * The group's latest summary, read through {@code loader} the first time it is asked for; null
+     * when there is none yet or the group is not held.
+     */
+    public Summary summary(UUID groupId, Function<UUID, Optional<ConversationSummary>> loader) {
+        GroupContext context = groups.getIfPresent(groupId);
+        return context != null ? context.summary(groupId, loader) : null;
+    }
+
+    public void updateSummary(UUID groupId, Summary summary) {
+        GroupContext context = groups.getIfPresent(groupId);
+        if (context != null) {
+            context.updateSummary(summary);
+        }
+    }
+
+    /**
+     * The full text of one of the group's recent AI replies, or null when it is no longer held.
+     */
+    public String aiReply(UUID groupId, UUID messageId) {
+        GroupContext context = groups.getIfPresent(groupId);
+        return context != null ? context.aiReply(messageId) : null;
+    }
+
+    static Entry entry(Message message) {
+        String speaker = null;
+        Map<String, String> turn = null;
+        String content = message.getContent();
+
+        switch (message.getMessageType()) {
+            case AI -> turn = Map.of("role", "assistant", "content", content);
+            case USER -> {
+                String nickname = message.getSender() != null ? message.getSender().getNickname() : null;
+                if (nickname != null && !nickname.isEmpty()) {
+                    // Sanitize: truncate and strip newlines to prevent prompt injection
+                    String safeName = nickname.replaceAll("[\\r\\n]", "");
+                    speaker = safeName.length() > 20 ? safeName.substring(0, 20) : safeName;
+                }
+                String displayName = nickname != null ? nickname : "Unknown";
+
+                // S5+S11: 标注引用关系，追问内容用 [追问] 标记分离
+                if (message.getReplyToType() == MessageType.AI) {
+                    content = displayName + " [回复A宝: \"" + message.getReplyToPreview() + "\"] [追问]: "
+                            + AIService.markMention(content);
+                } else {
+                    content = displayName + ": " + AIService.markMention(content);
+                }
+                turn = Map.of("role", "user", "content", content);
+            }
+            default -> {
+                // System messages are not shown to the AI
+            }
+        }
+
+        UUID replyToAiId = null;
+        String replyToContent = null;
+        if (message.getReplyToType() == MessageType.AI && message.getReplyTo() != null) {
+            Message parent = message.getReplyTo();
+            replyToAiId = parent.getId();
+            // Only a parent already in memory; a lazy one is fetched if a prompt ever needs it
+            if (Hibernate.isInitialized(parent)) {
+                replyToContent = parent.getContent();
+            }
+        }
+
+        return new Entry(message.getId(), message.getSeq(), message.getCreatedAt(), message.getMessageType(),
+            speaker, turn, turn != null ? TokenEstimator.estimateMessage(turn.get("content")) : 0,
+            replyToAiId, replyToContent);
+    }
+
+    private static final class GroupContext {
+
+        // Oldest first; appends arrive from concurrent listeners, so nearly but not always in order
+        private final List<Entry> entries = new ArrayList<>();
+        private final Map<UUID, String> aiReplies = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+                return size() > AI_REPLIES_PER_GROUP;
+            }
+        };
+        private int limit;
+        // Appends can land before the first load finishes, so holding a seq does not mean holding its predecessors
+        private boolean loaded;
+        private long latestSeq;
+        private Summary summary;
+        private boolean summaryLoaded;
+
+        GroupContext(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized boolean needsLoad(long latestCommittedSeq) {
+            return !loaded || latestSeq < latestCommittedSeq;
+        }
+
+        synchronized void markLoaded() {
+            loaded = true;
+        }
+
+        synchronized void add(Entry entry, int limit) {
+            this.limit = limit;
+            if (entry.seq() != null) {
+                latestSeq = Math.max(latestSeq, entry.seq());
+            }
+            if (entry.type() == MessageType.AI) {
+                aiReplies.put(entry.id(), entry.turn().get("content"));
+            }
+            for (Entry held : entries) {
+                if (held.id().equals(entry.id())) {
+                    return;
+                }
+            }
+            int position = entries.size();
+            while (position > 0 && !precedes(entries.get(position - 1), entry)) {
+                position--;
+            }
+            entries.add(position, entry);
+            if (entries.size() > limit) {
+                entries.remove(0);
+            }
+        }
+
+        synchronized List<Entry> window(LocalDateTime since, int limit, List<Message> triggers) {
+            this.limit = limit;
+            entries.removeIf(entry -> entry.createdAt() != null && entry.createdAt().isBefore(since));
+            while (entries.size() > limit) {
+                entries.remove(0);
+            }
+
+            // S2: triggerMessage 兜底校验 — 确保每条 trigger 都在 context 中
+            List<Entry> window = new ArrayList<>(entries);
+            for (Message trigger : triggers) {
+                if (window.stream().noneMatch(entry -> entry.id().equals(trigger.getId()))) {
+                    window.add(entry(trigger));
+                }
+            }
+            return window;
+        }
+
+        synchronized Summary summary(UUID groupId, Function<UUID, Optional<ConversationSummary>> loader) {
+            if (!summaryLoaded) {
+                summary = loader.apply(groupId)
+                    .map(stored -> new Summary(stored.getThroughSeq(), stored.getContent()))
+                    .orElse(null);
+                summaryLoaded = true;
+            }
+            return summary;
+        }
+
+        synchronized void updateSummary(Summary latest) {
+            if (summary == null || latest.throughSeq() > summary.throughSeq()) {
+                summary = latest;
+            }
+            summaryLoaded = true;
+        }
+
+        synchronized String aiReply(UUID messageId) {
+            return aiReplies.get(messageId);
+        }
+
+        private static boolean precedes(Entry a, Entry b) {
+            if (a.seq() != null && b.seq() != null) {
+                return a.seq() <= b.seq();
+            }
+            if (a.createdAt() == null || b.createdAt() == null) {
+                return b.createdAt() == null;
+            }
+            return !a.createdAt().isAfter(b.createdAt());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.abao.service;
+
+import com.abao.entity.ConversationSummary;
+import com.abao.entity.Message;
+import com.abao.entity.MessageType;
+import com.abao.repository.ConversationSummaryRepository;
+import com.abao.repository.MessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a rolling summary of each group the AI is active in, so replies remember more than the
+ * context window without sending more of it. Once a group's messages run {@code every-messages}
+ * past its summary plus the {@code keep-recent} that stay raw, the older part is folded into a new
+ * summary in the background. The first summary of a group starts at most {@code max-segment}
+ * messages back rather than at the beginning of its history.
+ *
+ * Each message in the prompt is cut to ai.context.max-message-tokens, and the segment is cut to
+ * {@code max-prompt-tokens}: what does not fit is left for the next summary. A group whose summary
+ * failed or came back empty is not tried again for {@code failure-backoff}, doubling with each
+ * failure in a row.
+ */
+@Slf4j
+@Component
+public class ConversationSummarizer {
+
+    private static final String INSTRUCTIONS = """
+        你负责为群聊维护对话摘要，供群聊 AI 助手"A宝"回顾之前的对话。
+        把已有摘要和新的对话合并成一份新的摘要：
+        - 保留谁说了什么重要的事、讨论过的话题、得出的结论、约定和还没解决的问题
+        - 去掉寒暄和重复内容，较早且已不重要的细节可以省略
+        - 不超过 300 字，用简洁的中文陈述句
+        - 只输出摘要本身
+        """;
+
+    private final AIService aiService;
+    private final AiProviderRouter router;
+    private final MessageRepository messageRepository;
+    private final ConversationSummaryRepository summaryRepository;
+    private final ConversationContextStore contextStore;
+    private final int everyMessages;
+    private final int keepRecent;
+    private final int maxSegment;
+    private final int maxTokens;
+    private final int maxMessageTokens;
+    private final int maxPromptTokens;
+    private final Duration failureBackoff;
+
+    // Groups with a summary being written; one at a time per group
+    private final Set<UUID> inProgress = ConcurrentHashMap.newKeySet();
+
+    private record Backoff(int failures, long retryAtNanos) {}
+
+    // Groups whose last summary failed, until they may try again
+    private final Map<UUID, Backoff> backoffs = new ConcurrentHashMap<>();
+
+    /**
+     * @param throughSeq seq of the last message the prompt covers
+     */
+    record Prompt(List<Map<String, String>> messages, long throughSeq) {}
+
+    private final Timer duration;
+    private final Counter failures;
+
+    public ConversationSummarizer(AIService aiService,
+                                  AiProviderRouter router,
+                                  MessageRepository messageRepository,
+                                  ConversationSummaryRepository summaryRepository,
+                                  ConversationContextStore contextStore,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${ai.summary.every-messages:40}") int everyMessages,
+                                  @Value("${ai.summary.keep-recent:20}") int keepRecent,
+                                  @Value("${ai.summary.max-segment:200}") int maxSegment,
+                                  @Value("${ai.summary.max-tokens:500}") int maxTokens,
+                                  @Value("${ai.context.max-message-tokens:1000}") int maxMessageTokens,
+                                  @Value("${ai.summary.max-prompt-tokens:12000}") int maxPromptTokens,
+                                  @Value("${ai.summary.failure-backoff:1m}") Duration failureBackoff) {
+        this.aiService = aiService;
+        this.router = router;
+        this.messageRepository = messageRepository;
+        this.summaryRepository = summaryRepository;
+        this.contextStore = contextStore;
+        this.everyMessages = everyMessages;
+        this.keepRecent = keepRecent;
+        this.maxSegment = maxSegment;
+        this.maxTokens = maxTokens;
+        this.maxMessageTokens = maxMessageTokens;
+        this.maxPromptTokens = maxPromptTokens;
+        this.failureBackoff = failureBackoff;
+        this.duration = Timer.builder("ai.summary.duration")
+            .description("Writing one conversation summary, from reading the segment to saving")
+            .register(meterRegistry);
+        this.failures = Counter.builder("ai.summary.failures").register(meterRegistry);
+    }
+
+    /**
+     * Called for every committed message, on the committing thread; anything that may read the
+     * database runs on the bounded-elastic scheduler.
+     */
+    public void onMessage(Message message) {
+        UUID groupId = message.getGroup().getId();
+        if (message.getSeq() == null || !contextStore.holds(groupId) || inProgress.contains(groupId)
+                || isBackingOff(groupId)) {
+            return;
+        }
+
+        Mono.fromRunnable(() -> summarizeIfDue(groupId, message.getSeq()))
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(null, e -> log.warn("Conversation summary check failed: groupId={}", groupId, e));
+    }
+
+    private void summarizeIfDue(UUID groupId, long seq) {
+        // Reads the database the first time the group's summary is asked for
+        ConversationContextStore.Summary summary = contextStore.summary(
+            groupId, summaryRepository::findFirstByGroupIdOrderByThroughSeqDesc);
+        long upTo = seq - keepRecent;
+        long after = Math.max(summary != null ? summary.throughSeq() : 0, upTo - maxSegment);
+        // Seq also counts group changes, so this runs slightly more often than every N messages
+        if (upTo - after < everyMessages || !inProgress.add(groupId)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Mono.fromCallable(() -> messageRepository.findAfterSeq(groupId, after, maxSegment).stream()
+                .filter(m -> m.getSeq() <= upTo)
+                .toList())
+            .filter(segment -> !segment.isEmpty())
+            .map(segment -> prompt(summary, segment))
+            .flatMap(prompt -> aiService.complete(prompt.messages(), maxTokens)
+                .switchIfEmpty(Mono.error(new IllegalStateException("Summary came back empty")))
+                .publishOn(Schedulers.boundedElastic())
+                .map(content -> save(groupId, prompt.throughSeq(), content)))
+            .doFinally(signal -> {
+                inProgress.remove(groupId);
+                duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            })
+            .subscribe(
+                saved -> {
+                    backoffs.remove(groupId);
+                    log.debug("Conversation summarized: groupId={}, throughSeq={}", groupId, saved.throughSeq());
+                },
+                e -> {
+                    failures.increment();
+                    Backoff backoff = backoffs.merge(groupId, backoffAfter(1),
+                        (previous, ignored) -> backoffAfter(previous.failures() + 1));
+                    log.warn("Conversation summary failed: groupId={}, failuresInARow={}",
+                        groupId, backoff.failures(), e);
+                });
+    }
+
+    private Backoff backoffAfter(int failuresInARow) {
+        // Doubles per failure, capped at 64 times the base
+        long delay = failureBackoff.toNanos() << Math.min(failuresInARow - 1, 6);
+        return new Backoff(failuresInARow, System.nanoTime() + delay);
+    }
+
+    private boolean isBackingOff(UUID groupId) {
+        Backoff backoff = backoffs.get(groupId);
+        return backoff != null && System.nanoTime() - backoff.retryAtNanos() < 0;
+    }
+
+    /**
+     * The oldest messages of the segment that fit in the prompt budget, ai.summary.max-prompt-tokens
+     * or a healthy provider's smaller limit, each cut to the per-message limit; always at least one,
+     * so a group never stalls on a single message.
+     */
+    Prompt prompt(ConversationContextStore.Summary previous, List<Message> segment) {
+        String header = "已有摘要：\n" + (previous != null ? previous.content() : "无") + "\n\n新的对话：\n";
+        int budget = router.promptBudget(maxPromptTokens) - TokenEstimator.estimateMessage(INSTRUCTIONS) - TokenEstimator.estimateMessage(header);
+
+        StringBuilder conversation = new StringBuilder();
+        long throughSeq = segment.get(0).getSeq();
+        for (Message message : segment) {
+            ConversationContextStore.Entry entry = ConversationContextStore.entry(message);
+            if (entry.turn() != null) {
+                String line = TokenEstimator.truncate(entry.type() == MessageType.AI
+                    ? "A宝: " + entry.turn().get("content")
+                    : entry.turn().get("content"), maxMessageTokens);
+                int tokens = TokenEstimator.estimate(line) + 1;
+                if (tokens > budget && !conversation.isEmpty()) {
+                    break;
+                }
+                budget -= tokens;
+                if (!conversation.isEmpty()) {
+                    conversation.append('\n');
+                }
+                conversation.append(line);
+            }
+            throughSeq = message.getSeq();
+        }
+
+        return new Prompt(List.of(
+            Map.of("role", "system", "content", INSTRUCTIONS),
+            Map.of("role", "user", "content", header + conversation)), throughSeq);
+    }
+
+    private ConversationContextStore.Summary save(UUID groupId, long throughSeq, String content) {
+        ConversationSummary summary = new ConversationSummary();
+        summary.setGroupId(groupId);
+        summary.setThroughSeq(throughSeq);
+        summary.setContent(content.trim());
+        summaryRepository.save(summary);
+
+        ConversationContextStore.Summary latest = new ConversationContextStore.Summary(throughSeq, summary.getContent());
+        contextStore.updateSummary(groupId, latest);
+        return latest;
+    }
+}
@@ -0,0 +1,52 @@
+package com.abao.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps UUIDs to small consecutive ints for the life of the process, so they can live in
+ * compressed bitmaps. Ids are never reused or persisted.
+ */
+public class DenseIdRegistry {
+
+    private final Map<UUID, Integer> ids = new ConcurrentHashMap<>();
+    private volatile UUID[] uuids = new UUID[1024];
+    private int size;
+
+    public int intern(UUID uuid) {
+        Integer id = ids.get(uuid);
+        return id != null ? id : register(uuid);
+    }
+
+    /**
+     * @return the id, or -1 when the UUID was never interned
+     */
+    public int find(UUID uuid) {
+        return ids.getOrDefault(uuid, -1);
+    }
+
+    public UUID uuid(int id) {
+        return uuids[id];
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int register(UUID uuid) {
+        Integer existing = ids.get(uuid);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size++;
+        if (id == uuids.length) {
+            uuids = Arrays.copyOf(uuids, uuids.length * 2);
+        }
+        uuids[id] = uuid;
+        // Published after the array slot, so whoever reads the id can resolve it
+        ids.put(uuid, id);
+        return id;
+    }
+}
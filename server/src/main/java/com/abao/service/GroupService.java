@@ -2,19 +2,30 @@ package com.abao.service;
 
 import com.abao.dto.group.*;
 import com.abao.entity.Group;
+import com.abao.entity.GroupChange;
+import com.abao.entity.GroupChangeType;
 import com.abao.entity.GroupMember;
-import com.abao.entity.Message;
+import com.abao.entity.GroupRole;
 import com.abao.entity.User;
+import com.abao.event.GroupChangedEvent;
+import com.abao.repository.GroupChangeRepository;
+import com.abao.repository.GroupCount;
 import com.abao.repository.GroupMemberRepository;
 import com.abao.repository.GroupRepository;
 import com.abao.repository.MessageRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -26,27 +37,49 @@ public class GroupService {
     private final GroupRepository groupRepository;
     private final GroupMemberRepository groupMemberRepository;
     private final MessageRepository messageRepository;
+    private final GroupChangeRepository groupChangeRepository;
+    private final InviteCodeAllocator inviteCodeAllocator;
+    private final MembershipIndex membershipIndex;
+    private final GroupViewCache groupViewCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
 
-    private static final String INVITE_CODE_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
-    private static final int INVITE_CODE_LENGTH = 6;
-    private final SecureRandom random = new SecureRandom();
+    private static final Set<GroupRole> SETTINGS_ROLES = EnumSet.of(GroupRole.OWNER, GroupRole.ADMIN);
+    private static final int MAX_INVITE_CODE_ATTEMPTS = 5;
 
-    @Transactional
+    /**
+     * Allocated codes never repeat one another, but may hit one issued at random before the allocator
+     * existed. That fails the insert on the unique index, so the group is created again in a fresh
+     * transaction with the next code.
+     */
     public GroupDto createGroup(CreateGroupRequest request, User creator) {
-        // Generate unique invite code
-        String inviteCode = generateUniqueInviteCode();
+        for (int attempt = 1; ; attempt++) {
+            String inviteCode = inviteCodeAllocator.next();
+            try {
+                return transactionTemplate.execute(status -> createGroup(request, creator, inviteCode));
+            } catch (DataIntegrityViolationException e) {
+                if (attempt >= MAX_INVITE_CODE_ATTEMPTS) {
+                    throw e;
+                }
+                log.warn("Invite code {} already taken, retrying with the next one", inviteCode);
+            }
+        }
+    }
 
-        // Create group
+    private GroupDto createGroup(CreateGroupRequest request, User creator, String inviteCode) {
+        // Create group; flushed so a taken invite code fails here, before the members are added
         Group group = new Group();
         group.setName(request.getName());
         group.setInviteCode(inviteCode);
-        group = groupRepository.save(group);
+        group.setMemberCount(2); // Creator + AI, added below
+        group = groupRepository.saveAndFlush(group);
 
         // Add creator as member
         GroupMember creatorMember = new GroupMember();
         creatorMember.setGroup(group);
         creatorMember.setUser(creator);
         creatorMember.setIsAi(false);
+        creatorMember.setRole(GroupRole.OWNER);
         groupMemberRepository.save(creatorMember);
 
         // Add AI as member
@@ -58,9 +91,7 @@ public class GroupService {
 
         log.info("Group created: {} by user {}", group.getId(), creator.getId());
 
-        GroupDto dto = GroupDto.fromEntity(group);
-        dto.setMemberCount(2); // Creator + AI
-        return dto;
+        return GroupDto.fromEntity(group);
     }
 
     @Transactional
@@ -69,7 +100,7 @@ public class GroupService {
             .orElseThrow(() -> new RuntimeException("邀请码无效"));
 
         // Check if already a member
-        if (groupMemberRepository.existsByGroupIdAndUserId(group.getId(), user.getId())) {
+        if (membershipIndex.isMember(group.getId(), user.getId())) {
             throw new RuntimeException("您已在该群聊中");
         }
 
@@ -79,95 +110,156 @@ public class GroupService {
         member.setUser(user);
         member.setIsAi(false);
         groupMemberRepository.save(member);
+        groupRepository.adjustMemberCount(group.getId(), 1);
+        membershipIndex.addMember(group.getId(), user.getId());
+        recordChange(group.getId(), GroupChangeType.MEMBER_JOINED, user);
 
         log.info("User {} joined group {}", user.getId(), group.getId());
 
-        GroupDto dto = GroupDto.fromEntity(group);
-        dto.setMemberCount((int) groupMemberRepository.countByGroupId(group.getId()));
-        return dto;
+        return GroupDto.fromEntity(group, groupRepository.findMemberCount(group.getId()));
     }
 
+    /**
+     * The user's groups with member counts, last message and unread counts.
+     * Summaries come from the cache, with one batched preview query for any misses; unread counts
+     * are one batched query, so the cost does not grow with group count.
+     */
     @Transactional(readOnly = true)
     public List<GroupDto> getUserGroups(User user) {
         List<Group> groups = groupRepository.findByUserIdOrderByUpdatedAtDesc(user.getId());
+        if (groups.isEmpty()) {
+            return List.of();
+        }
 
-        return groups.stream().map(group -> {
-            GroupDto dto = GroupDto.fromEntity(group);
-            dto.setMemberCount((int) groupMemberRepository.countByGroupId(group.getId()));
+        Map<UUID, Long> unreadCounts = messageRepository.countUnreadByUserId(user.getId()).stream()
+            .collect(Collectors.toMap(GroupCount::groupId, GroupCount::count));
 
-            // Get last message
-            messageRepository.findLatestByGroupId(group.getId()).ifPresent(msg -> {
-                String preview = msg.getContent();
-                if (preview.length() > 50) {
-                    preview = preview.substring(0, 50) + "...";
-                }
-                String senderName = msg.getSender() != null
-                    ? msg.getSender().getDisplayName()
-                    : "AI";
-                dto.setLastMessage(senderName + ": " + preview);
-                dto.setLastMessageAt(msg.getCreatedAt());
-            });
-
-            return dto;
-        }).collect(Collectors.toList());
+        return groupViewCache.summaries(groups).stream()
+            .map(summary -> summary.withUnreadCount(unreadCounts.getOrDefault(summary.getId(), 0L).intValue()))
+            .collect(Collectors.toList());
     }
 
     @Transactional(readOnly = true)
     public GroupDetailDto getGroupDetail(UUID groupId, User user) {
+        GroupDetailDto detail = groupViewCache.detail(groupId);
+
+        // Check if user is member
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+
+        return detail;
+    }
+
+    /**
+     * One page of members, oldest first. Reads only the displayed columns, whatever the group size.
+     */
+    @Transactional(readOnly = true)
+    public GroupMemberPageDto getMembers(UUID groupId, User user, int page, int size) {
         Group group = groupRepository.findById(groupId)
             .orElseThrow(() -> new RuntimeException("群聊不存在"));
 
-        // Check if user is member
-        if (!groupMemberRepository.existsByGroupIdAndUserId(groupId, user.getId())) {
+        if (!membershipIndex.isMember(groupId, user.getId())) {
             throw new RuntimeException("您不是该群聊成员");
         }
 
-        return GroupDetailDto.fromEntity(group);
+        return groupViewCache.memberPage(group, page, size);
     }
 
     @Transactional(readOnly = true)
     public String getInviteCode(UUID groupId, User user) {
+        String inviteCode = groupViewCache.inviteCode(groupId);
+
+        // Check if user is member
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+
+        return inviteCode;
+    }
+
+    @Transactional
+    public GroupDetailDto updateRetention(UUID groupId, UpdateRetentionRequest request, User user) {
         Group group = groupRepository.findById(groupId)
             .orElseThrow(() -> new RuntimeException("群聊不存在"));
 
-        // Check if user is member
-        if (!groupMemberRepository.existsByGroupIdAndUserId(groupId, user.getId())) {
+        if (!membershipIndex.isMember(groupId, user.getId())) {
             throw new RuntimeException("您不是该群聊成员");
         }
 
-        return group.getInviteCode();
+        // Shortening retention archives everyone's history, so it is not up to any member
+        if (!groupMemberRepository.existsByGroupIdAndUserIdAndRoleIn(groupId, user.getId(), SETTINGS_ROLES)) {
+            throw new RuntimeException("无权操作：只有群主或管理员可以修改消息保留期");
+        }
+
+        group.setRetentionDays(request.getRetentionDays());
+        groupRepository.save(group);
+        recordChange(groupId, GroupChangeType.GROUP_UPDATED, null);
+
+        log.info("Group {} retention set to {} days by user {}", groupId, request.getRetentionDays(), user.getId());
+
+        return groupViewCache.detail(group);
+    }
+
+    /**
+     * Move the user's read marker to now; everything in the group up to this point stops counting as unread.
+     */
+    @Transactional
+    public void markRead(UUID groupId, User user) {
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+
+        groupMemberRepository.markRead(groupId, user.getId(), LocalDateTime.now());
     }
 
     @Transactional
     public void leaveGroup(UUID groupId, User user) {
-        if (!groupMemberRepository.existsByGroupIdAndUserId(groupId, user.getId())) {
+        if (!membershipIndex.isMember(groupId, user.getId())) {
             throw new RuntimeException("您不是该群聊成员");
         }
 
-        groupMemberRepository.findByGroupIdAndUserId(groupId, user.getId())
-            .ifPresent(groupMemberRepository::delete);
+        if (groupMemberRepository.deleteByGroupIdAndUserId(groupId, user.getId()) != 1) {
+            // A concurrent leave removed the row first and did the bookkeeping
+            membershipIndex.removeMember(groupId, user.getId());
+            return;
+        }
+        groupRepository.adjustMemberCount(groupId, -1);
+        handOverOwnership(groupId);
+        membershipIndex.removeMember(groupId, user.getId());
+        recordChange(groupId, GroupChangeType.MEMBER_LEFT, user);
 
         log.info("User {} left group {}", user.getId(), groupId);
     }
 
-    private String generateUniqueInviteCode() {
-        String code;
-        int attempts = 0;
-        do {
-            code = generateInviteCode();
-            attempts++;
-            if (attempts > 100) {
-                throw new RuntimeException("无法生成唯一邀请码");
-            }
-        } while (groupRepository.existsByInviteCode(code));
-        return code;
+    /**
+     * A group whose owner left goes to its longest-standing member, so its settings stay manageable.
+     */
+    private void handOverOwnership(UUID groupId) {
+        if (groupMemberRepository.existsByGroupIdAndRole(groupId, GroupRole.OWNER)) {
+            return;
+        }
+        groupMemberRepository.findFirstByGroupIdAndIsAiFalseOrderByJoinedAtAscIdAsc(groupId).ifPresent(heir -> {
+            heir.setRole(GroupRole.OWNER);
+            groupMemberRepository.save(heir);
+            log.info("Group {} ownership passed to user {}", groupId, heir.getUser().getId());
+        });
     }
 
-    private String generateInviteCode() {
-        StringBuilder code = new StringBuilder(INVITE_CODE_LENGTH);
-        for (int i = 0; i < INVITE_CODE_LENGTH; i++) {
-            code.append(INVITE_CODE_CHARS.charAt(random.nextInt(INVITE_CODE_CHARS.length())));
+    /**
+     * Append to the group's change log so clients pick the change up through delta sync,
+     * and drop the cached views of the group once the change commits.
+     */
+    private void recordChange(UUID groupId, GroupChangeType type, User user) {
+        GroupChange change = new GroupChange();
+        change.setGroupId(groupId);
+        change.setSeq(groupRepository.nextSeq(groupId));
+        change.setChangeType(type);
+        if (user != null) {
+            change.setUserId(user.getId());
+            change.setUserNickname(user.getNickname());
         }
-        return code.toString();
+        groupChangeRepository.save(change);
+        eventPublisher.publishEvent(new GroupChangedEvent(this, groupId));
     }
 }
@@ -0,0 +1,117 @@
+package com.abao.service;
+
+import com.abao.config.CacheConfig;
+import com.abao.dto.group.GroupDetailDto;
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.group.GroupMemberDto;
+import com.abao.dto.group.GroupMemberPageDto;
+import com.abao.entity.Group;
+import com.abao.repository.GroupMemberRepository;
+import com.abao.repository.GroupRepository;
+import com.abao.repository.MessagePreview;
+import com.abao.repository.MessageRepository;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Cached, viewer-independent group views. Callers check membership themselves; nothing here is
+ * per-user, so one entry serves every member. Invalidated by CacheInvalidationListener.
+ */
+@Component
+public class GroupViewCache {
+
+    static final int DETAIL_MEMBER_PAGE_SIZE = 50;
+
+    private final GroupRepository groupRepository;
+    private final GroupMemberRepository groupMemberRepository;
+    private final MessageRepository messageRepository;
+    private final Cache summaries;
+
+    public GroupViewCache(GroupRepository groupRepository,
+                          GroupMemberRepository groupMemberRepository,
+                          MessageRepository messageRepository,
+                          CacheManager cacheManager) {
+        this.groupRepository = groupRepository;
+        this.groupMemberRepository = groupMemberRepository;
+        this.messageRepository = messageRepository;
+        this.summaries = cacheManager.getCache(CacheConfig.GROUP_SUMMARIES);
+    }
+
+    /**
+     * Group detail with the first page of members.
+     */
+    @Cacheable(CacheConfig.GROUP_DETAILS)
+    @Transactional(readOnly = true)
+    public GroupDetailDto detail(UUID groupId) {
+        return detail(findGroup(groupId));
+    }
+
+    public GroupDetailDto detail(Group group) {
+        return GroupDetailDto.fromEntity(group, memberPage(group, 0, DETAIL_MEMBER_PAGE_SIZE));
+    }
+
+    @Cacheable(CacheConfig.INVITE_CODES)
+    @Transactional(readOnly = true)
+    public String inviteCode(UUID groupId) {
+        return findGroup(groupId).getInviteCode();
+    }
+
+    /**
+     * List summaries (member count, last message) for the given groups, in the same order. Only
+     * groups not in the cache are read, with one batched preview query. Unread counts are per
+     * user and left at zero.
+     */
+    public List<GroupDto> summaries(List<Group> groups) {
+        Map<UUID, GroupDto> found = new HashMap<>();
+        List<Group> missing = new ArrayList<>();
+        for (Group group : groups) {
+            GroupDto cached = summaries.get(group.getId(), GroupDto.class);
+            if (cached != null) {
+                found.put(group.getId(), cached);
+            } else {
+                missing.add(group);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<UUID> missingIds = missing.stream().map(Group::getId).toList();
+            Map<UUID, MessagePreview> latest = messageRepository.findLatestPreviewsByGroupIds(missingIds).stream()
+                .collect(Collectors.toMap(MessagePreview::getGroupId, Function.identity(), (a, b) -> a));
+            for (Group group : missing) {
+                GroupDto dto = GroupDto.fromEntity(group);
+                MessagePreview msg = latest.get(group.getId());
+                if (msg != null) {
+                    String senderName = msg.getSenderDisplayName() != null
+                        ? msg.getSenderDisplayName()
+                        : "AI";
+                    dto.setLastMessage(senderName + ": " + msg.getContentPreview());
+                    dto.setLastMessageAt(msg.getCreatedAt());
+                }
+                summaries.put(group.getId(), dto);
+                found.put(group.getId(), dto);
+            }
+        }
+
+        return groups.stream().map(group -> found.get(group.getId())).toList();
+    }
+
+    public GroupMemberPageDto memberPage(Group group, int page, int size) {
+        Slice<GroupMemberDto> members = groupMemberRepository.findMemberViews(group.getId(), PageRequest.of(page, size))
+            .map(GroupMemberDto::fromView);
+        return new GroupMemberPageDto(members.getContent(), page, size, members.hasNext(), group.getMemberCount());
+    }
+
+    private Group findGroup(UUID groupId) {
+        return groupRepository.findById(groupId)
+            .orElseThrow(() -> new RuntimeException("群聊不存在"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.abao.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hands out invite codes without checking the groups table. A database sequence yields distinct
+ * counter values, reserved in blocks so most codes cost no query at all, and a keyed Feistel
+ * permutation maps each counter onto a distinct 6-character code. Because the permutation is a
+ * bijection on the 36^6 code space, distinct counters can never produce the same code, and
+ * consecutive groups still get codes that look unrelated. Codes issued at random before the
+ * allocator existed can still collide; {@link GroupService#createGroup} retries with the next one.
+ */
+@Slf4j
+@Component
+public class InviteCodeAllocator {
+
+    static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    static final int CODE_LENGTH = 6;
+
+    // 36^6 codes, split into two halves of 36^3 for a balanced Feistel network
+    static final long HALF = 36L * 36 * 36;
+    static final long SPACE = HALF * HALF;
+
+    private static final String SEQUENCE = "invite_code_seq";
+    // Must match the sequence's INCREMENT BY in init.sql
+    static final int BLOCK_SIZE = 50;
+    private static final int ROUNDS = 4;
+    // Anyone who knows the secret can enumerate every issued code
+    static final int MIN_SECRET_LENGTH = 32;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long[] roundKeys;
+
+    private volatile String nextValueSql;
+    private long next;
+    private long blockEnd;
+
+    public InviteCodeAllocator(DataSource dataSource,
+                               @Value("${app.groups.invite-code.secret}") String secret) {
+        if (secret == null || secret.length() < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException(
+                "app.groups.invite-code.secret (INVITE_CODE_SECRET) must be at least " + MIN_SECRET_LENGTH + " characters");
+        }
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.roundKeys = roundKeys(secret);
+    }
+
+    /**
+     * The sequence is also in init.sql; creating it here covers schema-generated databases (tests).
+     * Done at startup because some databases commit the surrounding transaction on DDL.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        String product = jdbcTemplate.execute(
+            (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + SEQUENCE + " START WITH 1 INCREMENT BY " + BLOCK_SIZE);
+        nextValueSql = "PostgreSQL".equalsIgnoreCase(product)
+            ? "SELECT nextval('" + SEQUENCE + "')"
+            : "SELECT NEXT VALUE FOR " + SEQUENCE;
+    }
+
+    public synchronized String next() {
+        if (next >= blockEnd) {
+            // The sequence steps by the block size, so each value reserves [value, value + BLOCK_SIZE)
+            next = nextSequenceValue();
+            blockEnd = next + BLOCK_SIZE;
+        }
+        long counter = next++;
+        if (counter >= SPACE) {
+            throw new IllegalStateException("Invite code space exhausted");
+        }
+        return encode(permute(counter, roundKeys));
+    }
+
+    static long permute(long value, long[] keys) {
+        long left = value / HALF;
+        long right = value % HALF;
+        for (long key : keys) {
+            long mixed = (left + round(right, key)) % HALF;
+            left = right;
+            right = mixed;
+        }
+        return left * HALF + right;
+    }
+
+    static String encode(long value) {
+        char[] code = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            code[i] = ALPHABET.charAt((int) (value % ALPHABET.length()));
+            value /= ALPHABET.length();
+        }
+        return new String(code);
+    }
+
+    static long[] roundKeys(String secret) {
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(
+                MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8)));
+            long[] keys = new long[ROUNDS];
+            for (int i = 0; i < ROUNDS; i++) {
+                keys[i] = digest.getLong();
+            }
+            return keys;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long round(long half, long key) {
+        long h = (half ^ key) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return Math.floorMod(h, HALF);
+    }
+
+    private long nextSequenceValue() {
+        Long value = jdbcTemplate.queryForObject(nextValueSql, Long.class);
+        log.debug("Reserved invite code block: start={}, size={}", value, BLOCK_SIZE);
+        return value;
+    }
+}
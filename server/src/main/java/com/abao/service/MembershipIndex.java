@@ -0,0 +1,193 @@
+package com.abao.service;
+
+import com.abao.config.CacheInvalidationBus;
+import com.abao.repository.GroupMemberRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Group membership held as one roaring bitmap of dense user ids per group, a few bytes per
+ * membership instead of a hashed UUID entry. A group is loaded from group_members the first time
+ * it is checked. A miss is confirmed against the database before it is treated as "not a member",
+ * so a join the index has not seen yet never locks anyone out.
+ *
+ * Joins and leaves are never patched into a bitmap: once the change commits, the group's bitmap is
+ * dropped here and, over the cache invalidation bus, on the other nodes, and reloaded on next use.
+ * A rolled-back change therefore leaves nothing behind, and a check that read the row before the
+ * commit can only have added it to the bitmap that is being dropped.
+ *
+ * A group is read from the database outside any map lock, once however many threads ask for it; an
+ * eviction during the read drops the result instead of keeping it.
+ */
+@Slf4j
+@Component
+public class MembershipIndex {
+
+    static final String INVALIDATION_TOPIC = "memberships";
+
+    private final GroupMemberRepository groupMemberRepository;
+    private final CacheInvalidationBus bus;
+
+    private final DenseIdRegistry userIds = new DenseIdRegistry();
+    private final DenseIdRegistry groupIds = new DenseIdRegistry();
+
+    // group id -> member user ids; every access to a bitmap synchronizes on it
+    private final Map<Integer, RoaringBitmap> members = new ConcurrentHashMap<>();
+
+    // group id -> read of its members in progress
+    private final Map<Integer, CompletableFuture<RoaringBitmap>> loading = new ConcurrentHashMap<>();
+
+    public MembershipIndex(GroupMemberRepository groupMemberRepository, MeterRegistry meterRegistry,
+                           CacheInvalidationBus bus) {
+        this.groupMemberRepository = groupMemberRepository;
+        this.bus = bus;
+        Gauge.builder("membership.index.bytes", this, MembershipIndex::sizeInBytes)
+            .description("Heap used by the membership bitmaps")
+            .register(meterRegistry);
+        bus.subscribe(INVALIDATION_TOPIC, groupId -> {
+            if (groupId == null) {
+                loading.clear();
+                members.clear();
+            } else {
+                evictLocal(groupIds.intern(UUID.fromString(groupId)));
+            }
+        });
+    }
+
+    public boolean isMember(UUID groupId, UUID userId) {
+        int user = userIds.intern(userId);
+        RoaringBitmap bitmap = load(groupId);
+        synchronized (bitmap) {
+            if (bitmap.contains(user)) {
+                return true;
+            }
+        }
+
+        if (groupMemberRepository.existsByGroupIdAndUserId(groupId, userId)) {
+            synchronized (bitmap) {
+                bitmap.add(user);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public void addMember(UUID groupId, UUID userId) {
+        evictAfterCommit(groupId);
+    }
+
+    public void removeMember(UUID groupId, UUID userId) {
+        evictAfterCommit(groupId);
+    }
+
+    // Every node reloads from the database, so only once the change is visible there
+    private void evictAfterCommit(UUID groupId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(groupId);
+                }
+            });
+        } else {
+            evict(groupId);
+        }
+    }
+
+    private void evict(UUID groupId) {
+        evictLocal(groupIds.intern(groupId));
+        bus.publish(INVALIDATION_TOPIC, groupId.toString());
+    }
+
+    private void evictLocal(int group) {
+        // A load in progress may have read the group before the commit; it is dropped instead of kept
+        loading.compute(group, (id, running) -> {
+            members.remove(id);
+            return null;
+        });
+    }
+
+    /**
+     * A private copy of the group's member ids, safe to intersect and iterate without locking.
+     */
+    public RoaringBitmap membersOf(UUID groupId) {
+        RoaringBitmap bitmap = load(groupId);
+        synchronized (bitmap) {
+            return bitmap.clone();
+        }
+    }
+
+    public int userId(UUID userId) {
+        return userIds.intern(userId);
+    }
+
+    public UUID userUuid(int userId) {
+        return userIds.uuid(userId);
+    }
+
+    public int groupId(UUID groupId) {
+        return groupIds.intern(groupId);
+    }
+
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap bitmap : members.values()) {
+            synchronized (bitmap) {
+                bytes += bitmap.getLongSizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    private RoaringBitmap load(UUID groupId) {
+        int group = groupIds.intern(groupId);
+        RoaringBitmap loaded = members.get(group);
+        if (loaded != null) {
+            return loaded;
+        }
+
+        CompletableFuture<RoaringBitmap> mine = new CompletableFuture<>();
+        CompletableFuture<RoaringBitmap> running = loading.putIfAbsent(group, mine);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            for (UUID userId : groupMemberRepository.findUserIdsByGroupId(groupId)) {
+                bitmap.add(userIds.intern(userId));
+            }
+            bitmap.runOptimize();
+            // Kept only if no eviction removed this load in the meantime
+            loading.computeIfPresent(group, (id, current) -> {
+                if (current == mine) {
+                    members.put(id, bitmap);
+                    return null;
+                }
+                return current;
+            });
+            mine.complete(bitmap);
+            log.debug("Loaded membership bitmap: groupId={}, members={}", groupId, bitmap.getCardinality());
+            return bitmap;
+        } catch (Throwable e) {
+            loading.remove(group, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.abao.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Moves messages past their group's retention from the hot messages table into messages_archive.
+ * Work is done in set-based batches (one transaction each), never by loading entities,
+ * so the hot table and its indexes stay small without long-running locks.
+ */
+@Slf4j
+@Service
+public class MessageArchiveService {
+
+    private static final String ARCHIVE_COLUMNS =
+        "id, group_id, sender_id, content, content_compressed, content_preview, message_type, reply_to_id, "
+            + "reply_to_type, reply_to_sender_nickname, reply_to_preview, client_message_id, created_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MessagePartitionManager partitionManager;
+    private final MessageIdempotencyCache idempotencyCache;
+
+    @Value("${app.messages.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.messages.retention.default-days:0}")
+    private int defaultRetentionDays;
+
+    @Value("${app.messages.retention.batch-size:1000}")
+    private int batchSize;
+
+    public MessageArchiveService(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                 MessagePartitionManager partitionManager, MessageIdempotencyCache idempotencyCache) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.partitionManager = partitionManager;
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    /**
+     * Idempotency keys are only looked up within the persisted lookback, so older ones are dropped
+     * regardless of message retention.
+     */
+    @Scheduled(cron = "${app.messages.retention.cron:0 30 3 * * *}")
+    public void purgeExpiredClientKeys() {
+        int count = jdbcTemplate.update("DELETE FROM message_client_keys WHERE created_at < ?",
+            idempotencyCache.persistedSince());
+        log.info("Expired idempotency keys purged: count={}", count);
+    }
+
+    @Scheduled(cron = "${app.messages.retention.cron:0 30 3 * * *}")
+    public void archiveExpiredMessages() {
+        if (!enabled) {
+            return;
+        }
+
+        long[] totals = {0, 0};
+        totals[1] += archiveExpiredPartitions();
+
+        // A default of 0 keeps history forever, so only groups with an explicit override are visited
+        String sql = defaultRetentionDays > 0
+            ? "SELECT id, retention_days FROM groups"
+            : "SELECT id, retention_days FROM groups WHERE retention_days IS NOT NULL";
+
+        jdbcTemplate.query(sql, rs -> {
+            UUID groupId = rs.getObject("id", UUID.class);
+            int override = rs.getInt("retention_days");
+            int days = rs.wasNull() ? defaultRetentionDays : override;
+            if (days > 0) {
+                totals[0]++;
+                totals[1] += archiveGroup(groupId, LocalDateTime.now().minusDays(days));
+            }
+        });
+
+        log.info("Retention run finished: groups={}, archivedMessages={}", totals[0], totals[1]);
+    }
+
+    /**
+     * Whole monthly partitions older than the longest retention of any group are archived in one
+     * statement and dropped, which leaves no dead tuples or index bloat behind in the hot table.
+     * Rows of younger partitions are still moved per group by {@link #archiveGroup}.
+     *
+     * @return number of messages moved
+     */
+    int archiveExpiredPartitions() {
+        if (!partitionManager.isPartitioned() || defaultRetentionDays <= 0) {
+            // Groups without an override keep their history forever
+            return 0;
+        }
+
+        Integer longestOverride = jdbcTemplate.queryForObject("SELECT MAX(retention_days) FROM groups", Integer.class);
+        int longestDays = Math.max(defaultRetentionDays, longestOverride != null ? longestOverride : 0);
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(longestDays);
+
+        int total = 0;
+        for (String partition : partitionManager.partitionsEndingBefore(cutoff)) {
+            Integer moved = transactionTemplate.execute(status -> {
+                int count = jdbcTemplate.update(
+                    "INSERT INTO messages_archive (" + ARCHIVE_COLUMNS + ", archived_at) "
+                        + "SELECT " + ARCHIVE_COLUMNS + ", CURRENT_TIMESTAMP FROM " + partition);
+                jdbcTemplate.update("UPDATE messages SET reply_to_id = NULL WHERE reply_to_id IN (SELECT id FROM "
+                    + partition + ")");
+                partitionManager.dropPartition(partition);
+                return count;
+            });
+            total += moved != null ? moved : 0;
+        }
+        return total;
+    }
+
+    /**
+     * Archive every message of a group created before the cutoff.
+     *
+     * @return number of messages moved
+     */
+    public int archiveGroup(UUID groupId, LocalDateTime cutoff) {
+        int total = 0;
+        int moved;
+        do {
+            moved = transactionTemplate.execute(status -> moveBatch(groupId, cutoff));
+            total += moved;
+        } while (moved == batchSize);
+
+        if (total > 0) {
+            log.info("Archived messages: groupId={}, cutoff={}, count={}", groupId, cutoff, total);
+        }
+        return total;
+    }
+
+    private int moveBatch(UUID groupId, LocalDateTime cutoff) {
+        List<UUID> ids = jdbcTemplate.queryForList(
+            "SELECT id FROM messages WHERE group_id = ? AND created_at < ? ORDER BY created_at LIMIT ?",
+            UUID.class, groupId, Timestamp.valueOf(cutoff), batchSize);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        namedJdbcTemplate.update(
+            "INSERT INTO messages_archive (" + ARCHIVE_COLUMNS + ", archived_at) "
+                + "SELECT " + ARCHIVE_COLUMNS + ", CURRENT_TIMESTAMP FROM messages WHERE id IN (:ids)",
+            params);
+        // Same effect as the ON DELETE SET NULL foreign key, spelled out for databases without it
+        namedJdbcTemplate.update("UPDATE messages SET reply_to_id = NULL WHERE reply_to_id IN (:ids)", params);
+        namedJdbcTemplate.update("DELETE FROM messages WHERE id IN (:ids)", params);
+        return ids.size();
+    }
+}
@@ -0,0 +1,131 @@
+package com.abao.service;
+
+import com.abao.entity.MessageContentCodec;
+import com.abao.entity.User;
+import com.abao.repository.GroupRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a group's full message history as NDJSON (one MessageDto-shaped object per line).
+ * Rows are pulled through a server-side cursor and written straight to the response,
+ * so memory stays flat regardless of history size.
+ */
+@Slf4j
+@Service
+public class MessageExportService {
+
+    private static final String EXPORT_SQL = """
+        SELECT m.id, m.sender_id, u.nickname, m.content, m.content_compressed, m.message_type,
+               m.reply_to_id, m.client_message_id, m.created_at
+        FROM %s m
+        LEFT JOIN users u ON u.id = m.sender_id
+        WHERE m.group_id = ?
+        ORDER BY m.created_at, m.id
+        """;
+
+    // Archived rows are always older than hot ones, so reading the archive first keeps global order
+    private static final List<String> SOURCE_TABLES = List.of("messages_archive", "messages");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final GroupRepository groupRepository;
+    private final MembershipIndex membershipIndex;
+    private final ObjectMapper objectMapper;
+
+    public MessageExportService(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                GroupRepository groupRepository,
+                                MembershipIndex membershipIndex,
+                                ObjectMapper objectMapper,
+                                @Value("${app.messages.export.fetch-size:500}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        // PostgreSQL only honours fetchSize (cursor mode) with autocommit off, i.e. inside a transaction
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.groupRepository = groupRepository;
+        this.membershipIndex = membershipIndex;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Validate up front, before the response is committed, so errors still map to proper status codes.
+     */
+    public void checkExportAllowed(UUID groupId, User user) {
+        if (!groupRepository.existsById(groupId)) {
+            throw new RuntimeException("群聊不存在");
+        }
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+    }
+
+    public void export(UUID groupId, OutputStream out, boolean gzip) throws IOException {
+        OutputStream target = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(target);
+        generator.setRootValueSeparator(null);
+
+        long[] count = {0};
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                for (String table : SOURCE_TABLES) {
+                    jdbcTemplate.query(EXPORT_SQL.formatted(table), rs -> {
+                        writeRow(generator, groupId, rs);
+                        count[0]++;
+                    }, groupId);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Client went away mid-stream; the cursor is already closed by the rollback
+            throw e.getCause();
+        }
+
+        generator.flush();
+        if (gzip) {
+            ((GZIPOutputStream) target).finish();
+        }
+        log.info("Exported group history: groupId={}, messages={}, gzip={}", groupId, count[0], gzip);
+    }
+
+    private void writeRow(JsonGenerator generator, UUID groupId, ResultSet rs) throws SQLException {
+        try {
+            generator.writeStartObject();
+            generator.writeStringField("id", rs.getString("id"));
+            generator.writeStringField("groupId", groupId.toString());
+            generator.writeStringField("senderId", rs.getString("sender_id"));
+            generator.writeStringField("senderNickname", rs.getString("nickname"));
+            generator.writeStringField("content",
+                MessageContentCodec.read(rs.getString("content"), rs.getBytes("content_compressed")));
+            generator.writeStringField("messageType", rs.getString("message_type"));
+            generator.writeStringField("replyToId", rs.getString("reply_to_id"));
+            generator.writeStringField("clientMessageId", rs.getString("client_message_id"));
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            generator.writeStringField("createdAt", createdAt != null
+                ? DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(createdAt.toLocalDateTime())
+                : null);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
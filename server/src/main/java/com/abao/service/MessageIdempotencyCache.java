@@ -0,0 +1,69 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Bounded window of recent (sender, clientMessageId) sends.
+ * Lets client retries short-circuit without touching the database;
+ * the unique index on messages is the backstop once an entry expires.
+ */
+@Component
+public class MessageIdempotencyCache {
+
+    private final Cache<String, MessageDto> recentSends;
+    private final Duration persistedLookback;
+
+    public MessageIdempotencyCache(
+            @Value("${app.messages.dedupe.window:10m}") Duration window,
+            @Value("${app.messages.dedupe.max-entries:100000}") long maxEntries,
+            @Value("${app.messages.dedupe.persisted-lookback:7d}") Duration persistedLookback) {
+        this.persistedLookback = persistedLookback;
+        this.recentSends = Caffeine.newBuilder()
+            .expireAfterWrite(window)
+            .maximumSize(maxEntries)
+            .build();
+    }
+
+    public Optional<MessageDto> find(UUID senderId, String clientMessageId) {
+        return Optional.ofNullable(recentSends.getIfPresent(key(senderId, clientMessageId)));
+    }
+
+    /**
+     * Remember a send once it is durable, so a rolled-back insert is never replayed to a retry.
+     */
+    public void remember(UUID senderId, String clientMessageId, MessageDto dto) {
+        String key = key(senderId, clientMessageId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recentSends.put(key, dto);
+                }
+            });
+        } else {
+            recentSends.put(key, dto);
+        }
+    }
+
+    /**
+     * Oldest send still checked in the database once an entry has left the in-memory window.
+     */
+    public LocalDateTime persistedSince() {
+        return LocalDateTime.now().minus(persistedLookback);
+    }
+
+    private static String key(UUID senderId, String clientMessageId) {
+        return senderId + ":" + clientMessageId;
+    }
+}
@@ -0,0 +1,146 @@
+package com.abao.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Maintains the monthly range partitions of the messages table on PostgreSQL.
+ * Partitions are created a few months ahead so inserts never land in the default partition,
+ * and whole expired months can be dropped instead of deleted row by row.
+ * On databases where messages is not partitioned (H2 in tests, un-migrated installs) this is a no-op.
+ */
+@Slf4j
+@Component
+public class MessagePartitionManager {
+
+    static final String PARTITION_PREFIX = "messages_p";
+    private static final DateTimeFormatter SUFFIX_FORMAT = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    private final JdbcTemplate jdbcTemplate;
+    private volatile Boolean partitioned;
+
+    @Value("${app.messages.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    public MessagePartitionManager(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        ensureFuturePartitions();
+    }
+
+    @Scheduled(cron = "${app.messages.partitioning.cron:0 0 2 * * *}")
+    public void ensureFuturePartitions() {
+        if (!isPartitioned()) {
+            return;
+        }
+
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            try {
+                partitionDdl(month).forEach(jdbcTemplate::execute);
+            } catch (Exception e) {
+                // Usually rows for that month already sit in the default partition; keep going with the rest
+                log.error("Failed to create message partition: month={}", month, e);
+            }
+        }
+    }
+
+    public boolean isPartitioned() {
+        Boolean result = partitioned;
+        if (result == null) {
+            result = detectPartitioning();
+            partitioned = result;
+        }
+        return result;
+    }
+
+    /**
+     * Monthly partitions whose whole range is older than the cutoff, oldest first.
+     */
+    public List<String> partitionsEndingBefore(LocalDateTime cutoff) {
+        if (!isPartitioned()) {
+            return List.of();
+        }
+
+        List<String> names = jdbcTemplate.queryForList("""
+            SELECT c.relname FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'messages'::regclass
+            ORDER BY c.relname
+            """, String.class);
+
+        return names.stream()
+            .filter(name -> {
+                YearMonth month = monthOf(name);
+                return month != null && !month.plusMonths(1).atDay(1).atStartOfDay().isAfter(cutoff);
+            })
+            .toList();
+    }
+
+    public void dropPartition(String name) {
+        if (monthOf(name) == null) {
+            throw new IllegalArgumentException("Not a monthly message partition: " + name);
+        }
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+        log.info("Dropped message partition: {}", name);
+    }
+
+    static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(SUFFIX_FORMAT);
+    }
+
+    static YearMonth monthOf(String partitionName) {
+        if (partitionName == null || !partitionName.startsWith(PARTITION_PREFIX)) {
+            return null;
+        }
+        try {
+            return YearMonth.parse(partitionName.substring(PARTITION_PREFIX.length()), SUFFIX_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Idempotency keys are unique in message_client_keys, not here: a partition can only enforce it per month
+    static List<String> partitionDdl(YearMonth month) {
+        String name = partitionName(month);
+        return List.of(
+            "CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF messages"
+                + " FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')"
+        );
+    }
+
+    private boolean detectPartitioning() {
+        try {
+            String product = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            if (!"PostgreSQL".equalsIgnoreCase(product)) {
+                return false;
+            }
+            Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('messages'))",
+                Boolean.class);
+            return Objects.equals(exists, Boolean.TRUE);
+        } catch (Exception e) {
+            log.warn("Could not detect message partitioning, assuming none: {}", e.getMessage());
+            return false;
+        }
+    }
+}
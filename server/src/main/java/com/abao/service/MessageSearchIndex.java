@@ -0,0 +1,275 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.abao.dto.message.MessageSearchHitDto;
+import com.abao.entity.MessageType;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.cjk.CJKAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.QueryBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.BreakIterator;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded Lucene inverted index over message content.
+ * CJKAnalyzer indexes Chinese/Japanese/Korean text as overlapping bigrams, so queries need no dictionary.
+ * Writes are buffered and become searchable at the next refresh; commits make them durable.
+ * Each commit also records, per group, the seq through which every message has been indexed, so a
+ * restarted node knows where to catch up from.
+ */
+@Slf4j
+@Component
+public class MessageSearchIndex {
+
+    static final String FIELD_ID = "id";
+    static final String FIELD_GROUP = "groupId";
+    static final String FIELD_SENDER = "senderId";
+    static final String FIELD_NICKNAME = "senderNickname";
+    static final String FIELD_TYPE = "messageType";
+    static final String FIELD_CREATED_AT = "createdAt";
+    static final String FIELD_CONTENT = "content";
+
+    // Offsets in the postings let the highlighter work without re-analyzing stored text
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
+
+    private static final int SNIPPET_LENGTH = 120;
+
+    // Commit user data key for a group's checkpoint
+    private static final String CHECKPOINT_PREFIX = "indexedThrough:";
+
+    private final Analyzer analyzer = new CJKAnalyzer();
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final Map<UUID, Long> indexedThrough = new ConcurrentHashMap<>();
+
+    @Autowired
+    public MessageSearchIndex(@Value("${app.search.index-dir:./data/search-index}") String indexDir) throws IOException {
+        this(FSDirectory.open(Path.of(indexDir)));
+        log.info("Message search index opened: dir={}, docs={}", indexDir, writer.getDocStats().numDocs);
+    }
+
+    MessageSearchIndex(Directory directory) throws IOException {
+        this.directory = directory;
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        this.writer = new IndexWriter(directory, config);
+        this.searcherManager = new SearcherManager(writer, null);
+
+        // The writer starts out with the user data of the commit it opened
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().startsWith(CHECKPOINT_PREFIX)) {
+                    indexedThrough.put(UUID.fromString(entry.getKey().substring(CHECKPOINT_PREFIX.length())),
+                        Long.parseLong(entry.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add or replace messages; safe to call twice for the same message.
+     */
+    public void index(Collection<MessageDto> messages) {
+        try {
+            for (MessageDto message : messages) {
+                writer.updateDocument(new Term(FIELD_ID, message.getId().toString()), toDocument(message));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Seq through which every message of the group is known to be in the index, 0 if none
+     */
+    public long indexedThrough(UUID groupId) {
+        return indexedThrough.getOrDefault(groupId, 0L);
+    }
+
+    /**
+     * Advance groups' checkpoints; saved with the documents at the next commit, so a checkpoint is
+     * never durable ahead of the messages it covers.
+     */
+    public void markIndexedThrough(Map<UUID, Long> seqs) {
+        if (seqs.isEmpty()) {
+            return;
+        }
+        seqs.forEach((groupId, seq) -> indexedThrough.merge(groupId, seq, Math::max));
+        List<Map.Entry<String, String>> commitData = indexedThrough.entrySet().stream()
+            .map(entry -> Map.entry(CHECKPOINT_PREFIX + entry.getKey(), entry.getValue().toString()))
+            .toList();
+        writer.setLiveCommitData(commitData);
+    }
+
+    public boolean isEmpty() {
+        return writer.getDocStats().numDocs == 0;
+    }
+
+    /**
+     * Matches in one group, newest first. Every token of the query must occur.
+     *
+     * @param before exclusive upper bound on createdAt, used as the paging cursor
+     */
+    public List<MessageSearchHitDto> search(UUID groupId, String text, UUID senderId,
+                                            LocalDateTime from, LocalDateTime before, int limit) {
+        Query textQuery = new QueryBuilder(analyzer).createBooleanQuery(FIELD_CONTENT, text, BooleanClause.Occur.MUST);
+        if (textQuery == null) {
+            // Only stop words or punctuation
+            return List.of();
+        }
+
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+            .add(textQuery, BooleanClause.Occur.MUST)
+            .add(new TermQuery(new Term(FIELD_GROUP, groupId.toString())), BooleanClause.Occur.FILTER);
+        if (senderId != null) {
+            query.add(new TermQuery(new Term(FIELD_SENDER, senderId.toString())), BooleanClause.Occur.FILTER);
+        }
+        if (from != null || before != null) {
+            long lower = from != null ? toMillis(from) : Long.MIN_VALUE;
+            long upper = before != null ? toMillis(before) - 1 : Long.MAX_VALUE;
+            query.add(LongPoint.newRangeQuery(FIELD_CREATED_AT, lower, upper), BooleanClause.Occur.FILTER);
+        }
+        Query built = query.build();
+
+        IndexSearcher searcher = acquire();
+        try {
+            Sort newestFirst = new Sort(new SortField(FIELD_CREATED_AT, SortField.Type.LONG, true));
+            TopDocs topDocs = searcher.search(built, limit, newestFirst);
+
+            UnifiedHighlighter highlighter = UnifiedHighlighter.builder(searcher, analyzer)
+                .withFormatter(new DefaultPassageFormatter("<em>", "</em>", "…", true))
+                .withBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(
+                    BreakIterator.getSentenceInstance(Locale.ROOT), SNIPPET_LENGTH, 0.5f))
+                .build();
+            String[] snippets = highlighter.highlight(FIELD_CONTENT, built, topDocs, 1);
+
+            StoredFields storedFields = searcher.storedFields();
+            List<MessageSearchHitDto> hits = new ArrayList<>(topDocs.scoreDocs.length);
+            for (int i = 0; i < topDocs.scoreDocs.length; i++) {
+                Document doc = storedFields.document(topDocs.scoreDocs[i].doc);
+                hits.add(toHit(doc, snippets[i]));
+            }
+            return hits;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            release(searcher);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.search.refresh-interval-ms:1000}")
+    public void refresh() {
+        try {
+            searcherManager.maybeRefresh();
+        } catch (IOException e) {
+            log.error("Failed to refresh message search index", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.search.commit-interval-ms:30000}")
+    public void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException e) {
+            log.error("Failed to commit message search index", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        commit();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    private Document toDocument(MessageDto message) {
+        Document doc = new Document();
+        doc.add(new StringField(FIELD_ID, message.getId().toString(), Field.Store.YES));
+        doc.add(new StringField(FIELD_GROUP, message.getGroupId().toString(), Field.Store.YES));
+        if (message.getSenderId() != null) {
+            doc.add(new StringField(FIELD_SENDER, message.getSenderId().toString(), Field.Store.YES));
+        }
+        if (message.getSenderNickname() != null) {
+            doc.add(new StoredField(FIELD_NICKNAME, message.getSenderNickname()));
+        }
+        doc.add(new StoredField(FIELD_TYPE, message.getMessageType().name()));
+
+        long createdAt = toMillis(message.getCreatedAt() != null ? message.getCreatedAt() : LocalDateTime.now());
+        doc.add(new LongPoint(FIELD_CREATED_AT, createdAt));
+        doc.add(new NumericDocValuesField(FIELD_CREATED_AT, createdAt));
+        doc.add(new StoredField(FIELD_CREATED_AT, createdAt));
+
+        doc.add(new Field(FIELD_CONTENT, message.getContent(), CONTENT_FIELD_TYPE));
+        return doc;
+    }
+
+    private MessageSearchHitDto toHit(Document doc, String snippet) {
+        MessageSearchHitDto hit = new MessageSearchHitDto();
+        hit.setId(UUID.fromString(doc.get(FIELD_ID)));
+        hit.setGroupId(UUID.fromString(doc.get(FIELD_GROUP)));
+        String senderId = doc.get(FIELD_SENDER);
+        hit.setSenderId(senderId != null ? UUID.fromString(senderId) : null);
+        hit.setSenderNickname(doc.get(FIELD_NICKNAME));
+        hit.setMessageType(MessageType.valueOf(doc.get(FIELD_TYPE)));
+        hit.setCreatedAt(LocalDateTime.ofInstant(
+            Instant.ofEpochMilli(doc.getField(FIELD_CREATED_AT).numericValue().longValue()), ZoneOffset.UTC));
+        hit.setSnippet(snippet);
+        return hit;
+    }
+
+    private IndexSearcher acquire() {
+        try {
+            return searcherManager.acquire();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void release(IndexSearcher searcher) {
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            log.warn("Failed to release index searcher", e);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,225 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.abao.dto.message.MessageSearchHitDto;
+import com.abao.entity.Message;
+import com.abao.entity.MessageContentCodec;
+import com.abao.entity.MessageType;
+import com.abao.entity.User;
+import com.abao.repository.GroupRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Message search on top of {@link MessageSearchIndex}. The index is fed after commit from
+ * MessageSentEvent and rebuilt from the database (hot and archived rows) when it starts out empty.
+ *
+ * Each node keeps its own index, and MessageSentEvent only reaches the node that took the message,
+ * so the index also catches up from the database by seq: every group whose last_seq is past its
+ * indexed-through checkpoint has the messages in between indexed. This picks up messages sent
+ * through other nodes and any whose indexing after commit failed.
+ */
+@Slf4j
+@Service
+public class MessageSearchService {
+
+    private static final int MAX_QUERY_LENGTH = 200;
+
+    private static final String BACKFILL_SQL = """
+        SELECT m.id, m.group_id, m.sender_id, u.nickname, m.content, m.content_compressed, m.message_type, m.created_at
+        FROM %s m
+        LEFT JOIN users u ON u.id = m.sender_id
+        WHERE m.message_type IN ('USER', 'AI')
+        """;
+
+    private static final String CATCH_UP_SQL = """
+        SELECT m.id, m.group_id, m.sender_id, u.nickname, m.content, m.content_compressed, m.message_type, m.created_at, m.seq
+        FROM messages m
+        LEFT JOIN users u ON u.id = m.sender_id
+        WHERE m.group_id = ? AND m.seq > ? AND m.seq <= ? AND m.message_type IN ('USER', 'AI')
+        ORDER BY m.seq
+        LIMIT ?
+        """;
+
+    private final MessageSearchIndex searchIndex;
+    private final GroupRepository groupRepository;
+    private final MembershipIndex membershipIndex;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    @Value("${app.search.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    @Value("${app.search.backfill-batch-size:1000}")
+    private int backfillBatchSize;
+
+    // Catching up before the startup backfill is done would index the hot table twice
+    private volatile boolean backfilled;
+
+    public MessageSearchService(MessageSearchIndex searchIndex,
+                                GroupRepository groupRepository,
+                                MembershipIndex membershipIndex,
+                                DataSource dataSource,
+                                PlatformTransactionManager transactionManager) {
+        this.searchIndex = searchIndex;
+        this.groupRepository = groupRepository;
+        this.membershipIndex = membershipIndex;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(500);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    public List<MessageSearchHitDto> search(UUID groupId, User user, String query, UUID senderId,
+                                            LocalDateTime from, LocalDateTime before, int limit) {
+        if (query == null || query.isBlank()) {
+            throw new RuntimeException("搜索关键词不能为空");
+        }
+        if (query.length() > MAX_QUERY_LENGTH) {
+            throw new RuntimeException("搜索关键词不能超过" + MAX_QUERY_LENGTH + "个字符");
+        }
+        if (!groupRepository.existsById(groupId)) {
+            throw new RuntimeException("群聊不存在");
+        }
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+
+        return searchIndex.search(groupId, query.trim(), senderId, from, before, limit);
+    }
+
+    /**
+     * Index a freshly committed message. System notices are not searchable.
+     */
+    public void index(Message message) {
+        if (message.getMessageType() == MessageType.SYSTEM) {
+            return;
+        }
+        searchIndex.index(List.of(MessageDto.fromEntity(message)));
+    }
+
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEmpty() {
+        if (!backfillOnStartup || !searchIndex.isEmpty()) {
+            backfilled = true;
+            return;
+        }
+
+        long started = System.currentTimeMillis();
+        // Read first: every message up to these seqs has committed, so the scan below includes it
+        Map<UUID, Long> lastSeqs = lastSeqs();
+        long[] count = {0};
+        List<MessageDto> batch = new ArrayList<>(backfillBatchSize);
+        readOnlyTransaction.executeWithoutResult(status -> {
+            // Archived rows stay searchable after retention moves them out of the hot table
+            for (String table : List.of("messages_archive", "messages")) {
+                jdbcTemplate.query(BACKFILL_SQL.formatted(table), rs -> {
+                    batch.add(toDto(rs));
+                    if (batch.size() >= backfillBatchSize) {
+                        count[0] += flush(batch);
+                    }
+                });
+            }
+        });
+        count[0] += flush(batch);
+
+        searchIndex.markIndexedThrough(lastSeqs);
+        searchIndex.commit();
+        searchIndex.refresh();
+        backfilled = true;
+        log.info("Message search index backfilled: messages={}, tookMs={}",
+            count[0], System.currentTimeMillis() - started);
+    }
+
+    /**
+     * Index messages committed since each group's checkpoint, whichever node took them. An index
+     * kept from before checkpoints existed starts at 0 and re-indexes the hot table once.
+     */
+    @Scheduled(fixedDelayString = "${app.search.catch-up-interval-ms:5000}")
+    public void catchUp() {
+        if (!backfilled) {
+            return;
+        }
+
+        long[] count = {0};
+        Map<UUID, Long> advanced = new HashMap<>();
+        List<MessageDto> batch = new ArrayList<>(backfillBatchSize);
+        lastSeqs().forEach((groupId, lastSeq) -> {
+            long after = searchIndex.indexedThrough(groupId);
+            if (lastSeq <= after) {
+                return;
+            }
+            // last_seq is read before the messages: seq is handed out under the group row lock, so
+            // everything up to it has committed
+            while (true) {
+                long[] through = {after};
+                jdbcTemplate.query(CATCH_UP_SQL, rs -> {
+                    batch.add(toDto(rs));
+                    through[0] = rs.getLong("seq");
+                }, groupId, after, lastSeq, backfillBatchSize);
+                int fetched = batch.size();
+                count[0] += flush(batch);
+                if (fetched < backfillBatchSize) {
+                    break;
+                }
+                after = through[0];
+            }
+            advanced.put(groupId, lastSeq);
+        });
+
+        searchIndex.markIndexedThrough(advanced);
+        if (count[0] > 0) {
+            log.debug("Message search index caught up: groups={}, messages={}", advanced.size(), count[0]);
+        }
+    }
+
+    private Map<UUID, Long> lastSeqs() {
+        Map<UUID, Long> lastSeqs = new HashMap<>();
+        jdbcTemplate.query("SELECT id, last_seq FROM groups WHERE last_seq > 0", rs -> {
+            lastSeqs.put(rs.getObject("id", UUID.class), rs.getLong("last_seq"));
+        });
+        return lastSeqs;
+    }
+
+    private static MessageDto toDto(ResultSet rs) throws SQLException {
+        MessageDto dto = new MessageDto();
+        dto.setId(rs.getObject("id", UUID.class));
+        dto.setGroupId(rs.getObject("group_id", UUID.class));
+        dto.setSenderId(rs.getObject("sender_id", UUID.class));
+        dto.setSenderNickname(rs.getString("nickname"));
+        dto.setContent(MessageContentCodec.read(rs.getString("content"), rs.getBytes("content_compressed")));
+        dto.setMessageType(MessageType.valueOf(rs.getString("message_type")));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        dto.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        return dto;
+    }
+
+    private int flush(List<MessageDto> batch) {
+        int size = batch.size();
+        if (size > 0) {
+            searchIndex.index(batch);
+            batch.clear();
+        }
+        return size;
+    }
+}
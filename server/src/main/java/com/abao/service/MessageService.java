@@ -3,20 +3,24 @@ package com.abao.service;
 import com.abao.dto.message.MessageDto;
 import com.abao.entity.*;
 import com.abao.event.MessageSentEvent;
+import com.abao.repository.ArchivedMessageRepository;
 import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageClientKeyRepository;
 import com.abao.repository.MessageRepository;
+import com.abao.repository.UserRepository;
 import com.abao.websocket.WebSocketSessionManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.time.LocalDateTime;
+import java.util.*;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -25,36 +29,80 @@ import java.util.stream.Collectors;
 public class MessageService {
 
     private final MessageRepository messageRepository;
+    private final MessageClientKeyRepository messageClientKeyRepository;
+    private final ArchivedMessageRepository archivedMessageRepository;
     private final GroupRepository groupRepository;
+    private final UserRepository userRepository;
     private final WebSocketSessionManager sessionManager;
     private final ApplicationEventPublisher eventPublisher;
+    private final MessageIdempotencyCache idempotencyCache;
+    private final MembershipIndex membershipIndex;
+    private final TransactionTemplate transactionTemplate;
+
+    private static final int CLIENT_MESSAGE_ID_MAX_LENGTH = 64;
+    private static final UUID NIL_UUID = new UUID(0, 0);
 
     @Transactional
     public MessageDto sendMessage(User sender, UUID groupId, String content, UUID replyToId) {
+        return sendMessage(sender, groupId, content, replyToId, null);
+    }
+
+    /**
+     * Send a user message. A non-null clientMessageId makes the call idempotent per sender:
+     * a retry returns the original message without persisting, broadcasting or triggering AI again.
+     * When two sends with the same id race, the one that loses on message_client_keys gets the winner's
+     * message back. Runs in its own transaction so that loser can still read it.
+     */
+    public MessageDto sendMessage(User sender, UUID groupId, String content, UUID replyToId, String clientMessageId) {
+        String key = normalizeClientMessageId(clientMessageId);
+        try {
+            return transactionTemplate.execute(status -> send(sender, groupId, content, replyToId, key));
+        } catch (DataIntegrityViolationException e) {
+            if (key == null) {
+                throw e;
+            }
+            MessageDto original = transactionTemplate.execute(status -> findPreviousSend(sender.getId(), key))
+                .orElseThrow(() -> e);
+            log.info("Concurrent duplicate send: senderId={}, clientMessageId={}, messageId={}",
+                sender.getId(), key, original.getId());
+            return original;
+        }
+    }
+
+    private MessageDto send(User sender, UUID groupId, String content, UUID replyToId, String clientMessageId) {
         Group group = groupRepository.findById(groupId)
             .orElseThrow(() -> new IllegalArgumentException("Group not found: " + groupId));
 
-        // Check if user is a member
-        boolean isMember = group.getMembers().stream()
-            .anyMatch(m -> m.getUser() != null && m.getUser().getId().equals(sender.getId()));
-
-        if (!isMember) {
+        // Before the duplicate lookup, so a removed member cannot read back an earlier send
+        if (!membershipIndex.isMember(groupId, sender.getId())) {
             throw new IllegalArgumentException("User is not a member of this group");
         }
 
+        if (clientMessageId != null) {
+            Optional<MessageDto> previous = findPreviousSend(sender.getId(), clientMessageId);
+            if (previous.isPresent()) {
+                log.info("Duplicate send ignored: senderId={}, clientMessageId={}, messageId={}",
+                    sender.getId(), clientMessageId, previous.get().getId());
+                return previous.get();
+            }
+        }
+
         Message message = new Message();
         message.setGroup(group);
         message.setSender(sender);
         message.setContent(content);
         message.setMessageType(MessageType.USER);
+        message.setClientMessageId(clientMessageId);
 
-        // Handle reply
-        if (replyToId != null) {
-            Message replyTo = messageRepository.findById(replyToId).orElse(null);
-            message.setReplyTo(replyTo);
-        }
+        attachReply(message, replyToId);
+        message.setSeq(groupRepository.nextSeq(groupId));
 
         Message saved = messageRepository.save(message);
+        if (clientMessageId != null) {
+            messageClientKeyRepository.save(new MessageClientKey(null, sender.getId(), clientMessageId, saved.getId(), null));
+            // Hit the unique key now rather than at commit, before anything is broadcast
+            messageClientKeyRepository.flush();
+        }
         MessageDto dto = MessageDto.fromEntity(saved);
 
         // Broadcast to group members via WebSocket
@@ -63,6 +111,10 @@ public class MessageService {
         log.info("Message sent: groupId={}, senderId={}, messageId={}",
             groupId, sender.getId(), saved.getId());
 
+        if (clientMessageId != null) {
+            idempotencyCache.remember(sender.getId(), clientMessageId, dto);
+        }
+
         // Publish event for AI processing
         eventPublisher.publishEvent(new MessageSentEvent(this, saved));
 
@@ -79,6 +131,7 @@ public class MessageService {
         message.setSender(null);
         message.setContent(content);
         message.setMessageType(MessageType.SYSTEM);
+        message.setSeq(groupRepository.nextSeq(groupId));
 
         Message saved = messageRepository.save(message);
         MessageDto dto = MessageDto.fromEntity(saved);
@@ -88,6 +141,9 @@ public class MessageService {
 
         log.info("System message sent: groupId={}, messageId={}", groupId, saved.getId());
 
+        // Not indexed or answered, but list summaries and other consumers still see it
+        eventPublisher.publishEvent(new MessageSentEvent(this, saved));
+
         return dto;
     }
 
@@ -102,10 +158,8 @@ public class MessageService {
         message.setContent(content);
         message.setMessageType(MessageType.AI);
 
-        if (replyToId != null) {
-            Message replyTo = messageRepository.findById(replyToId).orElse(null);
-            message.setReplyTo(replyTo);
-        }
+        attachReply(message, replyToId);
+        message.setSeq(groupRepository.nextSeq(groupId));
 
         Message saved = messageRepository.save(message);
         MessageDto dto = MessageDto.fromEntity(saved);
@@ -115,6 +169,9 @@ public class MessageService {
 
         log.info("AI message sent: groupId={}, messageId={}", groupId, saved.getId());
 
+        // Not an AI trigger (AIService ignores AI messages), but keeps search and other consumers complete
+        eventPublisher.publishEvent(new MessageSentEvent(this, saved));
+
         return dto;
     }
 
@@ -131,13 +188,107 @@ public class MessageService {
             .collect(Collectors.toList());
     }
 
+    /**
+     * Cursor-based history, newest first. The cursor is the createdAt and id of the oldest message
+     * already shown; without an id, everything at exactly {@code before} is excluded. Once the cursor
+     * passes the oldest hot message, the remainder is read from the archive so callers never see the
+     * retention boundary. Only members may read it.
+     */
+    @Transactional(readOnly = true)
+    public List<MessageDto> getHistory(UUID groupId, User user, LocalDateTime before, UUID beforeId, int limit) {
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            throw new RuntimeException("您不是该群聊成员");
+        }
+
+        LocalDateTime cursor = before != null ? before : LocalDateTime.now().plusSeconds(1);
+        // The smallest UUID, so no row at the cursor's timestamp sorts before it
+        UUID cursorId = before != null && beforeId != null ? beforeId : NIL_UUID;
+
+        List<MessageDto> history = new ArrayList<>(messageRepository.findHistoryBefore(groupId, cursor, cursorId, limit)
+            .stream()
+            .map(MessageDto::fromEntity)
+            .toList());
+
+        int remaining = limit - history.size();
+        if (remaining > 0) {
+            if (!history.isEmpty()) {
+                MessageDto oldest = history.get(history.size() - 1);
+                cursor = oldest.getCreatedAt();
+                cursorId = oldest.getId();
+            }
+            history.addAll(fromArchive(archivedMessageRepository.findHistoryBefore(groupId, cursor, cursorId, remaining)));
+        }
+        return history;
+    }
+
     @Transactional(readOnly = true)
     public MessageDto getMessage(UUID messageId) {
         return messageRepository.findById(messageId)
             .map(MessageDto::fromEntity)
+            .or(() -> archivedMessageRepository.findById(messageId)
+                .map(archived -> fromArchive(List.of(archived)).get(0)))
             .orElse(null);
     }
 
+    private List<MessageDto> fromArchive(List<ArchivedMessage> archived) {
+        if (archived.isEmpty()) {
+            return List.of();
+        }
+
+        // One lookup for all senders instead of one per row
+        Set<UUID> senderIds = archived.stream()
+            .map(ArchivedMessage::getSenderId)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+        Map<UUID, String> nicknames = new HashMap<>();
+        userRepository.findAllById(senderIds).forEach(u -> nicknames.put(u.getId(), u.getNickname()));
+
+        return archived.stream()
+            .map(a -> MessageDto.fromArchived(a, a.getSenderId() != null ? nicknames.get(a.getSenderId()) : null))
+            .toList();
+    }
+
+    /**
+     * Link a reply by reference and copy the parent's metadata from a narrow projection;
+     * the parent row itself is never loaded. Unknown (or archived) parents are dropped as before.
+     */
+    private void attachReply(Message message, UUID replyToId) {
+        if (replyToId == null) {
+            return;
+        }
+        messageRepository.findReplyMetadata(replyToId).ifPresent(parent -> message.setReplyReference(
+            messageRepository.getReferenceById(replyToId),
+            parent.messageType(),
+            parent.senderNickname(),
+            parent.contentPreview()));
+    }
+
+    private Optional<MessageDto> findPreviousSend(UUID senderId, String clientMessageId) {
+        Optional<MessageDto> cached = idempotencyCache.find(senderId, clientMessageId);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        // Outside the in-memory window, fall back to the persisted keys
+        Optional<MessageDto> persisted = messageClientKeyRepository.findRecent(
+                senderId, clientMessageId, idempotencyCache.persistedSince())
+            .map(key -> getMessage(key.getMessageId()));
+        persisted.ifPresent(dto -> idempotencyCache.remember(senderId, clientMessageId, dto));
+        return persisted;
+    }
+
+    private String normalizeClientMessageId(String clientMessageId) {
+        if (clientMessageId == null || clientMessageId.isBlank()) {
+            return null;
+        }
+        String trimmed = clientMessageId.trim();
+        if (trimmed.length() > CLIENT_MESSAGE_ID_MAX_LENGTH) {
+            throw new IllegalArgumentException("clientMessageId must be at most "
+                + CLIENT_MESSAGE_ID_MAX_LENGTH + " characters");
+        }
+        return trimmed;
+    }
+
     private void broadcastMessage(UUID groupId, MessageDto messageDto) {
         Map<String, Object> wsMessage = Map.of(
             "type", "NEW_MESSAGE",
@@ -0,0 +1,64 @@
+package com.abao.service;
+
+import com.abao.config.AiProviderProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Answers chat completion requests in-process the way an OpenAI-compatible server streams them:
+ * the configured reply a few characters per event, a usage chunk, then [DONE]. A non-200 mock status
+ * answers every request with that error instead, to stand in for a failing vendor.
+ */
+class MockAiExchange implements ExchangeFunction {
+
+    private static final int CHARS_PER_EVENT = 4;
+
+    private final AiProviderProperties.Provider config;
+    private final ObjectMapper objectMapper;
+
+    MockAiExchange(AiProviderProperties.Provider config, ObjectMapper objectMapper) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public Mono<ClientResponse> exchange(ClientRequest request) {
+        return Mono.delay(config.getMockLatency()).map(tick -> response());
+    }
+
+    private ClientResponse response() {
+        HttpStatus status = HttpStatus.valueOf(config.getMockStatus());
+        if (status != HttpStatus.OK) {
+            return ClientResponse.create(status).build();
+        }
+        StringBuilder body = new StringBuilder();
+        String reply = config.getMockReply();
+        for (int i = 0; i < reply.length(); i += CHARS_PER_EVENT) {
+            String delta = reply.substring(i, Math.min(reply.length(), i + CHARS_PER_EVENT));
+            event(body, Map.of("choices", new Object[] {Map.of("delta", Map.of("content", delta))}));
+        }
+        event(body, Map.of("choices", new Object[0],
+            "usage", Map.of("prompt_tokens", 0, "completion_tokens", reply.length())));
+        body.append("data: [DONE]\n\n");
+        return ClientResponse.create(HttpStatus.OK)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+            .body(body.toString())
+            .build();
+    }
+
+    private void event(StringBuilder body, Object chunk) {
+        try {
+            body.append("data: ").append(objectMapper.writeValueAsString(chunk)).append("\n\n");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
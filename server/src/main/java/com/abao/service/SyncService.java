@@ -0,0 +1,137 @@
+package com.abao.service;
+
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.message.MessageDto;
+import com.abao.dto.sync.GroupChangeDto;
+import com.abao.dto.sync.GroupSyncDto;
+import com.abao.dto.sync.SyncDto;
+import com.abao.dto.sync.SyncRequest;
+import com.abao.entity.Group;
+import com.abao.entity.GroupChange;
+import com.abao.entity.Message;
+import com.abao.entity.User;
+import com.abao.repository.GroupChangeRepository;
+import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * Delta sync for reconnecting clients. Every message and group change carries a per-group seq,
+ * and groups.last_seq tells up front which groups moved past the client's cursor, so the work
+ * done is proportional to what changed rather than to history size. Each call returns at most
+ * {@code limit} messages and changes; the rest is fetched with the continuation token.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SyncService {
+
+    static final int DEFAULT_LIMIT = 200;
+    static final int MAX_LIMIT = 500;
+
+    private static final TypeReference<Map<UUID, Long>> CURSORS_TYPE = new TypeReference<>() {};
+
+    private final GroupRepository groupRepository;
+    private final MessageRepository messageRepository;
+    private final GroupChangeRepository groupChangeRepository;
+    private final ObjectMapper objectMapper;
+
+    @Transactional(readOnly = true)
+    public SyncDto sync(User user, SyncRequest request) {
+        Map<UUID, Long> cursors = request.getContinuation() != null
+            ? decodeContinuation(request.getContinuation())
+            : Optional.ofNullable(request.getCursors()).orElse(Map.of());
+        int limit = request.getLimit() != null ? Math.max(1, Math.min(request.getLimit(), MAX_LIMIT)) : DEFAULT_LIMIT;
+
+        List<Group> groups = groupRepository.findByUserIdOrderByUpdatedAtDesc(user.getId());
+        List<UUID> groupIds = groups.stream().map(Group::getId).toList();
+        List<UUID> removedGroupIds = cursors.keySet().stream()
+            .filter(id -> !groupIds.contains(id))
+            .toList();
+
+        Map<UUID, Long> next = new LinkedHashMap<>();
+        groups.forEach(group -> next.put(group.getId(), cursors.getOrDefault(group.getId(), 0L)));
+
+        List<GroupSyncDto> changed = new ArrayList<>();
+        int budget = limit;
+        boolean hasMore = false;
+
+        for (Group group : groups) {
+            long after = next.get(group.getId());
+            if (group.getLastSeq() <= after) {
+                continue;
+            }
+            if (budget <= 0) {
+                hasMore = true;
+                break;
+            }
+
+            List<Message> messages = messageRepository.findAfterSeq(group.getId(), after, budget);
+            List<GroupChange> changes = groupChangeRepository.findAfterSeq(group.getId(), after, budget);
+            // Messages and changes share the group's seq, so the page ends at the budget-th of both merged
+            // and either list may hold entries past it; below the budget everything up to last_seq is here
+            long upTo = messages.size() + changes.size() >= budget
+                ? nthSeq(messages, changes, budget)
+                : group.getLastSeq();
+            messages = messages.stream().filter(m -> m.getSeq() <= upTo).toList();
+            changes = changes.stream().filter(c -> c.getSeq() <= upTo).toList();
+
+            budget -= messages.size() + changes.size();
+            next.put(group.getId(), upTo);
+            hasMore |= upTo < group.getLastSeq();
+
+            GroupSyncDto dto = new GroupSyncDto();
+            dto.setGroupId(group.getId());
+            dto.setMessages(messages.stream().map(MessageDto::fromEntity).toList());
+            dto.setChanges(changes.stream().map(GroupChangeDto::fromEntity).toList());
+            dto.setSeq(upTo);
+            dto.setLastSeq(group.getLastSeq());
+            changed.add(dto);
+
+            // Any change moves the member count or settings, so the summary goes along
+            if (!cursors.containsKey(group.getId()) || !changes.isEmpty()) {
+                dto.setGroup(GroupDto.fromEntity(group));
+            }
+        }
+
+        log.debug("Sync: userId={}, changedGroups={}, hasMore={}", user.getId(), changed.size(), hasMore);
+
+        return new SyncDto(changed, groupIds, removedGroupIds, hasMore, hasMore ? encodeContinuation(next) : null);
+    }
+
+    // Both lists are in ascending seq order
+    static long nthSeq(List<Message> messages, List<GroupChange> changes, int n) {
+        int m = 0;
+        int c = 0;
+        long seq = 0;
+        for (int taken = 0; taken < n; taken++) {
+            boolean takeMessage = c >= changes.size()
+                || (m < messages.size() && messages.get(m).getSeq() < changes.get(c).getSeq());
+            seq = takeMessage ? messages.get(m++).getSeq() : changes.get(c++).getSeq();
+        }
+        return seq;
+    }
+
+    private String encodeContinuation(Map<UUID, Long> cursors) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursors));
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to encode sync continuation", e);
+        }
+    }
+
+    private Map<UUID, Long> decodeContinuation(String continuation) {
+        try {
+            return objectMapper.readValue(Base64.getUrlDecoder().decode(continuation), CURSORS_TYPE);
+        } catch (Exception e) {
+            throw new RuntimeException("同步游标格式错误");
+        }
+    }
+}
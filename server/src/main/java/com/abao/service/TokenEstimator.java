@@ -0,0 +1,103 @@
+package com.abao.service;
+
+import java.lang.Character.UnicodeScript;
+
+/**
+ * Estimates prompt tokens for a byte-level BPE vocabulary such as DeepSeek's, without loading the
+ * vocabulary. Calibrated to err slightly high: an English word of up to five letters is one token,
+ * digits go in groups of three, a CJK character is 0.7 tokens, punctuation and line breaks one each,
+ * and characters outside the BMP (emoji) two. Costs are kept in tenths of a token.
+ */
+final class TokenEstimator {
+
+    // Role marker and separators the chat template adds around every message
+    static final int MESSAGE_OVERHEAD = 4;
+
+    static final String TRUNCATION_MARK = "…[内容过长，已截断]";
+
+    private TokenEstimator() {
+    }
+
+    static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int[] tenths = new int[1];
+        scan(text, Integer.MAX_VALUE, tenths);
+        return (tenths[0] + 9) / 10;
+    }
+
+    static int estimateMessage(String content) {
+        return MESSAGE_OVERHEAD + estimate(content);
+    }
+
+    /**
+     * The longest prefix that, with the truncation mark, fits in {@code maxTokens}; the text itself if it fits.
+     */
+    static String truncate(String text, int maxTokens) {
+        if (estimate(text) <= maxTokens) {
+            return text;
+        }
+        int limit = Math.max(0, maxTokens - estimate(TRUNCATION_MARK)) * 10;
+        return text.substring(0, scan(text, limit, new int[1])) + TRUNCATION_MARK;
+    }
+
+    /**
+     * Walks the text one token-ish piece at a time: a word, a digit group, a character.
+     *
+     * @return the index of the first piece that would exceed {@code limit} tenths, or the length
+     */
+    private static int scan(String text, int limit, int[] tenths) {
+        int total = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            int codePoint = text.codePointAt(i);
+            int cost;
+            if (codePoint == ' ') {
+                // Merged into the following word
+                i++;
+                cost = 0;
+            } else if (codePoint >= '0' && codePoint <= '9') {
+                while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    i++;
+                }
+                cost = 10 * ((i - start + 2) / 3);
+            } else if (Character.isWhitespace(codePoint)) {
+                while (i < length && Character.isWhitespace(text.charAt(i)) && text.charAt(i) != ' ') {
+                    i++;
+                }
+                cost = 10;
+            } else if (isCjk(codePoint)) {
+                i += Character.charCount(codePoint);
+                cost = 7;
+            } else if (Character.isLetter(codePoint)) {
+                while (i < length && Character.isLetter(text.codePointAt(i)) && !isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                cost = 10 * ((i - start + 4) / 5);
+            } else {
+                i += Character.charCount(codePoint);
+                cost = Character.isSupplementaryCodePoint(codePoint) ? 20 : 10;
+            }
+
+            if (total + cost > limit) {
+                tenths[0] = total;
+                return start;
+            }
+            total += cost;
+        }
+        tenths[0] = total;
+        return length;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        if (codePoint < 0x2E80) {
+            return false;
+        }
+        UnicodeScript script = UnicodeScript.of(codePoint);
+        return script == UnicodeScript.HAN || script == UnicodeScript.HIRAGANA
+            || script == UnicodeScript.KATAKANA || script == UnicodeScript.HANGUL;
+    }
+}
@@ -1,8 +1,8 @@
 package com.abao.websocket;
 
 import com.abao.entity.User;
-import com.abao.repository.UserRepository;
 import com.abao.security.JwtTokenProvider;
+import com.abao.security.UserPrincipalLoader;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
@@ -23,7 +23,7 @@ import java.util.UUID;
 public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
     private final JwtTokenProvider jwtTokenProvider;
-    private final UserRepository userRepository;
+    private final UserPrincipalLoader userPrincipalLoader;
 
     @Override
     public boolean beforeHandshake(
@@ -41,7 +41,7 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
         try {
             UUID userId = jwtTokenProvider.getUserIdFromToken(token);
-            User user = userRepository.findById(userId).orElse(null);
+            User user = userPrincipalLoader.load(userId);
 
             if (user == null) {
                 log.warn("WebSocket rejected - user not found for id={}", userId);
@@ -1,11 +1,22 @@
 package com.abao.websocket;
 
+import com.abao.dto.bootstrap.BootstrapDto;
+import com.abao.dto.group.GroupDto;
+import com.abao.dto.message.MessageDto;
+import com.abao.dto.sync.SyncDto;
+import com.abao.dto.sync.SyncRequest;
 import com.abao.entity.User;
+import com.abao.service.BootstrapService;
+import com.abao.service.MembershipIndex;
 import com.abao.service.MessageService;
+import com.abao.service.SyncService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -13,6 +24,7 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -23,6 +35,9 @@ import java.util.concurrent.ConcurrentHashMap;
 public class WebSocketHandler extends TextWebSocketHandler {
 
     private final MessageService messageService;
+    private final BootstrapService bootstrapService;
+    private final SyncService syncService;
+    private final MembershipIndex membershipIndex;
     private final ObjectMapper objectMapper;
     private final WebSocketSessionManager sessionManager;
 
@@ -43,11 +58,16 @@ public class WebSocketHandler extends TextWebSocketHandler {
             return;
         }
 
+        // Same principal as a REST request, so reads on this thread follow read-your-writes routing
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+            user, null, Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER"))));
         try {
             JsonNode json = objectMapper.readTree(message.getPayload());
             String type = json.has("type") ? json.get("type").asText() : "";
 
             switch (type) {
+                case "HELLO" -> handleHello(session, user, json);
+                case "SYNC" -> handleSync(session, user, json);
                 case "SEND_MESSAGE" -> handleSendMessage(session, user, json);
                 case "JOIN_GROUP" -> handleJoinGroup(session, user, json);
                 case "LEAVE_GROUP" -> handleLeaveGroup(session, user, json);
@@ -57,13 +77,51 @@ public class WebSocketHandler extends TextWebSocketHandler {
         } catch (Exception e) {
             log.error("Error handling WebSocket message", e);
             sendError(session, "Error processing message");
+        } finally {
+            SecurityContextHolder.clearContext();
         }
     }
 
+    /**
+     * Start-up handshake: subscribes the session to every group of the user and replies with
+     * the same snapshot as GET /api/bootstrap, replacing one JOIN_GROUP per group.
+     */
+    private void handleHello(WebSocketSession session, User user, JsonNode json) {
+        int recentLimit = json.has("recentLimit") ? json.get("recentLimit").asInt() : 20;
+
+        BootstrapDto bootstrap = bootstrapService.bootstrap(user, recentLimit);
+        for (GroupDto group : bootstrap.getGroups()) {
+            sessionManager.joinGroup(user.getId(), group.getId());
+        }
+
+        sendMessage(session, Map.of(
+            "type", "HELLO",
+            "bootstrap", bootstrap
+        ));
+    }
+
+    /**
+     * Reconnect handshake for clients that kept state: same payload as POST /api/sync,
+     * and the session is subscribed to the user's current groups.
+     */
+    private void handleSync(WebSocketSession session, User user, JsonNode json) throws IOException {
+        SyncRequest request = objectMapper.treeToValue(json, SyncRequest.class);
+
+        SyncDto sync = syncService.sync(user, request);
+        sync.getGroupIds().forEach(groupId -> sessionManager.joinGroup(user.getId(), groupId));
+        sync.getRemovedGroupIds().forEach(groupId -> sessionManager.leaveGroup(user.getId(), groupId));
+
+        sendMessage(session, Map.of(
+            "type", "SYNC",
+            "sync", sync
+        ));
+    }
+
     private void handleSendMessage(WebSocketSession session, User user, JsonNode json) {
         String groupIdStr = json.has("groupId") ? json.get("groupId").asText() : null;
         String content = json.has("content") ? json.get("content").asText() : null;
         String replyToIdStr = json.has("replyToId") ? json.get("replyToId").asText() : null;
+        String clientMessageId = json.has("clientMessageId") ? json.get("clientMessageId").asText() : null;
 
         if (groupIdStr == null || content == null || content.trim().isEmpty()) {
             sendError(session, "Missing groupId or content");
@@ -75,7 +133,16 @@ public class WebSocketHandler extends TextWebSocketHandler {
             ? UUID.fromString(replyToIdStr)
             : null;
 
-        messageService.sendMessage(user, groupId, content.trim(), replyToId);
+        MessageDto sent = messageService.sendMessage(user, groupId, content.trim(), replyToId, clientMessageId);
+
+        // Ack keyed sends so a retrying client can reconcile even when the broadcast was deduplicated
+        if (clientMessageId != null && !clientMessageId.isBlank()) {
+            sendMessage(session, Map.of(
+                "type", "MESSAGE_ACK",
+                "clientMessageId", clientMessageId,
+                "message", sent
+            ));
+        }
     }
 
     private void handleJoinGroup(WebSocketSession session, User user, JsonNode json) {
@@ -86,6 +153,10 @@ public class WebSocketHandler extends TextWebSocketHandler {
         }
 
         UUID groupId = UUID.fromString(groupIdStr);
+        if (!membershipIndex.isMember(groupId, user.getId())) {
+            sendError(session, "Not a member of this group");
+            return;
+        }
         sessionManager.joinGroup(user.getId(), groupId);
 
         sendMessage(session, Map.of(
@@ -1,8 +1,10 @@
 package com.abao.websocket;
 
+import com.abao.service.MembershipIndex;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -11,21 +13,27 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Live sessions and group subscriptions. Subscriptions are roaring bitmaps over the dense
+ * user/group ids of {@link MembershipIndex}; every access to a bitmap synchronizes on it, and
+ * fan-out iterates a private snapshot.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class WebSocketSessionManager {
 
     private final ObjectMapper objectMapper;
+    private final MembershipIndex membershipIndex;
 
     // userId -> WebSocketSession
     private final Map<UUID, WebSocketSession> userSessions = new ConcurrentHashMap<>();
 
-    // groupId -> Set<userId>
-    private final Map<UUID, Set<UUID>> groupMembers = new ConcurrentHashMap<>();
+    // group -> subscribed users
+    private final Map<Integer, RoaringBitmap> groupSubscribers = new ConcurrentHashMap<>();
 
-    // userId -> Set<groupId>
-    private final Map<UUID, Set<UUID>> userGroups = new ConcurrentHashMap<>();
+    // user -> subscribed groups
+    private final Map<Integer, RoaringBitmap> userSubscriptions = new ConcurrentHashMap<>();
 
     public void addSession(UUID userId, WebSocketSession session) {
         userSessions.put(userId, session);
@@ -33,39 +41,65 @@ public class WebSocketSessionManager {
 
     public void removeSession(UUID userId) {
         userSessions.remove(userId);
+        int user = membershipIndex.userId(userId);
 
         // Remove from all groups
-        Set<UUID> groups = userGroups.remove(userId);
+        RoaringBitmap groups = userSubscriptions.remove(user);
         if (groups != null) {
-            for (UUID groupId : groups) {
-                Set<UUID> members = groupMembers.get(groupId);
-                if (members != null) {
-                    members.remove(userId);
+            synchronized (groups) {
+                for (int group : groups) {
+                    RoaringBitmap subscribers = groupSubscribers.get(group);
+                    if (subscribers != null) {
+                        synchronized (subscribers) {
+                            subscribers.remove(user);
+                        }
+                    }
                 }
             }
         }
     }
 
     public void joinGroup(UUID userId, UUID groupId) {
-        groupMembers.computeIfAbsent(groupId, k -> ConcurrentHashMap.newKeySet()).add(userId);
-        userGroups.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(groupId);
+        int user = membershipIndex.userId(userId);
+        int group = membershipIndex.groupId(groupId);
+        RoaringBitmap subscribers = groupSubscribers.computeIfAbsent(group, k -> new RoaringBitmap());
+        synchronized (subscribers) {
+            subscribers.add(user);
+        }
+        RoaringBitmap groups = userSubscriptions.computeIfAbsent(user, k -> new RoaringBitmap());
+        synchronized (groups) {
+            groups.add(group);
+        }
     }
 
     public void leaveGroup(UUID userId, UUID groupId) {
-        Set<UUID> members = groupMembers.get(groupId);
-        if (members != null) {
-            members.remove(userId);
+        int user = membershipIndex.userId(userId);
+        int group = membershipIndex.groupId(groupId);
+        RoaringBitmap subscribers = groupSubscribers.get(group);
+        if (subscribers != null) {
+            synchronized (subscribers) {
+                subscribers.remove(user);
+            }
         }
 
-        Set<UUID> groups = userGroups.get(userId);
+        RoaringBitmap groups = userSubscriptions.get(user);
         if (groups != null) {
-            groups.remove(groupId);
+            synchronized (groups) {
+                groups.remove(group);
+            }
         }
     }
 
     public void broadcastToGroup(UUID groupId, Object message) {
-        Set<UUID> members = groupMembers.get(groupId);
-        if (members == null || members.isEmpty()) {
+        RoaringBitmap subscribers = groupSubscribers.get(membershipIndex.groupId(groupId));
+        if (subscribers == null) {
+            return;
+        }
+        RoaringBitmap targets;
+        synchronized (subscribers) {
+            targets = subscribers.clone();
+        }
+        if (targets.isEmpty()) {
             return;
         }
 
@@ -79,7 +113,8 @@ public class WebSocketSessionManager {
 
         TextMessage textMessage = new TextMessage(messageJson);
 
-        for (UUID userId : members) {
+        for (int user : targets) {
+            UUID userId = membershipIndex.userUuid(user);
             WebSocketSession session = userSessions.get(userId);
             if (session != null && session.isOpen()) {
                 try {
@@ -109,19 +144,4 @@ public class WebSocketSessionManager {
         WebSocketSession session = userSessions.get(userId);
         return session != null && session.isOpen();
     }
-
-    public Set<UUID> getOnlineGroupMembers(UUID groupId) {
-        Set<UUID> members = groupMembers.get(groupId);
-        if (members == null) {
-            return Collections.emptySet();
-        }
-
-        Set<UUID> online = new HashSet<>();
-        for (UUID userId : members) {
-            if (isUserOnline(userId)) {
-                online.add(userId);
-            }
-        }
-        return online;
-    }
 }
@@ -18,11 +18,17 @@ CREATE TABLE IF NOT EXISTS users (
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Invite code counter; the server reserves 50 values per call and permutes them into codes
+CREATE SEQUENCE IF NOT EXISTS invite_code_seq START WITH 1 INCREMENT BY 50;
+
 -- Groups table
 CREATE TABLE IF NOT EXISTS groups (
     id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
     name VARCHAR(50) NOT NULL,
     invite_code VARCHAR(10) NOT NULL UNIQUE,
+    retention_days INTEGER, -- NULL = server default
+    member_count INTEGER NOT NULL DEFAULT 0, -- rows in group_members, maintained by the application
+    last_seq BIGINT NOT NULL DEFAULT 0, -- last sequence number handed out to a message or change of this group
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
@@ -33,18 +39,73 @@ CREATE TABLE IF NOT EXISTS group_members (
     group_id UUID NOT NULL REFERENCES groups(id) ON DELETE CASCADE,
     user_id UUID REFERENCES users(id) ON DELETE CASCADE,
     is_ai BOOLEAN DEFAULT FALSE,
+    role VARCHAR(20) NOT NULL DEFAULT 'MEMBER', -- OWNER, ADMIN, MEMBER
     joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_read_at TIMESTAMP,
     UNIQUE(group_id, user_id)
 );
 
--- Messages table
+-- Messages table, range-partitioned by month on created_at.
+-- Monthly partitions (messages_pYYYY_MM) are created ahead of time by the server.
+-- Every unique index must contain the partition key, hence the composite primary key
+-- and no self-referencing foreign key on reply_to_id.
 CREATE TABLE IF NOT EXISTS messages (
-    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    id UUID NOT NULL DEFAULT uuid_generate_v4(),
     group_id UUID NOT NULL REFERENCES groups(id) ON DELETE CASCADE,
     sender_id UUID REFERENCES users(id) ON DELETE SET NULL,
-    content TEXT NOT NULL,
+    content TEXT, -- body below 1 KiB, otherwise NULL
+    content_compressed BYTEA, -- LZ4-compressed body of 1 KiB and more
+    content_preview VARCHAR(64), -- first 50 characters, for list and reply previews
     message_type VARCHAR(20) DEFAULT 'USER', -- USER, AI, SYSTEM
-    reply_to_id UUID REFERENCES messages(id) ON DELETE SET NULL,
+    reply_to_id UUID, -- cleared by the application when the parent is archived
+    reply_to_type VARCHAR(20), -- parent's type, sender and preview copied at write time
+    reply_to_sender_nickname VARCHAR(50),
+    reply_to_preview VARCHAR(64),
+    client_message_id VARCHAR(64), -- client-generated idempotency key
+    seq BIGINT, -- per-group sequence number, the delta sync cursor
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at),
+    CONSTRAINT chk_messages_content CHECK (content IS NOT NULL OR content_compressed IS NOT NULL)
+) PARTITION BY RANGE (created_at);
+
+-- Catches rows outside every monthly partition so inserts never fail
+CREATE TABLE IF NOT EXISTS messages_default PARTITION OF messages DEFAULT;
+
+-- Archived messages (moved out of messages by retention; plain ids, no foreign keys)
+CREATE TABLE IF NOT EXISTS messages_archive (
+    id UUID PRIMARY KEY,
+    group_id UUID NOT NULL,
+    sender_id UUID,
+    content TEXT,
+    content_compressed BYTEA,
+    content_preview VARCHAR(64),
+    message_type VARCHAR(20),
+    reply_to_id UUID,
+    reply_to_type VARCHAR(20),
+    reply_to_sender_nickname VARCHAR(50),
+    reply_to_preview VARCHAR(64),
+    client_message_id VARCHAR(64),
+    created_at TIMESTAMP,
+    archived_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Membership and metadata changes per group, numbered from the same sequence as messages
+CREATE TABLE IF NOT EXISTS group_changes (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    group_id UUID NOT NULL REFERENCES groups(id) ON DELETE CASCADE,
+    seq BIGINT NOT NULL,
+    change_type VARCHAR(20) NOT NULL, -- MEMBER_JOINED, MEMBER_LEFT, GROUP_UPDATED
+    user_id UUID,
+    user_nickname VARCHAR(50),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Rolling AI summary of a group's conversation; each row covers everything up to through_seq
+CREATE TABLE IF NOT EXISTS conversation_summaries (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    group_id UUID NOT NULL REFERENCES groups(id) ON DELETE CASCADE,
+    through_seq BIGINT NOT NULL,
+    content TEXT NOT NULL,
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
@@ -57,13 +118,88 @@ CREATE TABLE IF NOT EXISTS refresh_tokens (
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Upgrade existing databases (safe to re-run)
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_message_id VARCHAR(64);
+ALTER TABLE groups ADD COLUMN IF NOT EXISTS retention_days INTEGER;
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_compressed BYTEA;
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_preview VARCHAR(64);
+ALTER TABLE messages ALTER COLUMN content DROP NOT NULL;
+ALTER TABLE messages_archive ADD COLUMN IF NOT EXISTS content_compressed BYTEA;
+ALTER TABLE messages_archive ADD COLUMN IF NOT EXISTS content_preview VARCHAR(64);
+ALTER TABLE messages_archive ALTER COLUMN content DROP NOT NULL;
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_type VARCHAR(20);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_sender_nickname VARCHAR(50);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_preview VARCHAR(64);
+ALTER TABLE messages_archive ADD COLUMN IF NOT EXISTS reply_to_type VARCHAR(20);
+ALTER TABLE messages_archive ADD COLUMN IF NOT EXISTS reply_to_sender_nickname VARCHAR(50);
+ALTER TABLE messages_archive ADD COLUMN IF NOT EXISTS reply_to_preview VARCHAR(64);
+ALTER TABLE group_members ADD COLUMN IF NOT EXISTS last_read_at TIMESTAMP;
+ALTER TABLE group_members ADD COLUMN IF NOT EXISTS role VARCHAR(20) NOT NULL DEFAULT 'MEMBER';
+ALTER TABLE groups ADD COLUMN IF NOT EXISTS last_seq BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE groups ADD COLUMN IF NOT EXISTS member_count INTEGER NOT NULL DEFAULT 0;
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS seq BIGINT;
+UPDATE messages
+SET content_preview = LEFT(content, 50) || CASE WHEN LENGTH(content) > 50 THEN '...' ELSE '' END
+WHERE content_preview IS NULL AND content IS NOT NULL;
+UPDATE messages reply
+SET reply_to_type = parent.message_type,
+    reply_to_preview = parent.content_preview,
+    reply_to_sender_nickname = u.nickname
+FROM messages parent
+LEFT JOIN users u ON u.id = parent.sender_id
+WHERE reply.reply_to_id = parent.id AND reply.reply_to_type IS NULL;
+UPDATE messages m
+SET seq = numbered.rn + g.last_seq
+FROM (SELECT id, group_id, ROW_NUMBER() OVER (PARTITION BY group_id ORDER BY created_at, id) AS rn
+      FROM messages WHERE seq IS NULL) numbered
+JOIN groups g ON g.id = numbered.group_id
+WHERE m.id = numbered.id AND m.seq IS NULL;
+-- Groups from before roles: the longest-standing human member becomes the owner
+UPDATE group_members gm
+SET role = 'OWNER'
+FROM (SELECT DISTINCT ON (group_id) id FROM group_members
+      WHERE is_ai = FALSE AND user_id IS NOT NULL
+      ORDER BY group_id, joined_at, id) first_member
+WHERE gm.id = first_member.id
+  AND NOT EXISTS (SELECT 1 FROM group_members o WHERE o.group_id = gm.group_id AND o.role = 'OWNER');
+UPDATE groups g
+SET member_count = (SELECT COUNT(*) FROM group_members gm WHERE gm.group_id = g.id)
+WHERE g.member_count = 0;
+UPDATE groups g
+SET last_seq = sub.max_seq
+FROM (SELECT group_id, MAX(seq) AS max_seq FROM messages GROUP BY group_id) sub
+WHERE g.id = sub.group_id AND g.last_seq < sub.max_seq;
+
 -- Create indexes
 CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
+-- Idempotency keys live outside the partitioned messages table so one unique constraint covers every month
+CREATE TABLE IF NOT EXISTS message_client_keys (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    sender_id UUID NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    client_message_id VARCHAR(64) NOT NULL,
+    message_id UUID NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT uq_message_client_keys_sender_client_id UNIQUE (sender_id, client_message_id)
+);
+
 CREATE INDEX IF NOT EXISTS idx_groups_invite_code ON groups(invite_code);
 CREATE INDEX IF NOT EXISTS idx_group_members_group_user ON group_members(group_id, user_id);
 CREATE INDEX IF NOT EXISTS idx_group_members_user ON group_members(user_id);
+CREATE INDEX IF NOT EXISTS idx_group_members_group_joined ON group_members(group_id, joined_at, id);
 CREATE INDEX IF NOT EXISTS idx_messages_group_created ON messages(group_id, created_at DESC);
 CREATE INDEX IF NOT EXISTS idx_messages_reply ON messages(reply_to_id);
+CREATE INDEX IF NOT EXISTS idx_messages_group_seq ON messages(group_id, seq);
+CREATE INDEX IF NOT EXISTS idx_group_changes_group_seq ON group_changes(group_id, seq);
+CREATE INDEX IF NOT EXISTS idx_conversation_summaries_group_seq ON conversation_summaries(group_id, through_seq DESC);
+-- Superseded by message_client_keys, which is unique across all partitions
+DROP INDEX IF EXISTS uq_messages_default_sender_client_id;
+CREATE INDEX IF NOT EXISTS idx_message_client_keys_created ON message_client_keys(created_at);
+-- Carry over keys of recent sends so retries across the upgrade are still recognised
+INSERT INTO message_client_keys (sender_id, client_message_id, message_id, created_at)
+SELECT sender_id, client_message_id, id, created_at FROM messages
+WHERE client_message_id IS NOT NULL AND sender_id IS NOT NULL AND created_at >= CURRENT_TIMESTAMP - INTERVAL '7 days'
+ON CONFLICT (sender_id, client_message_id) DO NOTHING;
+CREATE INDEX IF NOT EXISTS idx_messages_archive_group_created ON messages_archive(group_id, created_at DESC);
 CREATE INDEX IF NOT EXISTS idx_refresh_tokens_user ON refresh_tokens(user_id);
 CREATE INDEX IF NOT EXISTS idx_refresh_tokens_token ON refresh_tokens(token);
 
@@ -0,0 +1,79 @@
+-- One-off migration: convert an existing, unpartitioned messages table to monthly range partitions.
+-- New databases get the partitioned layout straight from init.sql and do not need this.
+-- Run during a maintenance window with the server stopped:
+--   psql -U postgres -d abao -f migrate-partition-messages.sql
+
+BEGIN;
+
+-- Bring the old table up to the current column set first
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_message_id VARCHAR(64);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_compressed BYTEA;
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_preview VARCHAR(64);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_type VARCHAR(20);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_sender_nickname VARCHAR(50);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS reply_to_preview VARCHAR(64);
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS seq BIGINT;
+
+ALTER TABLE messages RENAME TO messages_unpartitioned;
+ALTER INDEX IF EXISTS messages_pkey RENAME TO messages_unpartitioned_pkey;
+ALTER TABLE messages_unpartitioned DROP CONSTRAINT IF EXISTS messages_reply_to_id_fkey;
+
+CREATE TABLE messages (
+    id UUID NOT NULL DEFAULT uuid_generate_v4(),
+    group_id UUID NOT NULL REFERENCES groups(id) ON DELETE CASCADE,
+    sender_id UUID REFERENCES users(id) ON DELETE SET NULL,
+    content TEXT,
+    content_compressed BYTEA,
+    content_preview VARCHAR(64),
+    message_type VARCHAR(20) DEFAULT 'USER',
+    reply_to_id UUID,
+    reply_to_type VARCHAR(20),
+    reply_to_sender_nickname VARCHAR(50),
+    reply_to_preview VARCHAR(64),
+    client_message_id VARCHAR(64),
+    seq BIGINT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at),
+    CONSTRAINT chk_messages_content CHECK (content IS NOT NULL OR content_compressed IS NOT NULL)
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE messages_default PARTITION OF messages DEFAULT;
+CREATE UNIQUE INDEX uq_messages_default_sender_client_id ON messages_default(sender_id, client_message_id);
+
+-- One partition per month that already holds data, plus the current one
+DO $$
+DECLARE
+    month_start DATE;
+    last_month DATE := date_trunc('month', CURRENT_DATE);
+    partition_name TEXT;
+BEGIN
+    SELECT COALESCE(date_trunc('month', MIN(created_at)), last_month) INTO month_start FROM messages_unpartitioned;
+    WHILE month_start <= last_month LOOP
+        partition_name := 'messages_p' || to_char(month_start, 'YYYY_MM');
+        EXECUTE format('CREATE TABLE %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+                       partition_name, month_start, month_start + INTERVAL '1 month');
+        EXECUTE format('CREATE UNIQUE INDEX %I ON %I (sender_id, client_message_id)',
+                       'uq_' || partition_name || '_sender_client_id', partition_name);
+        month_start := month_start + INTERVAL '1 month';
+    END LOOP;
+END $$;
+
+INSERT INTO messages (id, group_id, sender_id, content, content_compressed, content_preview, message_type,
+                      reply_to_id, reply_to_type, reply_to_sender_nickname, reply_to_preview,
+                      client_message_id, seq, created_at)
+SELECT id, group_id, sender_id, content, content_compressed,
+       COALESCE(content_preview, LEFT(content, 50) || CASE WHEN LENGTH(content) > 50 THEN '...' ELSE '' END),
+       message_type, reply_to_id, reply_to_type, reply_to_sender_nickname, reply_to_preview,
+       client_message_id, seq,
+       COALESCE(created_at, CURRENT_TIMESTAMP)
+FROM messages_unpartitioned;
+
+DROP TABLE messages_unpartitioned;
+
+CREATE INDEX IF NOT EXISTS idx_messages_group_created ON messages(group_id, created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_messages_reply ON messages(reply_to_id);
+CREATE INDEX IF NOT EXISTS idx_messages_group_seq ON messages(group_id, seq);
+
+COMMIT;
+
+ANALYZE messages;
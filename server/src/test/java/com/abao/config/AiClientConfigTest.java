@@ -0,0 +1,29 @@
+package com.abao.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for AiClientConfig — the AI client is an injected bean (S9), now a pooled WebClient.
+ */
+class AiClientConfigTest {
+
+    @Test
+    void aiClientConfigClass_HasConfigurationAnnotation() {
+        assertThat(AiClientConfig.class.getAnnotation(Configuration.class)).isNotNull();
+    }
+
+    @Test
+    void aiClientConfigClass_HasAiWebClientBean() {
+        boolean hasBeanMethod = Arrays.stream(AiClientConfig.class.getDeclaredMethods())
+            .map(method -> method.getAnnotation(Bean.class))
+            .filter(bean -> bean != null)
+            .anyMatch(bean -> Arrays.asList(bean.value()).contains("aiWebClient"));
+        assertThat(hasBeanMethod).isTrue();
+    }
+}
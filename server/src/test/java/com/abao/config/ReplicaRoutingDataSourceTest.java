@@ -0,0 +1,107 @@
+package com.abao.config;
+
+import com.abao.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReadYourWritesTracker tracker = new ReadYourWritesTracker(Duration.ofSeconds(5), null);
+    private ReplicaRoutingDataSource router;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica-0", mock(DataSource.class));
+        replicas.put("replica-1", mock(DataSource.class));
+        router = new ReplicaRoutingDataSource(mock(DataSource.class), replicas, Duration.ofSeconds(2), tracker, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void route_UncheckedReplicas_UsePrimary() {
+        assertThat(router.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+    }
+
+    @Test
+    void route_HealthyReplicas_RoundRobin() {
+        router.recordLag("replica-0", 0);
+        router.recordLag("replica-1", 100);
+
+        List<Object> targets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            targets.add(router.determineCurrentLookupKey());
+        }
+
+        assertThat(targets).containsExactly("replica-0", "replica-1", "replica-0", "replica-1");
+        assertThat(meterRegistry.get("datasource.routing.reads").tag("target", "replica-1").counter().count())
+            .isEqualTo(2);
+    }
+
+    @Test
+    void route_LaggingOrUnreachableReplica_IsSkipped() {
+        router.recordLag("replica-0", 5000);
+        router.recordLag("replica-1", 0);
+
+        assertThat(router.determineCurrentLookupKey()).isEqualTo("replica-1");
+
+        router.recordLag("replica-1", -1);
+
+        assertThat(router.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+        assertThat(meterRegistry.get("datasource.replica.lag").tag("replica", "replica-0").gauge().value())
+            .isEqualTo(5000);
+    }
+
+    @Test
+    void route_UserWhoJustWrote_StaysOnPrimary() {
+        router.recordLag("replica-0", 0);
+        router.recordLag("replica-1", 0);
+        User writer = new User();
+        writer.setId(UUID.randomUUID());
+        SecurityContextHolder.getContext().setAuthentication(
+            new UsernamePasswordAuthenticationToken(writer, null, List.of()));
+
+        tracker.markWrite(writer.getId());
+
+        assertThat(router.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+        assertThat(meterRegistry.get("datasource.routing.reads").tag("reason", "read-your-writes").counter().count())
+            .isEqualTo(1);
+    }
+
+    @Test
+    void markWrite_OnAnotherNode_PinsTheUserHere() {
+        SharedCacheStore store = new LocalSharedCacheStore();
+        ObjectMapper objectMapper = new ObjectMapper();
+        ReadYourWritesTracker otherNode = new ReadYourWritesTracker(
+            Duration.ofSeconds(5), new CacheInvalidationBus(store, objectMapper));
+        ReadYourWritesTracker thisNode = new ReadYourWritesTracker(
+            Duration.ofSeconds(5), new CacheInvalidationBus(store, objectMapper));
+        UUID writer = UUID.randomUUID();
+
+        otherNode.markWrite(writer);
+
+        assertThat(thisNode.isSticky(writer)).isTrue();
+        assertThat(thisNode.isSticky(UUID.randomUUID())).isFalse();
+    }
+}
@@ -0,0 +1,150 @@
+package com.abao.config;
+
+import com.abao.dto.group.GroupDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Two "nodes" sharing one in-process store, as two instances would share Redis.
+ */
+class TieredCacheTest {
+
+    private final LocalSharedCacheStore sharedStore = new LocalSharedCacheStore();
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final TieredCache nodeA = node();
+    private final TieredCache nodeB = node();
+
+    private final UUID key = UUID.randomUUID();
+
+    @Test
+    void fillOnOneNode_IsReadFromSharedTierOnAnother() {
+        nodeA.put(key, summary("Shared"));
+
+        GroupDto fromB = nodeB.get(key, GroupDto.class);
+
+        assertThat(fromB).isNotNull();
+        assertThat(fromB.getName()).isEqualTo("Shared");
+        assertThat(nodeB.getNativeCache().getIfPresent(key.toString())).isNotNull();
+        assertThat(meterRegistry.get("cache.l2.gets").tag("result", "hit").counters())
+            .anySatisfy(counter -> assertThat(counter.count()).isPositive());
+    }
+
+    @Test
+    void evictOnOneNode_DropsLocalCopyEverywhere() {
+        nodeA.put(key, summary("Old"));
+        assertThat(nodeB.get(key, GroupDto.class)).isNotNull();
+
+        nodeA.evict(key);
+
+        assertThat(nodeB.getNativeCache().getIfPresent(key.toString())).isNull();
+        assertThat(nodeB.get(key, GroupDto.class)).isNull();
+        GroupDto reloaded = nodeB.get(key, () -> summary("New"));
+        assertThat(reloaded.getName()).isEqualTo("New");
+    }
+
+    @Test
+    void concurrentLoads_RunTheLoaderOnceAcrossNodes() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        Callable<GroupDto> loader = () -> {
+            loads.incrementAndGet();
+            Thread.sleep(100);
+            return summary("Loaded");
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<GroupDto>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                Cache node = i % 2 == 0 ? nodeA : nodeB;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return node.get(key, loader);
+                }));
+            }
+            start.countDown();
+
+            for (Future<GroupDto> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).getName()).isEqualTo("Loaded");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void loaderFailure_IsNotCached() {
+        assertThatThrownBy(() -> nodeA.get(key, () -> {
+            throw new RuntimeException("群聊不存在");
+        }))
+            .isInstanceOf(Cache.ValueRetrievalException.class)
+            .hasRootCauseMessage("群聊不存在");
+
+        assertThat(nodeA.get(key, () -> summary("Later")).getName()).isEqualTo("Later");
+    }
+
+    @Test
+    void slowLoad_DoesNotHoldUpOtherKeys() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<GroupDto> slow = executor.submit(() -> nodeA.get(key, () -> {
+                release.await();
+                return summary("Slow");
+            }));
+
+            // Every other key, whatever its hash bin, is served while the slow load is waiting
+            for (int i = 0; i < 64; i++) {
+                String name = "Other" + i;
+                assertThat(nodeA.get(UUID.randomUUID(), () -> summary(name)).getName()).isEqualTo(name);
+            }
+            assertThat(slow.isDone()).isFalse();
+
+            release.countDown();
+            assertThat(slow.get(5, TimeUnit.SECONDS).getName()).isEqualTo("Slow");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void evictDuringLoad_DropsTheLoadedValue() {
+        GroupDto loaded = nodeA.get(key, () -> {
+            // The change commits and evicts while the old row is being turned into a value
+            nodeA.evict(key);
+            return summary("Stale");
+        });
+
+        assertThat(loaded.getName()).isEqualTo("Stale");
+        assertThat(nodeA.getNativeCache().getIfPresent(key.toString())).isNull();
+        assertThat(nodeB.get(key, GroupDto.class)).isNull();
+    }
+
+    private TieredCache node() {
+        return new TieredCache("group-summaries", Caffeine.newBuilder().recordStats().build(), true,
+            GroupDto.class, sharedStore, new CacheInvalidationBus(sharedStore, objectMapper), objectMapper,
+            new CacheSpecProperties.L2(), meterRegistry);
+    }
+
+    private static GroupDto summary(String name) {
+        GroupDto dto = new GroupDto();
+        dto.setName(name);
+        return dto;
+    }
+}
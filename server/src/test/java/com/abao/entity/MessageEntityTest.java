@@ -84,4 +84,76 @@ class MessageEntityTest {
         assertThat(savedReply.getReplyTo()).isNotNull();
         assertThat(savedReply.getReplyTo().getId()).isEqualTo(originalMessage.getId());
     }
+
+    @Test
+    void shouldKeepReplyMetadataAfterParentIsArchived() {
+        Message originalMessage = new Message();
+        originalMessage.setGroup(group);
+        originalMessage.setSender(user);
+        originalMessage.setContent("Original message");
+        originalMessage.setMessageType(MessageType.AI);
+        originalMessage = entityManager.persistAndFlush(originalMessage);
+
+        Message replyMessage = new Message();
+        replyMessage.setGroup(group);
+        replyMessage.setSender(user);
+        replyMessage.setContent("Reply to original");
+        replyMessage.setMessageType(MessageType.USER);
+        replyMessage.setReplyTo(originalMessage);
+        Message savedReply = entityManager.persistAndFlush(replyMessage);
+
+        // What the archiver does to replies of a parent it moves out
+        entityManager.getEntityManager()
+            .createNativeQuery("UPDATE messages SET reply_to_id = NULL WHERE id = :id")
+            .setParameter("id", savedReply.getId())
+            .executeUpdate();
+        entityManager.clear();
+        Message reloaded = entityManager.find(Message.class, savedReply.getId());
+
+        assertThat(reloaded.getReplyTo()).isNull();
+        assertThat(reloaded.getReplyToType()).isEqualTo(MessageType.AI);
+        assertThat(reloaded.getReplyToPreview()).isEqualTo("Original message");
+    }
+
+    @Test
+    void shouldStoreLargeContentCompressed() {
+        String longReply = "这是一段很长的AI回复。".repeat(200);
+        Message message = new Message();
+        message.setGroup(group);
+        message.setContent(longReply);
+        message.setMessageType(MessageType.AI);
+
+        Message saved = entityManager.persistAndFlush(message);
+        entityManager.clear();
+        Message reloaded = entityManager.find(Message.class, saved.getId());
+
+        assertThat(reloaded.getContentCompressed()).isNotNull();
+        assertThat(reloaded.getContentCompressed().length).isLessThan(longReply.getBytes().length);
+        assertThat(reloaded.getContent()).isEqualTo(longReply);
+        assertThat(reloaded.getContentPreview()).hasSize(MessageContentCodec.PREVIEW_LENGTH + 3).endsWith("...");
+    }
+
+    @Test
+    void shouldKeepShortContentPlain() {
+        Message message = new Message();
+        message.setGroup(group);
+        message.setSender(user);
+        message.setContent("short");
+        message.setMessageType(MessageType.USER);
+
+        Message saved = entityManager.persistAndFlush(message);
+        entityManager.clear();
+        Message reloaded = entityManager.find(Message.class, saved.getId());
+
+        assertThat(reloaded.getContentCompressed()).isNull();
+        assertThat(reloaded.getContent()).isEqualTo("short");
+        assertThat(reloaded.getContentPreview()).isEqualTo("short");
+    }
+
+    @Test
+    void previewShouldNotSplitSurrogatePairs() {
+        String content = "a".repeat(MessageContentCodec.PREVIEW_LENGTH - 1) + "😀😀";
+
+        assertThat(MessageContentCodec.preview(content)).isEqualTo("a".repeat(MessageContentCodec.PREVIEW_LENGTH - 1) + "...");
+    }
 }
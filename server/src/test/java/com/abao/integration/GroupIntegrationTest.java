@@ -1,22 +1,34 @@
 package com.abao.integration;
 
+import com.abao.config.CacheConfig;
 import com.abao.dto.auth.LoginRequest;
 import com.abao.dto.auth.RegisterRequest;
 import com.abao.dto.group.CreateGroupRequest;
 import com.abao.dto.group.JoinGroupRequest;
 import com.abao.entity.User;
+import com.abao.repository.GroupMemberRepository;
+import com.abao.repository.GroupRepository;
 import com.abao.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -34,13 +46,27 @@ class GroupIntegrationTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private GroupRepository groupRepository;
+
+    @Autowired
+    private GroupMemberRepository groupMemberRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private String accessToken;
     private String accessToken2;
+    private String email2;
 
     @BeforeEach
     void setUp() throws Exception {
         accessToken = registerVerifyAndGetToken("grouptest1_" + System.currentTimeMillis() + "@example.com");
-        accessToken2 = registerVerifyAndGetToken("grouptest2_" + System.currentTimeMillis() + "@example.com");
+        email2 = "grouptest2_" + System.currentTimeMillis() + "@example.com";
+        accessToken2 = registerVerifyAndGetToken(email2);
     }
 
     /**
@@ -123,6 +149,77 @@ class GroupIntegrationTest {
             .andExpect(jsonPath("$.memberCount").value(3)); // 创建者 + AI + 加入者
     }
 
+    @Test
+    void updateRetention_OnlyTheOwnerMayChangeIt() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Retention Group");
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+
+        String retention = objectMapper.writeValueAsString(Map.of("retentionDays", 1));
+        mockMvc.perform(put("/api/groups/" + group.get("id").asText() + "/retention")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(retention))
+            .andExpect(status().isForbidden());
+        mockMvc.perform(put("/api/groups/" + group.get("id").asText() + "/retention")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(retention))
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    void leaveGroup_LosingARaceToAnotherLeave_DoesNotDecrementAgain() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Leave Race Group");
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+        UUID groupId = UUID.fromString(group.get("id").asText());
+
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+        UUID memberId = userRepository.findByEmail(email2).orElseThrow().getId();
+        // Both leaves pass the membership check on this node's index
+        mockMvc.perform(get("/api/groups/" + groupId + "/members")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk());
+
+        // The other leave commits between this one's membership check and its delete
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            groupMemberRepository.deleteByGroupIdAndUserId(groupId, memberId);
+            groupRepository.adjustMemberCount(groupId, -1);
+        });
+        mockMvc.perform(delete("/api/groups/" + groupId + "/leave")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk());
+
+        assertThat(groupRepository.findById(groupId).orElseThrow().getMemberCount()).isEqualTo(2);
+    }
+
     @Test
     void joinGroup_WithInvalidInviteCode_ReturnsNotFound() throws Exception {
         // "邀请码无效" 中的 "无效" 被 GlobalExceptionHandler 映射到 404
@@ -154,4 +251,258 @@ class GroupIntegrationTest {
             .andExpect(status().isOk())
             .andExpect(jsonPath("$").isArray()); // API 直接返回 List<GroupDto>
     }
+
+    @Test
+    void bootstrap_ReturnsGroupsWithRecentMessagesAndUnreadCounts() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Bootstrap Group");
+
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+        String groupId = group.get("id").asText();
+
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+
+        for (String content : new String[] {"first", "second", "third"}) {
+            mockMvc.perform(post("/api/messages/group/" + groupId)
+                    .header("Authorization", "Bearer " + accessToken)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(Map.of("content", content))))
+                .andExpect(status().isOk());
+        }
+
+        MvcResult result = mockMvc.perform(get("/api/bootstrap")
+                .param("recentLimit", "2")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.user.nickname").value("TestUser"))
+            .andExpect(jsonPath("$.groups.length()").value(1))
+            .andExpect(jsonPath("$.groups[0].memberCount").value(3))
+            .andExpect(jsonPath("$.groups[0].unreadCount").value(3))
+            .andExpect(jsonPath("$.groups[0].lastMessage").value("TestUser: third"))
+            .andReturn();
+
+        JsonNode recent = objectMapper.readTree(result.getResponse().getContentAsString())
+            .get("recentMessages").get(groupId);
+        assertThat(recent).hasSize(2);
+        assertThat(recent.get(0).get("content").asText()).isEqualTo("third");
+        assertThat(recent.get(1).get("content").asText()).isEqualTo("second");
+
+        // The sender has nothing unread, and reading clears the counter for the other member
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(jsonPath("$[0].unreadCount").value(0));
+
+        mockMvc.perform(post("/api/groups/" + groupId + "/read")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/bootstrap")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.groups[0].unreadCount").value(0));
+    }
+
+    @Test
+    void sync_ReturnsDeltaSinceCursor_InPagesWithContinuation() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Sync Group");
+
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+        String groupId = group.get("id").asText();
+
+        // seq 1..3
+        for (String content : new String[] {"one", "two", "three"}) {
+            mockMvc.perform(post("/api/messages/group/" + groupId)
+                    .header("Authorization", "Bearer " + accessToken)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(Map.of("content", content))))
+                .andExpect(status().isOk());
+        }
+
+        // seq 4
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+
+        MvcResult firstPage = mockMvc.perform(post("/api/sync")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("cursors", Map.of(groupId, 1), "limit", 2))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.groups.length()").value(1))
+            .andExpect(jsonPath("$.groups[0].messages.length()").value(2))
+            .andExpect(jsonPath("$.groups[0].messages[0].content").value("two"))
+            .andExpect(jsonPath("$.groups[0].messages[1].seq").value(3))
+            .andExpect(jsonPath("$.groups[0].changes.length()").value(0))
+            .andExpect(jsonPath("$.groups[0].seq").value(3))
+            .andExpect(jsonPath("$.groups[0].lastSeq").value(4))
+            .andExpect(jsonPath("$.hasMore").value(true))
+            .andReturn();
+        String continuation = objectMapper.readTree(firstPage.getResponse().getContentAsString())
+            .get("continuation").asText();
+
+        mockMvc.perform(post("/api/sync")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("continuation", continuation))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.groups[0].messages.length()").value(0))
+            .andExpect(jsonPath("$.groups[0].changes[0].changeType").value("MEMBER_JOINED"))
+            .andExpect(jsonPath("$.groups[0].changes[0].seq").value(4))
+            .andExpect(jsonPath("$.groups[0].group.memberCount").value(3))
+            .andExpect(jsonPath("$.groups[0].seq").value(4))
+            .andExpect(jsonPath("$.hasMore").value(false));
+
+        // Up to date: nothing to send; cursors for groups the user is not in come back as removed
+        String unknownGroup = UUID.randomUUID().toString();
+        mockMvc.perform(post("/api/sync")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("cursors", Map.of(groupId, 4, unknownGroup, 7)))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.groups.length()").value(0))
+            .andExpect(jsonPath("$.removedGroupIds[0]").value(unknownGroup));
+    }
+
+    @Test
+    void members_ArePagedAndDetailInlinesFirstPage() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Members Group");
+
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+        String groupId = group.get("id").asText();
+
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/groups/" + groupId + "/members")
+                .param("page", "0")
+                .param("size", "2")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.members.length()").value(2))
+            .andExpect(jsonPath("$.hasNext").value(true))
+            .andExpect(jsonPath("$.totalCount").value(3));
+
+        mockMvc.perform(get("/api/groups/" + groupId + "/members")
+                .param("page", "1")
+                .param("size", "2")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.members.length()").value(1))
+            .andExpect(jsonPath("$.members[0].nickname").value("TestUser"))
+            .andExpect(jsonPath("$.hasNext").value(false));
+
+        mockMvc.perform(get("/api/groups/" + groupId)
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.memberCount").value(3))
+            .andExpect(jsonPath("$.members.length()").value(3))
+            .andExpect(jsonPath("$.hasMoreMembers").value(false));
+
+        mockMvc.perform(delete("/api/groups/" + groupId + "/leave")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/groups/" + groupId + "/members")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(jsonPath("$.totalCount").value(2));
+    }
+
+    @Test
+    void cachedGroupViews_AreServedFromCacheAndEvictedOnChanges() throws Exception {
+        CreateGroupRequest createRequest = new CreateGroupRequest();
+        createRequest.setName("Cached Group");
+
+        MvcResult createResult = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(createRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+        JsonNode group = objectMapper.readTree(createResult.getResponse().getContentAsString());
+        String groupId = group.get("id").asText();
+
+        CaffeineCache details = (CaffeineCache) cacheManager.getCache(CacheConfig.GROUP_DETAILS);
+        long hits = details.getNativeCache().stats().hitCount();
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/api/groups/" + groupId)
+                    .header("Authorization", "Bearer " + accessToken))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.memberCount").value(2));
+        }
+        assertThat(details.getNativeCache().stats().hitCount()).isEqualTo(hits + 1);
+
+        // Cached detail must not bypass the membership check
+        mockMvc.perform(get("/api/groups/" + groupId)
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isForbidden());
+
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(jsonPath("$[0].lastMessage").doesNotExist());
+
+        JoinGroupRequest joinRequest = new JoinGroupRequest();
+        joinRequest.setInviteCode(group.get("inviteCode").asText());
+        mockMvc.perform(post("/api/groups/join")
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(joinRequest)))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/groups/" + groupId)
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(jsonPath("$.memberCount").value(3))
+            .andExpect(jsonPath("$.members.length()").value(3));
+
+        mockMvc.perform(post("/api/messages/group/" + groupId)
+                .header("Authorization", "Bearer " + accessToken2)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("content", "hello"))))
+            .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(jsonPath("$[0].memberCount").value(3))
+            .andExpect(jsonPath("$[0].lastMessage").value("TestUser: hello"))
+            .andExpect(jsonPath("$[0].unreadCount").value(1));
+
+        // The shared summary carries no per-user state
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(jsonPath("$[0].unreadCount").value(0));
+    }
 }
@@ -0,0 +1,360 @@
+package com.abao.integration;
+
+import com.abao.dto.auth.LoginRequest;
+import com.abao.dto.auth.RegisterRequest;
+import com.abao.dto.group.CreateGroupRequest;
+import com.abao.entity.Message;
+import com.abao.entity.MessageType;
+import com.abao.entity.User;
+import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageRepository;
+import com.abao.repository.UserRepository;
+import com.abao.service.MessageArchiveService;
+import com.abao.service.MessageSearchIndex;
+import com.abao.service.MessageSearchService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class MessageIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MessageArchiveService messageArchiveService;
+
+    @Autowired
+    private MessageSearchIndex messageSearchIndex;
+
+    @Autowired
+    private MessageSearchService messageSearchService;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private GroupRepository groupRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private String accessToken;
+    private String accessToken2;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        accessToken = registerVerifyAndGetToken("msgtest1_" + System.nanoTime() + "@example.com");
+        accessToken2 = registerVerifyAndGetToken("msgtest2_" + System.nanoTime() + "@example.com");
+    }
+
+    private String registerVerifyAndGetToken(String email) throws Exception {
+        RegisterRequest request = new RegisterRequest();
+        request.setEmail(email);
+        request.setPassword("Password123!");
+        request.setNickname("TestUser");
+
+        mockMvc.perform(post("/api/auth/register")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+            .andExpect(status().isOk());
+
+        User user = userRepository.findByEmail(email).orElseThrow();
+        user.setEmailVerified(true);
+        user.setVerificationToken(null);
+        userRepository.save(user);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setEmail(email);
+        loginRequest.setPassword("Password123!");
+
+        MvcResult result = mockMvc.perform(post("/api/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(loginRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString())
+            .get("accessToken").asText();
+    }
+
+    private String createGroup(String token) throws Exception {
+        CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("Message Test Group");
+
+        MvcResult result = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + token)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+            .andExpect(status().isOk())
+            .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asText();
+    }
+
+    private void sendMessage(String token, String groupId, String content) throws Exception {
+        mockMvc.perform(post("/api/messages/group/" + groupId)
+                .header("Authorization", "Bearer " + token)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("content", content))))
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    void exportMessages_Ndjson_StreamsFullHistoryInOrder() throws Exception {
+        String groupId = createGroup(accessToken);
+        sendMessage(accessToken, groupId, "first");
+        sendMessage(accessToken, groupId, "second");
+        sendMessage(accessToken, groupId, "third");
+
+        MvcResult started = mockMvc.perform(get("/api/messages/group/" + groupId + "/export")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andExpect(header().string("Content-Type", "application/x-ndjson"))
+            .andReturn();
+
+        List<String> lines = result.getResponse().getContentAsString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(lines).hasSize(3);
+        assertThat(lines).extracting(line -> objectMapper.readTree(line).get("content").asText())
+            .containsExactly("first", "second", "third");
+
+        JsonNode first = objectMapper.readTree(lines.get(0));
+        assertThat(first.get("groupId").asText()).isEqualTo(groupId);
+        assertThat(first.get("messageType").asText()).isEqualTo("USER");
+    }
+
+    @Test
+    void exportMessages_Gzip_ReturnsCompressedNdjson() throws Exception {
+        String groupId = createGroup(accessToken);
+        sendMessage(accessToken, groupId, "压缩导出");
+
+        MvcResult started = mockMvc.perform(get("/api/messages/group/" + groupId + "/export")
+                .param("format", "gzip")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        String text = new String(new GZIPInputStream(new ByteArrayInputStream(body)).readAllBytes(), StandardCharsets.UTF_8);
+        assertThat(objectMapper.readTree(text.trim()).get("content").asText()).isEqualTo("压缩导出");
+    }
+
+    @Test
+    void archiveGroup_MovesOldMessages_AndReadsFallBackToArchive() throws Exception {
+        String groupId = createGroup(accessToken);
+        sendMessage(accessToken, groupId, "old-1");
+        sendMessage(accessToken, groupId, "old-2");
+
+        int moved = messageArchiveService.archiveGroup(UUID.fromString(groupId), LocalDateTime.now().plusMinutes(1));
+        assertThat(moved).isEqualTo(2);
+
+        // Hot table is empty now
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/recent")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(0));
+
+        sendMessage(accessToken, groupId, "new-1");
+
+        // History walks from the hot table into the archive
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/history")
+                .param("limit", "10")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(3))
+            .andExpect(jsonPath("$[0].content").value("new-1"))
+            .andExpect(jsonPath("$[1].content").value("old-2"))
+            .andExpect(jsonPath("$[2].content").value("old-1"))
+            .andExpect(jsonPath("$[2].senderNickname").value("TestUser"));
+
+        // Export covers archived and hot rows in chronological order
+        MvcResult started = mockMvc.perform(get("/api/messages/group/" + groupId + "/export")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        List<String> lines = mockMvc.perform(asyncDispatch(started)).andReturn()
+            .getResponse().getContentAsString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(lines).extracting(line -> objectMapper.readTree(line).get("content").asText())
+            .containsExactly("old-1", "old-2", "new-1");
+    }
+
+    @Test
+    void sendReply_CarriesParentPreviewWithoutReloadingParent() throws Exception {
+        String groupId = createGroup(accessToken);
+        MvcResult parent = mockMvc.perform(post("/api/messages/group/" + groupId)
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("content", "x".repeat(80)))))
+            .andExpect(status().isOk())
+            .andReturn();
+        String parentId = objectMapper.readTree(parent.getResponse().getContentAsString()).get("id").asText();
+
+        mockMvc.perform(post("/api/messages/group/" + groupId)
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("content", "reply", "replyToId", parentId))))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.replyToId").value(parentId))
+            .andExpect(jsonPath("$.replyToContent").value("x".repeat(50) + "..."))
+            .andExpect(jsonPath("$.replyToMessageType").value("USER"))
+            .andExpect(jsonPath("$.replyToSenderNickname").value("TestUser"));
+
+        // Read back through a fresh persistence context: metadata comes from the reply row itself
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/recent")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].replyToContent").value("x".repeat(50) + "..."))
+            .andExpect(jsonPath("$[0].replyToSenderNickname").value("TestUser"));
+    }
+
+    @Test
+    void searchMessages_FindsIndexedMessageWithHighlight() throws Exception {
+        String groupId = createGroup(accessToken);
+        sendMessage(accessToken, groupId, "明天下午三点开会");
+        sendMessage(accessToken, groupId, "收到");
+
+        // Indexing runs after commit on another thread and is visible after the next refresh
+        JsonNode hits = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            messageSearchIndex.refresh();
+            MvcResult result = mockMvc.perform(get("/api/messages/group/" + groupId + "/search")
+                    .param("q", "开会")
+                    .header("Authorization", "Bearer " + accessToken))
+                .andExpect(status().isOk())
+                .andReturn();
+            hits = objectMapper.readTree(result.getResponse().getContentAsString(StandardCharsets.UTF_8));
+            if (hits.size() > 0) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).get("snippet").asText()).contains("<em>开会</em>");
+        assertThat(hits.get(0).get("senderNickname").asText()).isEqualTo("TestUser");
+    }
+
+    @Test
+    void searchCatchUp_IndexesMessagesTakenByAnotherNode() throws Exception {
+        String groupId = createGroup(accessToken);
+        UUID id = UUID.fromString(groupId);
+
+        // Saved without a local MessageSentEvent, as when another node took the message
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Message message = new Message();
+            message.setGroup(groupRepository.getReferenceById(id));
+            message.setContent("另一个节点上的回答");
+            message.setMessageType(MessageType.AI);
+            message.setSeq(groupRepository.nextSeq(id));
+            messageRepository.save(message);
+        });
+
+        // The startup backfill runs asynchronously; catching up waits for it
+        JsonNode hits = null;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            messageSearchService.catchUp();
+            messageSearchIndex.refresh();
+            MvcResult result = mockMvc.perform(get("/api/messages/group/" + groupId + "/search")
+                    .param("q", "节点")
+                    .header("Authorization", "Bearer " + accessToken))
+                .andExpect(status().isOk())
+                .andReturn();
+            hits = objectMapper.readTree(result.getResponse().getContentAsString(StandardCharsets.UTF_8));
+            if (hits.size() > 0) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        assertThat(hits).hasSize(1);
+        assertThat(messageSearchIndex.indexedThrough(id)).isEqualTo(groupRepository.findLastSeq(id));
+    }
+
+    @Test
+    void searchMessages_NotMember_ReturnsForbidden() throws Exception {
+        String groupId = createGroup(accessToken);
+
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/search")
+                .param("q", "hello")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void searchMessages_BlankQuery_ReturnsBadRequest() throws Exception {
+        String groupId = createGroup(accessToken);
+
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/search")
+                .param("q", " ")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void exportMessages_NotMember_ReturnsForbidden() throws Exception {
+        String groupId = createGroup(accessToken);
+
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/export")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void getHistory_NotMember_ReturnsForbidden() throws Exception {
+        String groupId = createGroup(accessToken);
+        sendMessage(accessToken, groupId, "members only");
+
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/history")
+                .header("Authorization", "Bearer " + accessToken2))
+            .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void exportMessages_UnknownFormat_ReturnsBadRequest() throws Exception {
+        String groupId = createGroup(accessToken);
+
+        mockMvc.perform(get("/api/messages/group/" + groupId + "/export")
+                .param("format", "csv")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isBadRequest());
+    }
+}
@@ -0,0 +1,155 @@
+package com.abao.integration;
+
+import com.abao.config.ReplicaRoutingDataSource;
+import com.abao.dto.auth.LoginRequest;
+import com.abao.dto.auth.RegisterRequest;
+import com.abao.dto.group.CreateGroupRequest;
+import com.abao.entity.User;
+import com.abao.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Routing wired end to end. The "replica" is the same in-memory H2 database as the primary,
+ * so only the routing decision differs; the lag check cannot run on H2 and is driven by hand.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:routingdb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "app.datasource.routing.enabled=true",
+    "app.datasource.routing.lag-check-interval-ms=3600000",
+    "app.datasource.replicas[0].url=jdbc:h2:mem:routingdb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "app.datasource.replicas[0].username=sa",
+    "app.datasource.replicas[0].password="
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class ReadReplicaRoutingIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private String accessToken;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReplicaRoutingDataSource router = applicationContext.getBean(ReplicaRoutingDataSource.class);
+        ReflectionTestUtils.invokeMethod(router, "recordLag", "replica-0", 0L);
+        accessToken = registerVerifyAndGetToken("routing_" + System.nanoTime() + "@example.com");
+    }
+
+    @Test
+    void dataSource_IsLazyProxyWithReadOnlyRouting() {
+        assertThat(dataSource).isInstanceOf(LazyConnectionDataSourceProxy.class);
+    }
+
+    @Test
+    void readOnlyTransactions_GoToReplica() throws Exception {
+        double before = reads("replica-0", "replica");
+
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk());
+
+        assertThat(reads("replica-0", "replica")).isGreaterThan(before);
+    }
+
+    @Test
+    void readsAfterOwnSend_StayOnPrimary() throws Exception {
+        String groupId = createGroup();
+        mockMvc.perform(post("/api/messages/group/" + groupId)
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(Map.of("content", "hello"))))
+            .andExpect(status().isOk());
+        double before = reads("primary", "read-your-writes");
+
+        mockMvc.perform(get("/api/groups")
+                .header("Authorization", "Bearer " + accessToken))
+            .andExpect(status().isOk());
+
+        assertThat(reads("primary", "read-your-writes")).isGreaterThan(before);
+    }
+
+    private double reads(String target, String reason) {
+        return meterRegistry.get("datasource.routing.reads").tag("target", target).tag("reason", reason)
+            .counter().count();
+    }
+
+    private String createGroup() throws Exception {
+        CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("Routing Group");
+
+        MvcResult result = mockMvc.perform(post("/api/groups")
+                .header("Authorization", "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+            .andExpect(status().isOk())
+            .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asText();
+    }
+
+    private String registerVerifyAndGetToken(String email) throws Exception {
+        RegisterRequest request = new RegisterRequest();
+        request.setEmail(email);
+        request.setPassword("Password123!");
+        request.setNickname("RoutingUser");
+
+        mockMvc.perform(post("/api/auth/register")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+            .andExpect(status().isOk());
+
+        User user = userRepository.findByEmail(email).orElseThrow();
+        user.setEmailVerified(true);
+        user.setVerificationToken(null);
+        userRepository.save(user);
+
+        LoginRequest loginRequest = new LoginRequest();
+        loginRequest.setEmail(email);
+        loginRequest.setPassword("Password123!");
+
+        MvcResult result = mockMvc.perform(post("/api/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(loginRequest)))
+            .andExpect(status().isOk())
+            .andReturn();
+
+        return objectMapper.readTree(result.getResponse().getContentAsString())
+            .get("accessToken").asText();
+    }
+}
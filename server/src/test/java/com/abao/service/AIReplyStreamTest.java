@@ -0,0 +1,71 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.abao.websocket.WebSocketSessionManager;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class AIReplyStreamTest {
+
+    private final WebSocketSessionManager sessionManager = mock(WebSocketSessionManager.class);
+    private final UUID groupId = UUID.randomUUID();
+
+    @Test
+    void bufferedTail_IsFlushedByTheTimer() {
+        AIReplyStream stream = new AIReplyStream(groupId, UUID.randomUUID(), sessionManager, Schedulers.parallel(), 200);
+
+        stream.append("你");
+        stream.append("好");
+        // START and the first token only; the second waits for the interval
+        assertThat(frames()).extracting(frame -> frame.get("type"))
+            .containsExactly("AI_STREAM_START", "AI_STREAM_DELTA");
+
+        verify(sessionManager, timeout(2000).times(3)).broadcastToGroup(eq(groupId), any());
+        List<Map<String, Object>> sent = frames();
+        assertThat(sent.get(2).get("delta")).isEqualTo("好");
+    }
+
+    @Test
+    void complete_SendsTheTailThenTheMessage_AndNothingAfter() throws InterruptedException {
+        AIReplyStream stream = new AIReplyStream(groupId, UUID.randomUUID(), sessionManager, Schedulers.parallel(), 200);
+        MessageDto saved = new MessageDto();
+        saved.setId(UUID.randomUUID());
+
+        stream.append("你");
+        stream.append("好");
+        stream.complete(saved);
+        // The timer set for the tail finds nothing left to send
+        Thread.sleep(300);
+
+        List<Map<String, Object>> sent = frames();
+        assertThat(sent).extracting(frame -> frame.get("type")).containsExactly(
+            "AI_STREAM_START", "AI_STREAM_DELTA", "AI_STREAM_DELTA", "AI_STREAM_END");
+        assertThat(sent.get(3).get("message")).isEqualTo(saved);
+    }
+
+    @Test
+    void complete_WithNothingStreamed_SendsNoFrames() {
+        AIReplyStream stream = new AIReplyStream(groupId, UUID.randomUUID(), sessionManager, Schedulers.parallel(), 200);
+
+        stream.complete(new MessageDto());
+
+        verifyNoInteractions(sessionManager);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> frames() {
+        ArgumentCaptor<Object> frames = ArgumentCaptor.forClass(Object.class);
+        verify(sessionManager, atLeast(0)).broadcastToGroup(eq(groupId), frames.capture());
+        return frames.getAllValues().stream().map(frame -> (Map<String, Object>) frame).toList();
+    }
+}
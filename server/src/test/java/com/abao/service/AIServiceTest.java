@@ -1,11 +1,18 @@
 package com.abao.service;
 
+import com.abao.config.AiProviderProperties;
+import com.abao.dto.message.MessageDto;
 import com.abao.entity.Message;
 import com.abao.entity.MessageType;
 import com.abao.entity.Group;
 import com.abao.entity.User;
+import com.abao.entity.ConversationSummary;
+import com.abao.repository.ConversationSummaryRepository;
 import com.abao.repository.MessageRepository;
+import com.abao.websocket.WebSocketSessionManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -13,12 +20,26 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.util.ReflectionTestUtils;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -37,7 +58,33 @@ class AIServiceTest {
     private ObjectMapper objectMapper;
 
     @Mock
-    private RestTemplate restTemplate;
+    private WebClient webClient;
+
+    @Spy
+    private AiCallLimiter callLimiter = new AiCallLimiter(10, 1, 4, 100, new SimpleMeterRegistry());
+
+    @Spy
+    private AiProviderRouter router = new AiProviderRouter(new AiProviderProperties(),
+        new AiResilience(2, Duration.ofMillis(1), Duration.ofMillis(5), callLimiter, new SimpleMeterRegistry()),
+        new ObjectMapper(), "test-api-key", "https://api.deepseek.com", "deepseek-chat",
+        20, 10, 50, Duration.ofSeconds(30), 3, new SimpleMeterRegistry());
+
+    @Spy
+    private AiJobScheduler jobScheduler = new AiJobScheduler(Runnable::run, 100, 5,
+        AiJobScheduler.OverflowPolicy.DROP_OLDEST, Duration.ofSeconds(180), new SimpleMeterRegistry());
+
+    @Spy
+    private ConversationContextStore contextStore =
+        new ConversationContextStore(100, Duration.ofHours(2), new SimpleMeterRegistry());
+
+    @Mock
+    private WebSocketSessionManager sessionManager;
+
+    @Mock
+    private ConversationSummaryRepository summaryRepository;
+
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @InjectMocks
     private AIService aiService;
@@ -55,13 +102,17 @@ class AIServiceTest {
         testGroup.setId(UUID.randomUUID());
         testGroup.setName("Test Group");
 
-        ReflectionTestUtils.setField(aiService, "apiKey", "test-api-key");
-        ReflectionTestUtils.setField(aiService, "baseUrl", "https://api.deepseek.com");
-        ReflectionTestUtils.setField(aiService, "model", "deepseek-chat");
         ReflectionTestUtils.setField(aiService, "maxTokens", 2048);
         ReflectionTestUtils.setField(aiService, "temperature", 0.7);
         ReflectionTestUtils.setField(aiService, "contextWindowMinutes", 30);
         ReflectionTestUtils.setField(aiService, "contextMaxMessages", 50);
+        ReflectionTestUtils.setField(aiService, "maxPromptTokens", 6000);
+        ReflectionTestUtils.setField(aiService, "maxMessageTokens", 1000);
+        ReflectionTestUtils.setField(aiService, "streamCoalesceMillis", 50L);
+        ReflectionTestUtils.setField(aiService, "idleTimeoutMillis", 30000L);
+        ReflectionTestUtils.setField(aiService, "firstTokenTimeout", Duration.ofSeconds(30));
+        ReflectionTestUtils.setField(aiService, "totalTimeout", Duration.ofSeconds(120));
+        ReflectionTestUtils.setField(aiService, "debounceWindow", Duration.ZERO);
     }
 
     // ====================================================================
@@ -260,11 +311,11 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
 
-            // trigger should be appended: system + oldMsg + trigger = 3
-            assertThat(context).hasSize(3);
+            // trigger should be appended: system + oldMsg + trigger + group info = 4
+            assertThat(context).hasSize(4);
 
-            // Last message should be the trigger
-            String lastContent = context.get(context.size() - 1).get("content");
+            // Last conversation message should be the trigger, before the group info
+            String lastContent = context.get(context.size() - 2).get("content");
             assertThat(lastContent).contains("[提问A宝]");
         }
 
@@ -281,8 +332,8 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
 
-            // system + 1 trigger = 2 (not duplicated)
-            assertThat(context).hasSize(2);
+            // system + 1 trigger + group info = 3 (not duplicated)
+            assertThat(context).hasSize(3);
         }
     }
 
@@ -313,12 +364,36 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, userReply);
 
-            // Should contain compensation: system + compensation_system + assistant(oldAiMsg) + boundary_system + user
-            // At minimum, the old AI message content should appear somewhere in context
-            boolean hasCompensation = context.stream()
-                .anyMatch(m -> "assistant".equals(m.get("role"))
-                    && m.get("content").contains("我之前说过关于Java的一些内容"));
-            assertThat(hasCompensation).isTrue();
+            // system + user + compensation_system + assistant(oldAiMsg) + group info: the quote follows the
+            // history, so the history prefix is the same whatever the trigger quotes
+            assertThat(context).extracting(m -> m.get("role"))
+                .containsExactly("system", "user", "system", "assistant", "system");
+            assertThat(context.get(1).get("content")).contains("能再详细说说吗");
+            assertThat(context.get(3).get("content")).contains("我之前说过关于Java的一些内容");
+        }
+
+        @Test
+        void buildContext_LaterTriggers_AreServedFromMemory() {
+            // The first trigger loads the group; the rest arrives through MessageSentEvent
+            UUID groupId = testGroup.getId();
+            Message first = createMessage("@AI 讲个笑话", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(groupId), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(first));
+            aiService.buildContext(groupId, first);
+
+            Message aiReply = createMessage("从前有只猫", MessageType.AI);
+            aiReply.setSender(null);
+            Message followUp = createMessage("然后呢", MessageType.USER);
+            followUp.setReplyReference(aiReply, MessageType.AI, null, "从前有只猫");
+            contextStore.append(aiReply);
+            contextStore.append(followUp);
+
+            List<Map<String, String>> context = aiService.buildContext(groupId, followUp);
+
+            assertThat(context).extracting(m -> m.get("role")).containsExactly("system", "user", "assistant", "user", "system");
+            assertThat(context.get(3).get("content")).contains("[追问]: 然后呢");
+            verify(messageRepository, times(1)).findContextWindow(any(), any(), anyInt());
+            verify(messageRepository, never()).findById(any());
         }
 
         @Test
@@ -371,9 +446,9 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
 
-            String systemPrompt = context.get(0).get("content");
-            assertThat(systemPrompt).contains("TestUser");
-            assertThat(systemPrompt).contains("Test2");
+            String groupInfo = context.get(context.size() - 1).get("content");
+            assertThat(groupInfo).contains("TestUser");
+            assertThat(groupInfo).contains("Test2");
         }
 
         @Test
@@ -438,6 +513,20 @@ class AIServiceTest {
             );
         }
 
+        @Test
+        void buildContext_SystemPromptIsTheSameForEveryGroup() {
+            // The first message is the cacheable prefix: nothing group- or member-specific in it
+            Message trigger = createMessage("@AI hi", MessageType.USER);
+            when(messageRepository.findContextWindow(any(), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+            UUID otherGroup = UUID.randomUUID();
+
+            String first = aiService.buildContext(testGroup.getId(), trigger).get(0).get("content");
+            String second = aiService.buildContext(otherGroup, trigger).get(0).get("content");
+
+            assertThat(first).isEqualTo(second).doesNotContain("TestUser");
+        }
+
         @Test
         void buildContext_SystemPromptDeduplicatesMembers() {
             UUID groupId = testGroup.getId();
@@ -451,8 +540,8 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
 
-            String systemPrompt = context.get(0).get("content");
-            int firstIndex = systemPrompt.indexOf("TestUser");
+            String groupInfo = context.get(context.size() - 1).get("content");
+            int firstIndex = groupInfo.indexOf("TestUser");
             assertThat(firstIndex).isGreaterThanOrEqualTo(0);
         }
     }
@@ -584,7 +673,7 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
 
-            assertThat(context).hasSize(4);
+            assertThat(context).hasSize(5);
 
             long userCount = context.stream().filter(m -> "user".equals(m.get("role"))).count();
             long assistantCount = context.stream().filter(m -> "assistant".equals(m.get("role"))).count();
@@ -604,7 +693,7 @@ class AIServiceTest {
 
             List<Map<String, String>> context = aiService.buildContext(groupId, userMsg);
 
-            assertThat(context).hasSize(2);
+            assertThat(context).hasSize(3);
             assertThat(context.get(0).get("role")).isEqualTo("system");
             assertThat(context.get(1).get("role")).isEqualTo("user");
         }
@@ -626,7 +715,7 @@ class AIServiceTest {
             List<Map<String, String>> context = aiService.buildContext(groupId, userFollowUp);
 
             assertThat(context).isNotEmpty();
-            assertThat(context).hasSize(4);
+            assertThat(context).hasSize(5);
         }
 
         @Test
@@ -643,7 +732,100 @@ class AIServiceTest {
             List<Map<String, String>> context = aiService.buildContext(groupId, msg3);
 
             assertThat(context).isNotEmpty();
+            assertThat(context).hasSize(5);
+        }
+    }
+
+    // ====================================================================
+    // Token Budget Tests
+    // ====================================================================
+
+    @Nested
+    class TokenBudgetTests {
+
+        @Test
+        void buildContext_OverBudget_DropsOldestHistoryButKeepsTrigger() {
+            UUID groupId = testGroup.getId();
+            Message oldest = createMessageAt("很早的消息".repeat(60), MessageType.USER, LocalDateTime.now().minusMinutes(3));
+            Message older = createMessageAt("稍早的消息".repeat(60), MessageType.USER, LocalDateTime.now().minusMinutes(2));
+            Message recent = createMessageAt("刚才的消息", MessageType.USER, LocalDateTime.now().minusMinutes(1));
+            Message trigger = createMessage("@AI 总结一下", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(groupId), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(oldest, older, recent, trigger));
+            int fullPrompt = aiService.buildContext(groupId, trigger).stream()
+                .mapToInt(m -> TokenEstimator.estimateMessage(m.get("content")))
+                .sum();
+            ReflectionTestUtils.setField(aiService, "maxPromptTokens", fullPrompt - 1);
+
+            List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
+
+            // One token short: exactly the oldest message goes
+            assertThat(context).hasSize(5);
+            assertThat(context.get(1).get("content")).contains("稍早的消息");
+            assertThat(context.get(3).get("content")).contains("总结一下");
+            assertThat(meterRegistry.get("ai.prompt.dropped_messages").counter().count()).isEqualTo(1);
+            assertThat(meterRegistry.get("ai.prompt.tokens").summary().count()).isEqualTo(2);
+        }
+
+        @Test
+        void buildContext_IsFittedToAHealthyProvidersSmallerLimit() {
+            UUID groupId = testGroup.getId();
+            Message older = createMessageAt("稍早的消息".repeat(60), MessageType.USER, LocalDateTime.now().minusMinutes(2));
+            Message trigger = createMessage("@AI 总结一下", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(groupId), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(older, trigger));
+            int fullPrompt = aiService.buildContext(groupId, trigger).stream()
+                .mapToInt(m -> TokenEstimator.estimateMessage(m.get("content")))
+                .sum();
+            doReturn(fullPrompt - 1).when(router).promptBudget(6000);
+
+            List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
+
+            assertThat(context).hasSize(3);
+            assertThat(context.get(1).get("content")).contains("总结一下");
+        }
+
+        @Test
+        void buildContext_TriggerOverBudget_IsTruncatedNotDropped() {
+            UUID groupId = testGroup.getId();
+            ReflectionTestUtils.setField(aiService, "maxMessageTokens", 100);
+            Message trigger = createMessage("@AI 帮我看看这段日志 " + "ERROR at line 42\n".repeat(200), MessageType.USER);
+            when(messageRepository.findContextWindow(eq(groupId), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+
+            List<Map<String, String>> context = aiService.buildContext(groupId, trigger);
+
+            String content = context.get(1).get("content");
+            assertThat(content).startsWith("TestUser: [提问A宝] 帮我看看这段日志").endsWith(TokenEstimator.TRUNCATION_MARK);
+            assertThat(TokenEstimator.estimateMessage(content)).isLessThanOrEqualTo(100);
+        }
+    }
+
+    // ====================================================================
+    // Conversation Summary Tests
+    // ====================================================================
+
+    @Nested
+    class SummaryTests {
+
+        @Test
+        void buildContext_WithSummary_ReplacesTheMessagesItCovers() {
+            UUID groupId = testGroup.getId();
+            Message covered = createMessage("上周定了周五聚餐", MessageType.USER);
+            covered.setSeq(10L);
+            Message recent = createMessage("@AI 我们哪天聚餐来着", MessageType.USER);
+            recent.setSeq(11L);
+            when(messageRepository.findContextWindow(eq(groupId), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(covered, recent));
+            when(summaryRepository.findFirstByGroupIdOrderByThroughSeqDesc(groupId))
+                .thenReturn(Optional.of(new ConversationSummary(UUID.randomUUID(), groupId, 10L, "大家约好周五聚餐", null)));
+
+            List<Map<String, String>> context = aiService.buildContext(groupId, recent);
+
             assertThat(context).hasSize(4);
+            assertThat(context.get(1).get("role")).isEqualTo("system");
+            assertThat(context.get(1).get("content")).contains("大家约好周五聚餐");
+            assertThat(context.get(2).get("content")).contains("哪天聚餐");
         }
     }
 
@@ -755,18 +937,245 @@ class AIServiceTest {
     }
 
     // ====================================================================
-    // S9: RestTemplate Bean 注入 Tests
+    // Streaming Tests
+    // ====================================================================
+
+    @Nested
+    class StreamingTests {
+
+        @Test
+        @SuppressWarnings("unchecked")
+        void processMessage_StreamsDeltasThenPersistsFullReplyOnce() {
+            ReflectionTestUtils.setField(aiService, "objectMapper", new ObjectMapper());
+            ReflectionTestUtils.setField(aiService, "streamCoalesceMillis", 0L);
+            Message trigger = createMessage("@AI 你好", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+
+            String sse = """
+                data: {"choices":[{"delta":{"role":"assistant"}}]}
+
+                data: {"choices":[{"delta":{"content":"你"}}]}
+
+                data: {"choices":[{"delta":{"content":"好"}}]}
+
+                data: {"choices":[{"delta":{"content":"呀"}}]}
+
+                data: [DONE]
+
+                """;
+            WebClient stubbed = WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                    .body(sse)
+                    .build()))
+                .build();
+            ReflectionTestUtils.setField(aiService, "webClient", stubbed);
+            MessageDto saved = new MessageDto();
+            saved.setId(UUID.randomUUID());
+            when(messageService.sendAIMessage(testGroup.getId(), "你好呀", trigger.getId())).thenReturn(saved);
+
+            aiService.processMessage(trigger);
+
+            // Start, three deltas, then the end frame with the persisted reply
+            ArgumentCaptor<Object> frames = ArgumentCaptor.forClass(Object.class);
+            verify(sessionManager, timeout(5000).times(5)).broadcastToGroup(eq(testGroup.getId()), frames.capture());
+            verify(messageService, times(1)).sendAIMessage(any(), any(), any());
+
+            List<Map<String, Object>> sent = frames.getAllValues().stream().map(f -> (Map<String, Object>) f).toList();
+            assertThat(sent).extracting(frame -> frame.get("type")).containsExactly(
+                "AI_STREAM_START", "AI_STREAM_DELTA", "AI_STREAM_DELTA", "AI_STREAM_DELTA", "AI_STREAM_END");
+            assertThat(sent.get(0).get("replyToId")).isEqualTo(trigger.getId());
+            assertThat(sent).extracting(frame -> frame.get("delta"))
+                .containsExactly(null, "你", "好", "呀", null);
+            assertThat(sent).extracting(frame -> frame.get("streamId")).containsOnly(sent.get(0).get("streamId"));
+            assertThat(sent.get(4).get("message")).isEqualTo(saved);
+            assertThat(meterRegistry.get("ai.reply.time_to_first_token").timer().count()).isEqualTo(1);
+            assertThat(callLimiter.inFlight()).isZero();
+        }
+    }
+
+    @Nested
+    class UsageTests {
+
+        @Test
+        void processMessage_RecordsPromptCacheHitsFromTheUsageChunk() {
+            ReflectionTestUtils.setField(aiService, "objectMapper", new ObjectMapper());
+            Message trigger = createMessage("@AI 你好", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+
+            String sse = """
+                data: {"choices":[{"delta":{"content":"你好"}}]}
+
+                data: {"choices":[],"usage":{"prompt_tokens":1000,"completion_tokens":2,"prompt_cache_hit_tokens":768,"prompt_cache_miss_tokens":232}}
+
+                data: [DONE]
+
+                """;
+            WebClient stubbed = WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                    .body(sse)
+                    .build()))
+                .build();
+            ReflectionTestUtils.setField(aiService, "webClient", stubbed);
+
+            aiService.processMessage(trigger);
+
+            verify(messageService, timeout(5000)).sendAIMessage(testGroup.getId(), "你好", trigger.getId());
+            assertThat(meterRegistry.get("ai.usage.tokens").tag("type", "prompt_cache_hit").counter().count())
+                .isEqualTo(768);
+            assertThat(meterRegistry.get("ai.usage.tokens").tag("type", "prompt_cache_miss").counter().count())
+                .isEqualTo(232);
+            assertThat(meterRegistry.get("ai.usage.prompt_cache_hit_ratio").summary().mean()).isEqualTo(0.768);
+        }
+    }
+
+    @Nested
+    class ResilienceTests {
+
+        @Test
+        void processMessage_RetriesAnUnavailableProviderBeforeReplying() {
+            ReflectionTestUtils.setField(aiService, "objectMapper", new ObjectMapper());
+            Message trigger = createMessage("@AI 你好", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+
+            AtomicInteger requests = new AtomicInteger();
+            WebClient stubbed = WebClient.builder()
+                .exchangeFunction(request -> Mono.just(requests.incrementAndGet() == 1
+                    ? ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build()
+                    : ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                        .body("data: {\"choices\":[{\"delta\":{\"content\":\"在呢\"}}]}\n\ndata: [DONE]\n\n")
+                        .build()))
+                .build();
+            ReflectionTestUtils.setField(aiService, "webClient", stubbed);
+
+            aiService.processMessage(trigger);
+
+            verify(messageService, timeout(5000)).sendAIMessage(testGroup.getId(), "在呢", trigger.getId());
+            assertThat(requests.get()).isEqualTo(2);
+        }
+
+        @Test
+        void processMessage_CircuitOpen_ApologizesWithoutCallingTheProvider() {
+            Message trigger = createMessage("@AI 你好", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(trigger));
+            for (int i = 0; i < 10; i++) {
+                router.providers().get(0).circuitBreaker().protect(Flux.error(new TimeoutException()), e -> true)
+                    .onErrorResume(e -> Flux.empty())
+                    .blockLast();
+            }
+
+            aiService.processMessage(trigger);
+
+            verify(messageService, timeout(5000))
+                .sendAIMessage(testGroup.getId(), "抱歉，我暂时无法回复，请稍后再试。", trigger.getId());
+            verifyNoInteractions(webClient);
+        }
+    }
+
+    // ====================================================================
+    // Trigger Coalescing Tests
+    // ====================================================================
+
+    @Nested
+    class CoalescingTests {
+
+        @Test
+        void triggersWaitingForTheGroup_AreAnsweredByOneCall() {
+            ReflectionTestUtils.setField(aiService, "objectMapper", new ObjectMapper());
+            Message first = createMessage("@AI 今天星期几", MessageType.USER);
+            Message second = createMessage("@AI 明天会下雨吗", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(first, second));
+
+            List<Object> requests = new ArrayList<>();
+            String sse = """
+                data: {"choices":[{"delta":{"content":"周一，不会"}}]}
+
+                data: [DONE]
+
+                """;
+            WebClient stubbed = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request);
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                        .body(sse)
+                        .build());
+                })
+                .build();
+            ReflectionTestUtils.setField(aiService, "webClient", stubbed);
+
+            // The group is busy with an earlier reply, so both triggers wait in one batch
+            Sinks.Empty<Void> earlierReply = Sinks.empty();
+            jobScheduler.submit(testGroup.getId(), earlierReply::asMono, () -> {});
+            aiService.processMessage(first);
+            aiService.processMessage(second);
+            earlierReply.tryEmitEmpty();
+
+            verify(messageService, timeout(5000)).sendAIMessage(testGroup.getId(), "周一，不会", second.getId());
+            verify(messageService, times(1)).sendAIMessage(any(), any(), any());
+            assertThat(requests).hasSize(1);
+            assertThat(meterRegistry.get("ai.triggers.coalesced").counter().count()).isEqualTo(1);
+        }
+
+        @Test
+        void debouncedReply_ReadsContextAsTheSender() {
+            ReflectionTestUtils.setField(aiService, "debounceWindow", Duration.ofMillis(20));
+            Message trigger = createMessage("@AI 在吗", MessageType.USER);
+            List<Object> principals = new ArrayList<>();
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenAnswer(invocation -> {
+                    principals.add(SecurityContextHolder.getContext().getAuthentication().getPrincipal());
+                    return List.of(trigger);
+                });
+
+            SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(testUser, null, List.of()));
+            try {
+                aiService.processMessage(trigger);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+
+            // The delay fires on a Reactor timer thread, which has no security context of its own
+            verify(messageRepository, timeout(5000)).findContextWindow(any(), any(), anyInt());
+            assertThat(principals).containsExactly(testUser);
+        }
+
+        @Test
+        void buildContext_SeveralTriggers_AsksForOneAnswerToEach() {
+            Message first = createMessage("@AI 问题一", MessageType.USER);
+            Message second = createMessage("@AI 问题二", MessageType.USER);
+            when(messageRepository.findContextWindow(eq(testGroup.getId()), any(LocalDateTime.class), eq(50)))
+                .thenReturn(List.of(first));
+
+            List<Map<String, String>> context = aiService.buildContext(testGroup.getId(), List.of(first, second));
+
+            // The trigger missing from the window is appended, then the instruction closes the context
+            assertThat(context.get(2).get("content")).contains("问题二");
+            assertThat(context.get(3).get("role")).isEqualTo("system");
+            assertThat(context.get(3).get("content")).contains("2 条消息");
+        }
+    }
+
+    // ====================================================================
+    // S9: AI WebClient Bean 注入 Tests
     // ====================================================================
 
     @Nested
-    class RestTemplateBeanTests {
+    class WebClientBeanTests {
 
         @Test
-        void aiService_HasRestTemplateField() {
-            // S9: AIService should have a RestTemplate field (injected bean, not new)
-            // After S9 implementation, the restTemplate should be a constructor-injected field
-            Object rt = ReflectionTestUtils.getField(aiService, "restTemplate");
-            assertThat(rt).isNotNull();
+        void aiService_HasWebClientField() {
+            // S9: AIService should have an AI client field (injected bean, not new)
+            Object client = ReflectionTestUtils.getField(aiService, "webClient");
+            assertThat(client).isNotNull();
         }
     }
 
@@ -0,0 +1,117 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AiCallLimiterTest {
+
+    private final AiCallLimiter limiter = new AiCallLimiter(3, 2, 1, 10, new SimpleMeterRegistry());
+
+    private final UUID groupA = UUID.randomUUID();
+    private final UUID groupB = UUID.randomUUID();
+
+    @Test
+    void callsOverGroupLimit_WaitWithoutBlockingOtherGroups() {
+        List<Sinks.Many<String>> calls = new ArrayList<>();
+        List<String> started = new ArrayList<>();
+
+        subscribe(groupA, "a1", calls, started);
+        subscribe(groupA, "a2", calls, started);
+        subscribe(groupA, "a3", calls, started);
+        subscribe(groupB, "b1", calls, started);
+
+        // a3 waits for its group; b1 passes it and takes the last global slot
+        assertThat(started).containsExactly("a1", "a2", "b1");
+        assertThat(limiter.inFlight()).isEqualTo(3);
+        assertThat(limiter.queued()).isEqualTo(1);
+
+        calls.get(0).tryEmitComplete();
+
+        assertThat(started).containsExactly("a1", "a2", "b1", "a3");
+        assertThat(limiter.queued()).isZero();
+    }
+
+    @Test
+    void cancelledWaiter_LeavesQueueAndReleasesNothing() {
+        List<Sinks.Many<String>> calls = new ArrayList<>();
+        List<String> started = new ArrayList<>();
+        subscribe(groupA, "a1", calls, started);
+        subscribe(groupA, "a2", calls, started);
+        Disposable waiting = subscribe(groupA, "a3", calls, started);
+
+        waiting.dispose();
+        assertThat(limiter.queued()).isZero();
+
+        calls.forEach(Sinks.Many::tryEmitComplete);
+        assertThat(started).containsExactly("a1", "a2");
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void failedCall_ReleasesItsPermit() {
+        limiter.limit(groupA, Flux.error(new RuntimeException("boom"))).subscribe(v -> {}, e -> {});
+
+        assertThat(limiter.inFlight()).isZero();
+    }
+
+    @Test
+    void tryLimit_TakesOnlyAFreePermit_AndNeverQueues() {
+        List<Sinks.Many<String>> calls = new ArrayList<>();
+        List<String> started = new ArrayList<>();
+        subscribe(groupA, "a1", calls, started);
+        subscribe(groupA, "a2", calls, started);
+
+        // groupA is at its limit, which a spare call does not count against
+        Sinks.Many<String> extra = Sinks.many().unicast().onBackpressureBuffer();
+        limiter.tryLimit(extra.asFlux().doOnSubscribe(s -> started.add("extra"))).subscribe();
+        assertThat(limiter.inFlight()).isEqualTo(3);
+
+        // The overall cap is reached: completes empty rather than waiting
+        List<String> skipped = limiter.tryLimit(Flux.just("never")).collectList().block();
+        assertThat(skipped).isEmpty();
+        assertThat(limiter.queued()).isZero();
+
+        // Its permit goes back to the overall cap only, and to whoever waits for it
+        subscribe(groupB, "b1", calls, started);
+        extra.tryEmitComplete();
+        assertThat(started).containsExactly("a1", "a2", "extra", "b1");
+        assertThat(limiter.inFlight()).isEqualTo(3);
+    }
+
+    @Test
+    void backgroundCall_TakesNoGroupPermit_AndWaitsBehindGroupCalls() {
+        List<Sinks.Many<String>> calls = new ArrayList<>();
+        List<String> started = new ArrayList<>();
+        subscribe(groupA, "a1", calls, started);
+        subscribe(groupA, "a2", calls, started);
+
+        // groupA is at its limit, but a summary does not need its permit
+        subscribe(null, "s1", calls, started);
+        assertThat(started).containsExactly("a1", "a2", "s1");
+
+        // Both wait for the overall cap; the group call goes first though it came later
+        subscribe(null, "s2", calls, started);
+        subscribe(groupB, "b1", calls, started);
+        calls.get(0).tryEmitComplete();
+        assertThat(started).containsExactly("a1", "a2", "s1", "b1");
+
+        calls.get(2).tryEmitComplete();
+        assertThat(started).containsExactly("a1", "a2", "s1", "b1", "s2");
+    }
+
+    private Disposable subscribe(UUID groupId, String name, List<Sinks.Many<String>> calls, List<String> started) {
+        Sinks.Many<String> call = Sinks.many().unicast().onBackpressureBuffer();
+        calls.add(call);
+        Flux<String> limited = call.asFlux().doOnSubscribe(s -> started.add(name));
+        return (groupId == null ? limiter.limitBackground(limited) : limiter.limit(groupId, limited)).subscribe();
+    }
+}
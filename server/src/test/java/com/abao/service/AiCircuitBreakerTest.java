@@ -0,0 +1,90 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AiCircuitBreakerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void failureRateOverThreshold_OpensTheCircuit_AndRejectsCalls() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 4, 50, Duration.ofSeconds(30), 2, meterRegistry);
+
+        succeed(breaker);
+        fail(breaker);
+        succeed(breaker);
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.CLOSED);
+
+        // Two failures out of four calls reach the 50% threshold
+        fail(breaker);
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.OPEN);
+        assertThat(breaker.isOpen()).isTrue();
+        assertThatThrownBy(() -> breaker.protect(Flux.just("x"), e -> true).blockLast())
+            .isInstanceOf(AiCircuitBreaker.OpenException.class);
+        assertThat(meterRegistry.get("ai.circuit.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void errorsThatAreNotProviderFailures_AreNotCounted() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 2, 50, Duration.ofSeconds(30), 2, meterRegistry);
+
+        for (int i = 0; i < 5; i++) {
+            breaker.protect(Flux.error(new IllegalArgumentException()), e -> false)
+                .onErrorResume(e -> Flux.empty())
+                .blockLast();
+        }
+
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpen_LetsProbesThrough_AndClosesOnceTheyAllSucceed() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 2, 50, Duration.ZERO, 2, meterRegistry);
+        fail(breaker);
+        fail(breaker);
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.OPEN);
+
+        // The wait is over, so the next calls are probes; no more than two at once
+        Sinks.Many<String> first = Sinks.many().unicast().onBackpressureBuffer();
+        Sinks.Many<String> second = Sinks.many().unicast().onBackpressureBuffer();
+        breaker.protect(first.asFlux(), e -> true).subscribe();
+        breaker.protect(second.asFlux(), e -> true).subscribe();
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(() -> breaker.protect(Flux.just("x"), e -> true).blockLast())
+            .isInstanceOf(AiCircuitBreaker.OpenException.class);
+
+        first.tryEmitNext("a");
+        second.tryEmitNext("b");
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void halfOpen_FailedProbe_OpensAgain() {
+        AiCircuitBreaker breaker = new AiCircuitBreaker("test", 10, 2, 50, Duration.ZERO, 2, meterRegistry);
+        fail(breaker);
+        fail(breaker);
+
+        fail(breaker);
+
+        assertThat(breaker.state()).isEqualTo(AiCircuitBreaker.State.OPEN);
+    }
+
+    private static void succeed(AiCircuitBreaker breaker) {
+        breaker.protect(Flux.just("ok"), e -> true).blockLast();
+    }
+
+    private static void fail(AiCircuitBreaker breaker) {
+        breaker.protect(Flux.error(new TimeoutException()), e -> true)
+            .onErrorResume(e -> Flux.empty())
+            .blockLast();
+    }
+}
@@ -0,0 +1,96 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AiJobSchedulerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final UUID groupA = UUID.randomUUID();
+    private final UUID groupB = UUID.randomUUID();
+
+    private final List<String> started = new ArrayList<>();
+    private final List<String> rejected = new ArrayList<>();
+    private final Map<String, Sinks.Empty<Void>> jobs = new HashMap<>();
+
+    @Test
+    void jobsInOneGroup_RunOneAtATimeInOrder_WhileOtherGroupsProceed() {
+        AiJobScheduler scheduler = scheduler(AiJobScheduler.OverflowPolicy.REJECT_NEW, 5);
+
+        submit(scheduler, groupA, "a1");
+        submit(scheduler, groupA, "a2");
+        submit(scheduler, groupA, "a3");
+        submit(scheduler, groupB, "b1");
+
+        assertThat(started).containsExactly("a1", "b1");
+        assertThat(scheduler.queued()).isEqualTo(2);
+        assertThat(scheduler.running()).isEqualTo(2);
+
+        jobs.get("a1").tryEmitEmpty();
+        assertThat(started).containsExactly("a1", "b1", "a2");
+
+        // A failed reply still hands the group's turn on
+        jobs.get("a2").tryEmitError(new RuntimeException("boom"));
+        assertThat(started).containsExactly("a1", "b1", "a2", "a3");
+
+        jobs.get("a3").tryEmitEmpty();
+        jobs.get("b1").tryEmitEmpty();
+        assertThat(scheduler.queued()).isZero();
+        assertThat(scheduler.running()).isZero();
+        assertThat(meterRegistry.get("ai.jobs.run_time").timer().count()).isEqualTo(4);
+        assertThat(meterRegistry.get("ai.jobs.queue_wait").timer().count()).isEqualTo(4);
+    }
+
+    @Test
+    void rejectNew_RejectsTheTriggerThatOverflows() {
+        AiJobScheduler scheduler = scheduler(AiJobScheduler.OverflowPolicy.REJECT_NEW, 1);
+
+        submit(scheduler, groupA, "a1");
+        submit(scheduler, groupA, "a2");
+        submit(scheduler, groupA, "a3");
+
+        assertThat(rejected).containsExactly("a3");
+        jobs.get("a1").tryEmitEmpty();
+        assertThat(started).containsExactly("a1", "a2");
+        assertThat(meterRegistry.get("ai.jobs.rejected").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void dropOldest_KeepsTheLatestTriggers() {
+        AiJobScheduler scheduler = scheduler(AiJobScheduler.OverflowPolicy.DROP_OLDEST, 1);
+
+        submit(scheduler, groupA, "a1");
+        submit(scheduler, groupA, "a2");
+        submit(scheduler, groupA, "a3");
+
+        assertThat(rejected).containsExactly("a2");
+        assertThat(scheduler.queued()).isEqualTo(1);
+        jobs.get("a1").tryEmitEmpty();
+        assertThat(started).containsExactly("a1", "a3");
+    }
+
+    private AiJobScheduler scheduler(AiJobScheduler.OverflowPolicy policy, int maxQueuedPerGroup) {
+        return new AiJobScheduler(Runnable::run, 100, maxQueuedPerGroup, policy, Duration.ofMinutes(1), meterRegistry);
+    }
+
+    private void submit(AiJobScheduler scheduler, UUID groupId, String name) {
+        Sinks.Empty<Void> job = Sinks.empty();
+        jobs.put(name, job);
+        scheduler.submit(groupId, () -> {
+            started.add(name);
+            return job.asMono();
+        }, () -> rejected.add(name));
+    }
+}
@@ -0,0 +1,186 @@
+package com.abao.service;
+
+import com.abao.config.AiProviderProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AiProviderRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AiProviderProperties properties = new AiProviderProperties();
+
+    @Test
+    void mockProvider_StreamsItsReplyInProcess() {
+        AiProviderProperties.Provider mock = mock("local");
+        mock.setMockReply("你好，我是模拟");
+        AiProviderRouter router = router(mock);
+
+        List<String> events = router.route(0, null, AiProviderRouterTest::chatCompletion).collectList().block();
+
+        assertThat(events).first().asString().contains("\"content\":\"你好，我\"");
+        assertThat(events).last().isEqualTo("[DONE]");
+    }
+
+    @Test
+    void failingProvider_FailsOverToTheNextOne() {
+        AiProviderProperties.Provider down = mock("down");
+        down.setMockStatus(503);
+        down.setWeight(1e6);
+        AiProviderProperties.Provider up = mock("up");
+        up.setWeight(1e-6);
+        AiProviderRouter router = router(down, up);
+
+        List<String> events = router.route(0, null, AiProviderRouterTest::chatCompletion).collectList().block();
+
+        assertThat(events).last().isEqualTo("[DONE]");
+        assertThat(meterRegistry.get("ai.provider.failovers").counter().count()).isEqualTo(1);
+        assertThat(router.providers().get(0).errorRate()).isPositive();
+    }
+
+    @Test
+    void slowProvider_LosesTrafficToTheFastOne() {
+        properties.getRouting().setDecay(1.0);
+        AiProviderRouter router = router(mock("slow"), mock("fast"));
+        AiProvider slow = router.providers().get(0);
+        AiProvider fast = router.providers().get(1);
+
+        slow.track(Mono.delay(Duration.ofMillis(200)).thenMany(Flux.just("x"))).blockLast();
+        fast.track(Flux.just("x")).blockLast();
+
+        long fastFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (router.candidates(0).get(0) == fast) {
+                fastFirst++;
+            }
+        }
+        assertThat(fastFirst).isGreaterThan(950);
+    }
+
+    @Test
+    void saturatedProvider_IsSkippedWhileAnotherHasRoom() {
+        AiProviderProperties.Provider busy = mock("busy");
+        busy.setMaxInFlight(1);
+        busy.setWeight(1000);
+        AiProviderRouter router = router(busy, mock("idle"));
+        AiProvider busyProvider = router.providers().get(0);
+
+        Disposable call = busyProvider.track(Flux.never()).subscribe();
+        assertThat(router.candidates(0)).extracting(AiProvider::name).containsExactly("idle");
+
+        call.dispose();
+        assertThat(router.candidates(0)).extracting(AiProvider::name).contains("busy", "idle");
+    }
+
+    @Test
+    void onlySaturatedProviders_StillTakeTheCall() {
+        AiProviderProperties.Provider only = mock("only");
+        only.setMaxInFlight(1);
+        AiProviderRouter router = router(only);
+
+        router.providers().get(0).track(Flux.never()).subscribe();
+
+        assertThat(router.candidates(0)).extracting(AiProvider::name).containsExactly("only");
+    }
+
+    @Test
+    void firstTokenP95_IsEachProvidersOwn() {
+        AiProviderRouter router = router(mock("slow"), mock("fast"));
+        AiProvider slow = router.providers().get(0);
+        AiProvider fast = router.providers().get(1);
+
+        assertThat(slow.firstTokenP95(1)).isNull();
+        slow.track(Mono.delay(Duration.ofMillis(100)).thenMany(Flux.just("x"))).blockLast();
+        fast.track(Flux.just("x")).blockLast();
+
+        assertThat(slow.firstTokenP95(1)).isGreaterThanOrEqualTo(Duration.ofMillis(90));
+        assertThat(fast.firstTokenP95(1)).isLessThan(Duration.ofMillis(90));
+        assertThat(fast.firstTokenP95(2)).isNull();
+    }
+
+    @Test
+    void providersThatCannotTakeThePrompt_OrWhoseCircuitIsOpen_AreSkipped() {
+        AiProviderProperties.Provider small = mock("small");
+        small.setMaxPromptTokens(100);
+        AiProviderRouter router = router(small, mock("large"));
+
+        assertThat(router.candidates(500)).extracting(AiProvider::name).containsExactly("large");
+
+        AiProvider large = router.providers().get(1);
+        for (int i = 0; i < 10; i++) {
+            large.circuitBreaker().protect(Flux.error(new TimeoutException()), e -> true)
+                .onErrorResume(e -> Flux.empty())
+                .blockLast();
+        }
+        // Too big for the one healthy provider: not sent at all
+        assertThat(router.candidates(500)).isEmpty();
+        assertThatThrownBy(() -> router.route(500, null, AiProviderRouterTest::chatCompletion).blockLast())
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void promptBudget_IsTheSmallestLimitAmongHealthyProviders() {
+        AiProviderProperties.Provider small = mock("small");
+        small.setMaxPromptTokens(100);
+        AiProviderProperties.Provider medium = mock("medium");
+        medium.setMaxPromptTokens(4000);
+        AiProviderRouter router = router(small, medium, mock("unlimited"));
+
+        assertThat(router.promptBudget(6000)).isEqualTo(100);
+        assertThat(router.candidates(router.promptBudget(6000))).hasSize(3);
+
+        AiProvider smallest = router.providers().get(0);
+        for (int i = 0; i < 10; i++) {
+            smallest.circuitBreaker().protect(Flux.error(new TimeoutException()), e -> true)
+                .onErrorResume(e -> Flux.empty())
+                .blockLast();
+        }
+        assertThat(router.promptBudget(6000)).isEqualTo(4000);
+        assertThat(router.promptBudget(2000)).isEqualTo(2000);
+    }
+
+    @Test
+    void everyCircuitOpen_FailsFastWithoutSubscribing() {
+        AiProviderRouter router = router(mock("only"));
+        for (int i = 0; i < 10; i++) {
+            router.providers().get(0).circuitBreaker().protect(Flux.error(new TimeoutException()), e -> true)
+                .onErrorResume(e -> Flux.empty())
+                .blockLast();
+        }
+
+        assertThatThrownBy(() -> router.failFast(Flux.defer(() -> {
+            throw new AssertionError("subscribed");
+        })).blockLast()).isInstanceOf(AiCircuitBreaker.OpenException.class);
+    }
+
+    private AiProviderRouter router(AiProviderProperties.Provider... providers) {
+        properties.setProviders(List.of(providers));
+        return new AiProviderRouter(properties, new AiResilience(0, Duration.ofMillis(1), Duration.ofMillis(5),
+            new AiCallLimiter(10, 2, 4, 100, meterRegistry), meterRegistry), new ObjectMapper(), "", "", "", 20, 10, 50, Duration.ofSeconds(30), 3, meterRegistry);
+    }
+
+    private static AiProviderProperties.Provider mock(String name) {
+        AiProviderProperties.Provider provider = new AiProviderProperties.Provider();
+        provider.setName(name);
+        provider.setMock(true);
+        provider.setMockLatency(Duration.ZERO);
+        return provider;
+    }
+
+    private static Flux<String> chatCompletion(AiProvider provider) {
+        return provider.client().post()
+            .uri(provider.baseUrl() + "/v1/chat/completions")
+            .retrieve()
+            .bodyToFlux(String.class);
+    }
+}
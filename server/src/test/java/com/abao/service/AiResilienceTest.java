@@ -0,0 +1,98 @@
+package com.abao.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AiResilienceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AiCircuitBreaker breaker =
+        new AiCircuitBreaker("test", 20, 10, 50, Duration.ofSeconds(30), 3, meterRegistry);
+    // The limits application.yml ships with
+    private final AiCallLimiter callLimiter = new AiCallLimiter(64, 1, 4, 1000, meterRegistry);
+    private final AiResilience resilience =
+        new AiResilience(2, Duration.ofMillis(1), Duration.ofMillis(5), callLimiter, meterRegistry);
+    private final UUID groupId = UUID.randomUUID();
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Test
+    void retryableStatus_IsRetriedUntilAnAttemptSucceeds() {
+        Flux<String> attempt = Flux.defer(() -> attempts.incrementAndGet() < 3
+            ? Flux.error(status(HttpStatus.TOO_MANY_REQUESTS))
+            : Flux.just("a", "b"));
+
+        List<String> deltas = resilience.call(breaker, attempt, null).collectList().block();
+
+        assertThat(deltas).containsExactly("a", "b");
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(meterRegistry.get("ai.calls.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void clientErrors_AndFailuresAfterATokenWasStreamed_AreNotRetried() {
+        Flux<String> rejected = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.error(status(HttpStatus.BAD_REQUEST));
+        });
+        assertThatThrownBy(() -> resilience.call(breaker, rejected, null).blockLast())
+            .isInstanceOf(WebClientResponseException.BadRequest.class);
+        assertThat(attempts.getAndSet(0)).isEqualTo(1);
+
+        Flux<String> cutOff = Flux.defer(() -> {
+            attempts.incrementAndGet();
+            return Flux.concat(Flux.just("a"), Flux.error(status(HttpStatus.BAD_GATEWAY)));
+        });
+        assertThatThrownBy(() -> resilience.call(breaker, cutOff, null).blockLast())
+            .isInstanceOf(WebClientResponseException.BadGateway.class);
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    void slowAttempt_IsHedged_ThoughItHoldsTheGroupsOnlyPermit_AndTheFasterAttemptWins() {
+        Flux<String> attempt = Flux.defer(() -> attempts.incrementAndGet() == 1
+            ? Mono.delay(Duration.ofSeconds(5)).thenMany(Flux.just("slow"))
+            : Flux.just("fast"));
+
+        List<String> deltas = callLimiter.limit(groupId,
+            resilience.call(breaker, attempt, new AiResilience.Hedge(Duration.ofMillis(20)))).collectList().block();
+
+        assertThat(deltas).containsExactly("fast");
+        assertThat(meterRegistry.get("ai.calls.hedged").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void hedge_WithoutAFreePermit_IsSkipped() {
+        Flux<String> attempt = Flux.defer(() -> attempts.incrementAndGet() == 1
+            ? Mono.delay(Duration.ofMillis(200)).thenMany(Flux.just("slow"))
+            : Flux.just("fast"));
+        AiCallLimiter full = new AiCallLimiter(2, 1, 4, 10, meterRegistry);
+        AiResilience resilience = new AiResilience(2, Duration.ofMillis(1), Duration.ofMillis(5), full, meterRegistry);
+        // Another group's call takes the other permit, so the hedge would exceed the overall cap
+        full.limit(UUID.randomUUID(), Flux.never()).subscribe();
+
+        List<String> deltas = full.limit(groupId,
+            resilience.call(breaker, attempt, new AiResilience.Hedge(Duration.ofMillis(20)))).collectList().block();
+
+        assertThat(deltas).containsExactly("slow");
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("ai.calls.hedged").counter().count()).isZero();
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), HttpHeaders.EMPTY, null, null);
+    }
+}
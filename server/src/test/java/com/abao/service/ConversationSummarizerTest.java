@@ -0,0 +1,163 @@
+package com.abao.service;
+
+import com.abao.entity.ConversationSummary;
+import com.abao.entity.Group;
+import com.abao.entity.Message;
+import com.abao.entity.MessageType;
+import com.abao.entity.User;
+import com.abao.repository.ConversationSummaryRepository;
+import com.abao.repository.MessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConversationSummarizerTest {
+
+    @Mock
+    private AIService aiService;
+
+    @Mock
+    private AiProviderRouter router;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private ConversationSummaryRepository summaryRepository;
+
+    private final ConversationContextStore contextStore =
+        new ConversationContextStore(100, Duration.ofHours(1), new SimpleMeterRegistry());
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ConversationSummarizer summarizer;
+    private Group group;
+    private User sender;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(router.promptBudget(anyInt())).thenAnswer(invocation -> invocation.getArgument(0));
+        summarizer = new ConversationSummarizer(aiService, router, messageRepository, summaryRepository, contextStore,
+            meterRegistry, 4, 2, 100, 500, 1000, 12000, Duration.ofMinutes(1));
+        group = new Group();
+        group.setId(UUID.randomUUID());
+        sender = new User();
+        sender.setId(UUID.randomUUID());
+        sender.setNickname("Alice");
+    }
+
+    @Test
+    void messagesPastTheThreshold_AreFoldedIntoANewSummary() {
+        hold();
+        when(summaryRepository.findFirstByGroupIdOrderByThroughSeqDesc(group.getId()))
+            .thenReturn(Optional.of(new ConversationSummary(UUID.randomUUID(), group.getId(), 10L, "之前的摘要", null)));
+        when(messageRepository.findAfterSeq(group.getId(), 10L, 100))
+            .thenReturn(LongStream.rangeClosed(11, 16).mapToObj(this::message).toList());
+        when(aiService.complete(anyList(), eq(500))).thenReturn(Mono.just("新的摘要"));
+
+        // 10 past the summary is still within threshold plus the two kept raw
+        summarizer.onMessage(message(15));
+        verifyNoInteractions(aiService);
+
+        summarizer.onMessage(message(16));
+
+        ArgumentCaptor<ConversationSummary> saved = ArgumentCaptor.forClass(ConversationSummary.class);
+        verify(summaryRepository, timeout(5000)).save(saved.capture());
+        // 15 and 16 stay raw
+        assertThat(saved.getValue().getThroughSeq()).isEqualTo(14L);
+        assertThat(saved.getValue().getContent()).isEqualTo("新的摘要");
+        verify(aiService).complete(argThat(prompt ->
+            prompt.get(1).get("content").contains("之前的摘要")
+                && prompt.get(1).get("content").contains("Alice: 消息 14")
+                && !prompt.get(1).get("content").contains("消息 15")), eq(500));
+    }
+
+    @Test
+    void longSegments_AreCutToThePromptBudget() {
+        ConversationSummarizer small = new ConversationSummarizer(aiService, router, messageRepository,
+            summaryRepository, contextStore, meterRegistry, 4, 2, 100, 500, 50, 300, Duration.ofMinutes(1));
+        Message paste = message(1);
+        paste.setContent("长".repeat(1000));
+
+        ConversationSummarizer.Prompt prompt = small.prompt(null,
+            LongStream.rangeClosed(1, 40).mapToObj(seq -> seq == 1 ? paste : message(seq)).toList());
+
+        String content = prompt.messages().get(1).get("content");
+        assertThat(content).contains(TokenEstimator.TRUNCATION_MARK).doesNotContain("消息 40");
+        assertThat(prompt.throughSeq()).isBetween(2L, 39L);
+        assertThat(content).contains("消息 " + prompt.throughSeq()).doesNotContain("消息 " + (prompt.throughSeq() + 1));
+    }
+
+    @Test
+    void aHealthyProvidersSmallerPromptLimit_CutsTheSegment() {
+        when(router.promptBudget(12000)).thenReturn(300);
+
+        ConversationSummarizer.Prompt prompt = summarizer.prompt(null,
+            LongStream.rangeClosed(1, 200).mapToObj(this::message).toList());
+
+        assertThat(prompt.throughSeq()).isBetween(1L, 199L);
+        assertThat(TokenEstimator.estimateMessage(prompt.messages().get(1).get("content"))).isLessThanOrEqualTo(300);
+    }
+
+    @Test
+    void afterAFailedSummary_TheGroupBacksOff() throws InterruptedException {
+        hold();
+        when(messageRepository.findAfterSeq(eq(group.getId()), anyLong(), eq(100)))
+            .thenReturn(LongStream.rangeClosed(1, 16).mapToObj(this::message).toList());
+        when(aiService.complete(anyList(), eq(500))).thenReturn(Mono.empty());
+
+        summarizer.onMessage(message(16));
+        verify(aiService, timeout(5000)).complete(anyList(), eq(500));
+        for (int i = 0; i < 500 && meterRegistry.counter("ai.summary.failures").count() < 1; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(meterRegistry.counter("ai.summary.failures").count()).isEqualTo(1);
+
+        summarizer.onMessage(message(17));
+        summarizer.onMessage(message(18));
+
+        Thread.sleep(200);
+        verify(aiService, times(1)).complete(anyList(), anyInt());
+        verify(summaryRepository, never()).save(any());
+    }
+
+    @Test
+    void groupsTheAiIsNotActiveIn_AreNotSummarized() {
+        summarizer.onMessage(message(100));
+
+        verifyNoInteractions(aiService, messageRepository, summaryRepository);
+    }
+
+    private void hold() {
+        contextStore.window(group.getId(), 0, LocalDateTime.now().minusMinutes(30), 50, (id, since, limit) -> List.of(), List.of());
+    }
+
+    private Message message(long seq) {
+        Message message = new Message();
+        message.setId(UUID.randomUUID());
+        message.setGroup(group);
+        message.setSender(sender);
+        message.setContent("消息 " + seq);
+        message.setMessageType(MessageType.USER);
+        message.setSeq(seq);
+        message.setCreatedAt(LocalDateTime.now());
+        return message;
+    }
+}
@@ -0,0 +1,82 @@
+package com.abao.service;
+
+import com.abao.dto.group.CreateGroupRequest;
+import com.abao.dto.group.GroupDto;
+import com.abao.entity.Group;
+import com.abao.entity.User;
+import com.abao.repository.GroupChangeRepository;
+import com.abao.repository.GroupMemberRepository;
+import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GroupServiceTest {
+
+    @Mock
+    private GroupRepository groupRepository;
+
+    @Mock
+    private GroupMemberRepository groupMemberRepository;
+
+    @Mock
+    private MessageRepository messageRepository;
+
+    @Mock
+    private GroupChangeRepository groupChangeRepository;
+
+    @Mock
+    private InviteCodeAllocator inviteCodeAllocator;
+
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Mock
+    private GroupViewCache groupViewCache;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @InjectMocks
+    private GroupService groupService;
+
+    @Test
+    void createGroup_InviteCodeTakenByALegacyGroup_RetriesWithTheNextCode() {
+        User creator = new User();
+        creator.setId(UUID.randomUUID());
+        CreateGroupRequest request = new CreateGroupRequest();
+        request.setName("Legacy Collision");
+        when(inviteCodeAllocator.next()).thenReturn("TAKEN1", "FRESH2");
+        when(groupRepository.saveAndFlush(any(Group.class)))
+            .thenThrow(new DataIntegrityViolationException("groups_invite_code_key"))
+            .thenAnswer(invocation -> {
+                Group group = invocation.getArgument(0);
+                group.setId(UUID.randomUUID());
+                return group;
+            });
+
+        GroupDto created = groupService.createGroup(request, creator);
+
+        assertThat(created.getInviteCode()).isEqualTo("FRESH2");
+        verify(inviteCodeAllocator, times(2)).next();
+        verify(groupMemberRepository, times(2)).save(any());
+    }
+}
@@ -0,0 +1,62 @@
+package com.abao.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class InviteCodeAllocatorTest {
+
+    private final long[] keys = InviteCodeAllocator.roundKeys("test-secret");
+
+    @Test
+    void permute_IsInjectiveOverConsecutiveCounters() {
+        Set<Long> seen = new HashSet<>();
+        for (long counter = 0; counter < 200_000; counter++) {
+            long code = InviteCodeAllocator.permute(counter, keys);
+            assertThat(code).isBetween(0L, InviteCodeAllocator.SPACE - 1);
+            assertThat(seen.add(code)).as("collision at counter %d", counter).isTrue();
+        }
+    }
+
+    @Test
+    void permute_StaysInSpaceAndDependsOnSecret() {
+        assertThat(InviteCodeAllocator.permute(InviteCodeAllocator.SPACE - 1, keys))
+            .isBetween(0L, InviteCodeAllocator.SPACE - 1);
+        assertThat(InviteCodeAllocator.permute(0, keys))
+            .isNotEqualTo(InviteCodeAllocator.permute(0, InviteCodeAllocator.roundKeys("other-secret")));
+    }
+
+    @Test
+    void encode_ProducesSixCharactersFromTheAlphabet() {
+        assertThat(InviteCodeAllocator.encode(0)).isEqualTo("AAAAAA");
+        assertThat(InviteCodeAllocator.encode(InviteCodeAllocator.SPACE - 1)).isEqualTo("999999");
+
+        String code = InviteCodeAllocator.encode(InviteCodeAllocator.permute(42, keys));
+        assertThat(code).hasSize(InviteCodeAllocator.CODE_LENGTH).matches("[A-Z0-9]{6}");
+    }
+
+    @Test
+    void consecutiveCounters_DoNotGiveAdjacentCodes() {
+        String first = InviteCodeAllocator.encode(InviteCodeAllocator.permute(1, keys));
+        String second = InviteCodeAllocator.encode(InviteCodeAllocator.permute(2, keys));
+
+        assertThat(first.substring(0, 5)).isNotEqualTo(second.substring(0, 5));
+    }
+
+    @Test
+    void constructor_RejectsAMissingOrShortSecret() {
+        DataSource dataSource = mock(DataSource.class);
+
+        assertThatThrownBy(() -> new InviteCodeAllocator(dataSource, null))
+            .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new InviteCodeAllocator(dataSource, "abao-invite-codes"))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("INVITE_CODE_SECRET");
+    }
+}
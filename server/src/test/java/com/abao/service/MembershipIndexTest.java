@@ -0,0 +1,196 @@
+package com.abao.service;
+
+import com.abao.config.CacheInvalidationBus;
+import com.abao.config.LocalSharedCacheStore;
+import com.abao.repository.GroupMemberRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class MembershipIndexTest {
+
+    private final GroupMemberRepository groupMemberRepository = mock(GroupMemberRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final LocalSharedCacheStore sharedStore = new LocalSharedCacheStore();
+    private final CacheInvalidationBus bus = new CacheInvalidationBus(sharedStore, new ObjectMapper());
+    private MembershipIndex index;
+
+    private final UUID groupId = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        index = new MembershipIndex(groupMemberRepository, meterRegistry, bus);
+        when(groupMemberRepository.findUserIdsByGroupId(groupId)).thenReturn(List.of(alice));
+    }
+
+    @Test
+    void isMember_LoadsGroupOnceThenAnswersFromBitmap() {
+        assertThat(index.isMember(groupId, alice)).isTrue();
+        assertThat(index.isMember(groupId, alice)).isTrue();
+
+        verify(groupMemberRepository, times(1)).findUserIdsByGroupId(groupId);
+        verify(groupMemberRepository, never()).existsByGroupIdAndUserId(any(), any());
+    }
+
+    @Test
+    void isMember_ConfirmsMissAgainstDatabase() {
+        when(groupMemberRepository.existsByGroupIdAndUserId(groupId, bob)).thenReturn(true);
+
+        // Joined after the group was loaded: found in the database and remembered
+        assertThat(index.isMember(groupId, bob)).isTrue();
+        assertThat(index.isMember(groupId, bob)).isTrue();
+        verify(groupMemberRepository, times(1)).existsByGroupIdAndUserId(groupId, bob);
+
+        assertThat(index.isMember(groupId, UUID.randomUUID())).isFalse();
+    }
+
+    @Test
+    void addAndRemove_ReloadTheGroupFromTheDatabase() {
+        index.isMember(groupId, alice);
+        when(groupMemberRepository.findUserIdsByGroupId(groupId)).thenReturn(List.of(bob));
+
+        index.addMember(groupId, bob);
+        index.removeMember(groupId, alice);
+
+        RoaringBitmap members = index.membersOf(groupId);
+        assertThat(members.getCardinality()).isEqualTo(1);
+        assertThat(index.userUuid(members.first())).isEqualTo(bob);
+    }
+
+    @Test
+    void addMember_RolledBack_LeavesTheBitmapAlone() {
+        index.isMember(groupId, alice);
+
+        inTransaction(() -> index.addMember(groupId, bob), TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(index.isMember(groupId, bob)).isFalse();
+        verify(groupMemberRepository, times(1)).findUserIdsByGroupId(groupId);
+    }
+
+    @Test
+    void removeMember_ConcurrentCheckBeforeCommit_DoesNotKeepTheUser() {
+        index.isMember(groupId, alice);
+        List<TransactionSynchronization> leave = new ArrayList<>();
+        // The check misses the bitmap and reads the row the leave has deleted but not yet committed;
+        // the leave commits while the check is still on its way back
+        when(groupMemberRepository.existsByGroupIdAndUserId(groupId, bob)).thenAnswer(invocation -> {
+            TransactionSynchronizationUtils.invokeAfterCommit(leave);
+            return true;
+        });
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.removeMember(groupId, bob);
+            leave.addAll(TransactionSynchronizationManager.getSynchronizations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(index.isMember(groupId, bob)).isTrue();
+        when(groupMemberRepository.existsByGroupIdAndUserId(groupId, bob)).thenReturn(false);
+
+        assertThat(index.isMember(groupId, bob)).isFalse();
+    }
+
+    @Test
+    void slowLoad_DoesNotHoldUpOtherGroups() throws Exception {
+        UUID otherGroup = UUID.randomUUID();
+        when(groupMemberRepository.findUserIdsByGroupId(otherGroup)).thenReturn(List.of(bob));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(groupMemberRepository.findUserIdsByGroupId(groupId)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return List.of(alice);
+        });
+
+        CompletableFuture<Boolean> slow = CompletableFuture.supplyAsync(() -> index.isMember(groupId, alice));
+        started.await();
+        try {
+            assertThat(CompletableFuture.supplyAsync(() -> index.isMember(otherGroup, bob))
+                .get(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            release.countDown();
+        }
+        assertThat(slow.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void evictDuringLoad_DropsTheLoadedBitmap() {
+        when(groupMemberRepository.findUserIdsByGroupId(groupId)).thenAnswer(invocation -> {
+            // The join commits while the group is being read
+            index.addMember(groupId, bob);
+            return List.of(alice);
+        }).thenReturn(List.of(alice, bob));
+
+        assertThat(index.membersOf(groupId).getCardinality()).isEqualTo(1);
+
+        assertThat(index.membersOf(groupId).getCardinality()).isEqualTo(2);
+        verify(groupMemberRepository, times(2)).findUserIdsByGroupId(groupId);
+    }
+
+    private void inTransaction(Runnable work, int completionStatus) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            work.run();
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                TransactionSynchronizationManager.getSynchronizations(), completionStatus);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void removeMember_MakesOtherNodesReloadTheGroup() {
+        MembershipIndex otherNode = new MembershipIndex(groupMemberRepository, new SimpleMeterRegistry(),
+            new CacheInvalidationBus(sharedStore, new ObjectMapper()));
+        assertThat(otherNode.isMember(groupId, alice)).isTrue();
+
+        when(groupMemberRepository.findUserIdsByGroupId(groupId)).thenReturn(List.of());
+        index.removeMember(groupId, alice);
+
+        assertThat(otherNode.isMember(groupId, alice)).isFalse();
+        verify(groupMemberRepository, times(2)).findUserIdsByGroupId(groupId);
+    }
+
+    @Test
+    void membersOf_ReturnsSnapshotIndependentOfLaterChanges() {
+        RoaringBitmap snapshot = index.membersOf(groupId);
+        assertThat(meterRegistry.get("membership.index.bytes").gauge().value()).isPositive();
+
+        index.addMember(groupId, bob);
+
+        assertThat(snapshot.getCardinality()).isEqualTo(1);
+    }
+
+    @Test
+    void denseIds_AreStableAndReversible() {
+        DenseIdRegistry registry = new DenseIdRegistry();
+        for (int i = 0; i < 5000; i++) {
+            registry.intern(UUID.randomUUID());
+        }
+
+        UUID id = UUID.randomUUID();
+        int dense = registry.intern(id);
+
+        assertThat(registry.intern(id)).isEqualTo(dense).isEqualTo(5000);
+        assertThat(registry.uuid(dense)).isEqualTo(id);
+        assertThat(registry.find(UUID.randomUUID())).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,33 @@
+package com.abao.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessagePartitionManagerTest {
+
+    @Test
+    void partitionDdl_CoversExactlyOneMonth() {
+        List<String> ddl = MessagePartitionManager.partitionDdl(YearMonth.of(2026, 12));
+
+        assertThat(ddl).containsExactly("CREATE TABLE IF NOT EXISTS messages_p2026_12 PARTITION OF messages"
+            + " FOR VALUES FROM ('2026-12-01') TO ('2027-01-01')");
+    }
+
+    @Test
+    void monthOf_RoundTripsPartitionName() {
+        YearMonth month = YearMonth.of(2026, 3);
+
+        assertThat(MessagePartitionManager.monthOf(MessagePartitionManager.partitionName(month))).isEqualTo(month);
+    }
+
+    @Test
+    void monthOf_IgnoresOtherPartitions() {
+        assertThat(MessagePartitionManager.monthOf("messages_default")).isNull();
+        assertThat(MessagePartitionManager.monthOf("messages_pfoo")).isNull();
+        assertThat(MessagePartitionManager.monthOf(null)).isNull();
+    }
+}
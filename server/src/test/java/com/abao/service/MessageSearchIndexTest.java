@@ -0,0 +1,137 @@
+package com.abao.service;
+
+import com.abao.dto.message.MessageDto;
+import com.abao.dto.message.MessageSearchHitDto;
+import com.abao.entity.MessageType;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageSearchIndexTest {
+
+    private MessageSearchIndex index;
+
+    private final UUID groupId = UUID.randomUUID();
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final LocalDateTime base = LocalDateTime.of(2026, 1, 1, 12, 0);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        index = new MessageSearchIndex(new ByteBuffersDirectory());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        index.close();
+    }
+
+    @Test
+    void search_ChineseText_MatchesBigramsAndHighlights() {
+        index.index(List.of(
+            message(alice, "今天北京天气很好", base),
+            message(bob, "上海下雨了", base.plusMinutes(1))
+        ));
+        index.refresh();
+
+        List<MessageSearchHitDto> hits = index.search(groupId, "天气", null, null, null, 10);
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getSenderId()).isEqualTo(alice);
+        assertThat(hits.get(0).getSnippet()).contains("<em>天气</em>");
+        assertThat(hits.get(0).getCreatedAt()).isEqualTo(base);
+    }
+
+    @Test
+    void search_AllTokensRequired_NewestFirst() {
+        index.index(List.of(
+            message(alice, "deploy the server tonight", base),
+            message(bob, "server is down", base.plusMinutes(1)),
+            message(alice, "server deploy done", base.plusMinutes(2))
+        ));
+        index.refresh();
+
+        List<MessageSearchHitDto> hits = index.search(groupId, "Server deploy", null, null, null, 10);
+
+        assertThat(hits).extracting(MessageSearchHitDto::getCreatedAt)
+            .containsExactly(base.plusMinutes(2), base);
+    }
+
+    @Test
+    void search_SenderAndTimeFilters() {
+        index.index(List.of(
+            message(alice, "周报 第一版", base),
+            message(bob, "周报 第二版", base.plusDays(1)),
+            message(alice, "周报 第三版", base.plusDays(2))
+        ));
+        index.refresh();
+
+        assertThat(index.search(groupId, "周报", alice, null, null, 10)).hasSize(2);
+        assertThat(index.search(groupId, "周报", null, base.plusDays(1), null, 10))
+            .extracting(MessageSearchHitDto::getSenderId).containsExactly(alice, bob);
+        // before is exclusive and serves as the paging cursor
+        assertThat(index.search(groupId, "周报", null, null, base.plusDays(2), 1))
+            .extracting(MessageSearchHitDto::getCreatedAt).containsExactly(base.plusDays(1));
+    }
+
+    @Test
+    void search_OtherGroupsAreInvisible() {
+        MessageDto elsewhere = message(alice, "机密信息", base);
+        elsewhere.setGroupId(UUID.randomUUID());
+        index.index(List.of(elsewhere));
+        index.refresh();
+
+        assertThat(index.search(groupId, "机密", null, null, null, 10)).isEmpty();
+    }
+
+    @Test
+    void index_SameMessageTwice_KeepsOneDocument() {
+        MessageDto dto = message(alice, "重复索引", base);
+        index.index(List.of(dto));
+        index.index(List.of(dto));
+        index.refresh();
+
+        assertThat(index.search(groupId, "重复", null, null, null, 10)).hasSize(1);
+    }
+
+    @Test
+    void indexedThrough_IsSavedWithTheCommit(@TempDir Path dir) throws Exception {
+        MessageSearchIndex first = new MessageSearchIndex(FSDirectory.open(dir));
+        first.index(List.of(message(alice, "hello", base)));
+        first.markIndexedThrough(Map.of(groupId, 7L));
+        first.markIndexedThrough(Map.of(groupId, 5L));
+        assertThat(first.indexedThrough(groupId)).isEqualTo(7L);
+        first.close();
+
+        MessageSearchIndex reopened = new MessageSearchIndex(FSDirectory.open(dir));
+        try {
+            assertThat(reopened.indexedThrough(groupId)).isEqualTo(7L);
+            assertThat(reopened.indexedThrough(UUID.randomUUID())).isZero();
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private MessageDto message(UUID senderId, String content, LocalDateTime createdAt) {
+        MessageDto dto = new MessageDto();
+        dto.setId(UUID.randomUUID());
+        dto.setGroupId(groupId);
+        dto.setSenderId(senderId);
+        dto.setSenderNickname("user");
+        dto.setContent(content);
+        dto.setMessageType(MessageType.USER);
+        dto.setCreatedAt(createdAt);
+        return dto;
+    }
+}
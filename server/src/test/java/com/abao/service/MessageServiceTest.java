@@ -2,8 +2,12 @@ package com.abao.service;
 
 import com.abao.dto.message.MessageDto;
 import com.abao.entity.*;
+import com.abao.repository.ArchivedMessageRepository;
 import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageClientKeyRepository;
 import com.abao.repository.MessageRepository;
+import com.abao.repository.ReplyMetadata;
+import com.abao.repository.UserRepository;
 import com.abao.websocket.WebSocketSessionManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,13 +15,18 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -31,15 +40,33 @@ class MessageServiceTest {
     @Mock
     private MessageRepository messageRepository;
 
+    @Mock
+    private MessageClientKeyRepository messageClientKeyRepository;
+
+    @Mock
+    private ArchivedMessageRepository archivedMessageRepository;
+
     @Mock
     private GroupRepository groupRepository;
 
+    @Mock
+    private UserRepository userRepository;
+
     @Mock
     private WebSocketSessionManager sessionManager;
 
     @Mock
     private ApplicationEventPublisher eventPublisher;
 
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Spy
+    private MessageIdempotencyCache idempotencyCache = new MessageIdempotencyCache(Duration.ofMinutes(10), 1000, Duration.ofDays(7));
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
     @InjectMocks
     private MessageService messageService;
 
@@ -64,6 +91,7 @@ class MessageServiceTest {
         member.setUser(testUser);
         member.setGroup(testGroup);
         testGroup.getMembers().add(member);
+        lenient().when(membershipIndex.isMember(groupId, testUser.getId())).thenReturn(true);
     }
 
     @Test
@@ -98,14 +126,13 @@ class MessageServiceTest {
         String content = "Reply message";
         UUID replyToId = UUID.randomUUID();
 
-        Message originalMessage = new Message();
-        originalMessage.setId(replyToId);
-        originalMessage.setContent("Original message");
-        originalMessage.setGroup(testGroup);
-        originalMessage.setSender(testUser);
+        Message parentReference = new Message();
+        parentReference.setId(replyToId);
 
         when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
-        when(messageRepository.findById(replyToId)).thenReturn(Optional.of(originalMessage));
+        when(messageRepository.findReplyMetadata(replyToId)).thenReturn(Optional.of(
+            new ReplyMetadata(replyToId, MessageType.AI, null, "Original message")));
+        when(messageRepository.getReferenceById(replyToId)).thenReturn(parentReference);
         when(messageRepository.save(any(Message.class))).thenAnswer(invocation -> {
             Message msg = invocation.getArgument(0);
             msg.setId(UUID.randomUUID());
@@ -120,6 +147,9 @@ class MessageServiceTest {
         assertThat(result).isNotNull();
         assertThat(result.getReplyToId()).isEqualTo(replyToId);
         assertThat(result.getReplyToContent()).isEqualTo("Original message");
+        assertThat(result.getReplyToMessageType()).isEqualTo(MessageType.AI);
+        // The parent row is never loaded
+        verify(messageRepository, never()).findById(replyToId);
     }
 
     @Test
@@ -137,6 +167,7 @@ class MessageServiceTest {
     void sendMessage_UserNotMember_ThrowsException() {
         // Given
         testGroup.setMembers(new ArrayList<>()); // Empty members
+        when(membershipIndex.isMember(groupId, testUser.getId())).thenReturn(false);
         when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
 
         // When/Then
@@ -145,6 +176,94 @@ class MessageServiceTest {
             .hasMessageContaining("not a member");
     }
 
+    @Test
+    void sendMessage_RetryWithSameClientMessageId_ReturnsOriginalWithoutSideEffects() {
+        // Given
+        when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
+        when(messageRepository.save(any(Message.class))).thenAnswer(invocation -> {
+            Message msg = invocation.getArgument(0);
+            msg.setId(UUID.randomUUID());
+            msg.setCreatedAt(LocalDateTime.now());
+            return msg;
+        });
+
+        // When
+        MessageDto first = messageService.sendMessage(testUser, groupId, "Hello", null, "client-1");
+        MessageDto retry = messageService.sendMessage(testUser, groupId, "Hello", null, "client-1");
+
+        // Then
+        assertThat(retry.getId()).isEqualTo(first.getId());
+        assertThat(retry.getClientMessageId()).isEqualTo("client-1");
+        verify(messageRepository, times(1)).save(any(Message.class));
+        verify(sessionManager, times(1)).broadcastToGroup(eq(groupId), any());
+        verify(eventPublisher, times(1)).publishEvent(any());
+    }
+
+    @Test
+    void sendMessage_RetryOutsideDedupeWindow_FallsBackToPersistedMessage() {
+        // Given
+        when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
+        Message persisted = createTestMessage(testGroup, testUser, "Hello");
+        persisted.setClientMessageId("client-2");
+        when(messageClientKeyRepository.findRecent(eq(testUser.getId()), eq("client-2"), any(LocalDateTime.class)))
+            .thenReturn(Optional.of(new MessageClientKey(UUID.randomUUID(), testUser.getId(), "client-2", persisted.getId(), persisted.getCreatedAt())));
+        when(messageRepository.findById(persisted.getId())).thenReturn(Optional.of(persisted));
+
+        // When
+        MessageDto result = messageService.sendMessage(testUser, groupId, "Hello", null, "client-2");
+
+        // Then
+        assertThat(result.getId()).isEqualTo(persisted.getId());
+        verify(messageRepository, never()).save(any(Message.class));
+        verifyNoInteractions(sessionManager, eventPublisher);
+    }
+
+    @Test
+    void sendMessage_ConcurrentDuplicate_ReturnsTheMessageThatWon() {
+        // Given: the other send commits between our lookup and our insert
+        when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
+        Message winner = createTestMessage(testGroup, testUser, "Hello");
+        winner.setClientMessageId("client-3");
+        when(messageClientKeyRepository.findRecent(eq(testUser.getId()), eq("client-3"), any(LocalDateTime.class)))
+            .thenReturn(Optional.empty())
+            .thenReturn(Optional.of(new MessageClientKey(UUID.randomUUID(), testUser.getId(), "client-3", winner.getId(), winner.getCreatedAt())));
+        when(messageRepository.findById(winner.getId())).thenReturn(Optional.of(winner));
+        when(messageRepository.save(any(Message.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        doThrow(new DataIntegrityViolationException("uq_message_client_keys_sender_client_id"))
+            .when(messageClientKeyRepository).flush();
+
+        // When
+        MessageDto result = messageService.sendMessage(testUser, groupId, "Hello", null, "client-3");
+
+        // Then
+        assertThat(result.getId()).isEqualTo(winner.getId());
+        verifyNoInteractions(sessionManager, eventPublisher);
+    }
+
+    @Test
+    void sendMessage_RetryAfterLeavingTheGroup_IsRejected() {
+        // Given
+        MessageDto earlier = new MessageDto();
+        earlier.setId(UUID.randomUUID());
+        idempotencyCache.remember(testUser.getId(), "client-4", earlier);
+        when(groupRepository.findById(groupId)).thenReturn(Optional.of(testGroup));
+        when(membershipIndex.isMember(groupId, testUser.getId())).thenReturn(false);
+
+        // When/Then
+        assertThatThrownBy(() -> messageService.sendMessage(testUser, groupId, "Hello", null, "client-4"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("not a member");
+    }
+
+    @Test
+    void sendMessage_ClientMessageIdTooLong_ThrowsException() {
+        String tooLong = "x".repeat(65);
+
+        assertThatThrownBy(() -> messageService.sendMessage(testUser, groupId, "Hello", null, tooLong))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("clientMessageId");
+    }
+
     @Test
     void getMessages_Success() {
         // Given
@@ -179,6 +298,68 @@ class MessageServiceTest {
         assertThat(result).hasSize(2);
     }
 
+    @Test
+    void getHistory_PastHotBoundary_ContinuesFromArchive() {
+        // Given
+        Message hot = createTestMessage(testGroup, testUser, "Hot");
+        hot.setCreatedAt(LocalDateTime.now().minusDays(1));
+
+        ArchivedMessage archived = new ArchivedMessage();
+        archived.setId(UUID.randomUUID());
+        archived.setGroupId(groupId);
+        archived.setSenderId(testUser.getId());
+        archived.setContent("Archived");
+        archived.setMessageType(MessageType.USER);
+        archived.setCreatedAt(LocalDateTime.now().minusDays(400));
+
+        when(messageRepository.findHistoryBefore(eq(groupId), any(LocalDateTime.class), any(UUID.class), eq(2)))
+            .thenReturn(List.of(hot));
+        // The archive page continues from the last hot message's (createdAt, id)
+        when(archivedMessageRepository.findHistoryBefore(groupId, hot.getCreatedAt(), hot.getId(), 1))
+            .thenReturn(List.of(archived));
+        when(userRepository.findAllById(Set.of(testUser.getId()))).thenReturn(List.of(testUser));
+
+        // When
+        List<MessageDto> result = messageService.getHistory(groupId, testUser, null, null, 2);
+
+        // Then
+        assertThat(result).extracting(MessageDto::getContent).containsExactly("Hot", "Archived");
+        assertThat(result.get(1).getSenderNickname()).isEqualTo("TestUser");
+    }
+
+    @Test
+    void getHistory_HotPageFull_DoesNotTouchArchive() {
+        Message hot = createTestMessage(testGroup, testUser, "Hot");
+        when(messageRepository.findHistoryBefore(eq(groupId), any(LocalDateTime.class), any(UUID.class), eq(1)))
+            .thenReturn(List.of(hot));
+
+        List<MessageDto> result = messageService.getHistory(groupId, testUser, null, null, 1);
+
+        assertThat(result).hasSize(1);
+        verifyNoInteractions(archivedMessageRepository);
+    }
+
+    @Test
+    void getHistory_WithCursorId_ContinuesAfterThatMessageAtTheSameTimestamp() {
+        LocalDateTime before = LocalDateTime.now().minusHours(1);
+        UUID beforeId = UUID.randomUUID();
+
+        messageService.getHistory(groupId, testUser, before, beforeId, 5);
+
+        verify(messageRepository).findHistoryBefore(groupId, before, beforeId, 5);
+        verify(archivedMessageRepository).findHistoryBefore(groupId, before, beforeId, 5);
+    }
+
+    @Test
+    void getHistory_NotMember_ThrowsException() {
+        when(membershipIndex.isMember(groupId, testUser.getId())).thenReturn(false);
+
+        assertThatThrownBy(() -> messageService.getHistory(groupId, testUser, null, null, 10))
+            .isInstanceOf(RuntimeException.class)
+            .hasMessageContaining("不是该群聊成员");
+        verifyNoInteractions(messageRepository, archivedMessageRepository);
+    }
+
     @Test
     void sendSystemMessage_Success() {
         // Given
@@ -0,0 +1,103 @@
+package com.abao.service;
+
+import com.abao.dto.sync.GroupSyncDto;
+import com.abao.dto.sync.SyncDto;
+import com.abao.dto.sync.SyncRequest;
+import com.abao.entity.Group;
+import com.abao.entity.GroupChange;
+import com.abao.entity.GroupChangeType;
+import com.abao.entity.Message;
+import com.abao.entity.User;
+import com.abao.repository.GroupChangeRepository;
+import com.abao.repository.GroupRepository;
+import com.abao.repository.MessageRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SyncServiceTest {
+
+    private final GroupRepository groupRepository = mock(GroupRepository.class);
+    private final MessageRepository messageRepository = mock(MessageRepository.class);
+    private final GroupChangeRepository groupChangeRepository = mock(GroupChangeRepository.class);
+    private final SyncService syncService =
+        new SyncService(groupRepository, messageRepository, groupChangeRepository, new ObjectMapper());
+
+    private final User user = new User();
+    private final Group group = new Group();
+
+    @BeforeEach
+    void setUp() {
+        user.setId(UUID.randomUUID());
+        group.setId(UUID.randomUUID());
+        group.setLastSeq(10);
+        when(groupRepository.findByUserIdOrderByUpdatedAtDesc(user.getId())).thenReturn(List.of(group));
+    }
+
+    @Test
+    void sync_ChangesCountAgainstTheLimit() {
+        when(messageRepository.findAfterSeq(eq(group.getId()), eq(0L), anyInt()))
+            .thenReturn(messages(1, 2, 4, 5, 7));
+        when(groupChangeRepository.findAfterSeq(eq(group.getId()), eq(0L), anyInt()))
+            .thenReturn(changes(3, 6, 8, 9, 10));
+
+        SyncDto sync = syncService.sync(user, request(4));
+
+        GroupSyncDto page = sync.getGroups().get(0);
+        assertThat(page.getMessages()).extracting("seq").containsExactly(1L, 2L, 4L);
+        assertThat(page.getChanges()).extracting("seq").containsExactly(3L);
+        assertThat(page.getSeq()).isEqualTo(4);
+        assertThat(sync.isHasMore()).isTrue();
+        assertThat(sync.getContinuation()).isNotNull();
+    }
+
+    @Test
+    void sync_EverythingWithinTheLimit_ReachesLastSeq() {
+        when(messageRepository.findAfterSeq(eq(group.getId()), eq(0L), anyInt()))
+            .thenReturn(messages(1, 2, 4));
+        when(groupChangeRepository.findAfterSeq(eq(group.getId()), eq(0L), anyInt()))
+            .thenReturn(changes(3));
+
+        SyncDto sync = syncService.sync(user, request(10));
+
+        assertThat(sync.getGroups().get(0).getSeq()).isEqualTo(10);
+        assertThat(sync.isHasMore()).isFalse();
+    }
+
+    private SyncRequest request(int limit) {
+        SyncRequest request = new SyncRequest();
+        request.setLimit(limit);
+        return request;
+    }
+
+    private List<Message> messages(long... seqs) {
+        return LongStream.of(seqs).mapToObj(seq -> {
+            Message message = new Message();
+            message.setId(UUID.randomUUID());
+            message.setGroup(group);
+            message.setContent("m" + seq);
+            message.setSeq(seq);
+            return message;
+        }).toList();
+    }
+
+    private List<GroupChange> changes(long... seqs) {
+        return LongStream.of(seqs).mapToObj(seq -> {
+            GroupChange change = new GroupChange();
+            change.setGroupId(group.getId());
+            change.setSeq(seq);
+            change.setChangeType(GroupChangeType.MEMBER_JOINED);
+            return change;
+        }).toList();
+    }
+}
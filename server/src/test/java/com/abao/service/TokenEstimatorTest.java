@@ -0,0 +1,41 @@
+package com.abao.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenEstimatorTest {
+
+    @Test
+    void estimate_CountsWordsDigitsCjkAndPunctuation() {
+        assertThat(TokenEstimator.estimate("")).isZero();
+        // hello, world, "," : three tokens; a space is merged into the word after it
+        assertThat(TokenEstimator.estimate("hello, world")).isEqualTo(3);
+        // 123456789 is three digit groups
+        assertThat(TokenEstimator.estimate("123456789")).isEqualTo(3);
+        // ten CJK characters at 0.7 each
+        assertThat(TokenEstimator.estimate("今天天气怎么样呢朋友")).isEqualTo(7);
+        assertThat(TokenEstimator.estimate("😊")).isEqualTo(2);
+    }
+
+    @Test
+    void estimate_LongWordsCostMore() {
+        assertThat(TokenEstimator.estimate("internationalization")).isEqualTo(4);
+    }
+
+    @Test
+    void truncate_FitsTheLimitWithTheMark() {
+        String text = "第一段内容。".repeat(100);
+
+        String truncated = TokenEstimator.truncate(text, 50);
+
+        assertThat(truncated).endsWith(TokenEstimator.TRUNCATION_MARK);
+        assertThat(TokenEstimator.estimate(truncated)).isLessThanOrEqualTo(50);
+        assertThat(text).startsWith(truncated.substring(0, truncated.length() - TokenEstimator.TRUNCATION_MARK.length()));
+    }
+
+    @Test
+    void truncate_ShortTextIsReturnedUnchanged() {
+        assertThat(TokenEstimator.truncate("短消息", 50)).isEqualTo("短消息");
+    }
+}